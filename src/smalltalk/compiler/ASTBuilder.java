@@ -0,0 +1,169 @@
+package smalltalk.compiler;
+
+import org.antlr.v4.runtime.tree.TerminalNode;
+import smalltalk.compiler.ast.AST;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Convert parse trees for classes and main into {@link AST}s. Only call
+ *  this on trees without syntax errors.
+ */
+public class ASTBuilder {
+	public static AST.ClassDef classDef(SmalltalkParser.ClassDefContext ctx) {
+		String superClassName = ctx.ID(1)!=null ? ctx.ID(1).getText() : null;
+		List<String> fields = Collections.emptyList();
+		if ( ctx.instanceVars()!=null ) {
+			fields = DefineSymbols.getTextValues(ctx.instanceVars().localVars().ID());
+		}
+		List<AST.Method> methods = new ArrayList<>();
+		for (SmalltalkParser.ClassMethodContext m : ctx.classMethod()) {
+			methods.add(method(m.method(), true));
+		}
+		for (SmalltalkParser.MethodContext m : ctx.method()) {
+			methods.add(method(m, false));
+		}
+		return new AST.ClassDef(ctx.ID(0).getText(), superClassName, fields, methods);
+	}
+
+	public static AST.Main main(SmalltalkParser.MainContext ctx) {
+		return new AST.Main(body(ctx.body()));
+	}
+
+	public static AST.Method method(SmalltalkParser.MethodContext ctx, boolean isClassMethod) {
+		String selector;
+		List<String> args;
+		SmalltalkParser.MethodBlockContext methodBlock;
+		if ( ctx instanceof SmalltalkParser.NamedMethodContext ) {
+			SmalltalkParser.NamedMethodContext m = (SmalltalkParser.NamedMethodContext)ctx;
+			selector = m.ID().getText();
+			args = Collections.emptyList();
+			methodBlock = m.methodBlock();
+		}
+		else if ( ctx instanceof SmalltalkParser.OperatorMethodContext ) {
+			SmalltalkParser.OperatorMethodContext m = (SmalltalkParser.OperatorMethodContext)ctx;
+			selector = m.bop().getText();
+			args = Collections.singletonList(m.ID().getText());
+			methodBlock = m.methodBlock();
+		}
+		else {
+			SmalltalkParser.KeywordMethodContext m = (SmalltalkParser.KeywordMethodContext)ctx;
+			selector = String.join("", DefineSymbols.getTextValues(m.KEYWORD()));
+			args = DefineSymbols.getTextValues(m.ID());
+			methodBlock = m.methodBlock();
+		}
+		if ( methodBlock instanceof SmalltalkParser.PrimitiveMethodBlockContext ) {
+			String primitiveName = ((SmalltalkParser.PrimitiveMethodBlockContext)methodBlock).SYMBOL().getText();
+			primitiveName = primitiveName.substring(1); // Strip # from #Foo
+			return new AST.Method(selector, args, isClassMethod, primitiveName, null);
+		}
+		SmalltalkParser.BodyContext body = ((SmalltalkParser.SmalltalkMethodBlockContext)methodBlock).body();
+		return new AST.Method(selector, args, isClassMethod, null, body(body));
+	}
+
+	public static AST.Body body(SmalltalkParser.BodyContext ctx) {
+		SmalltalkParser.LocalVarsContext localVars;
+		List<AST.Stat> stats = new ArrayList<>();
+		if ( ctx instanceof SmalltalkParser.FullBodyContext ) {
+			SmalltalkParser.FullBodyContext full = (SmalltalkParser.FullBodyContext)ctx;
+			localVars = full.localVars();
+			for (SmalltalkParser.StatContext s : full.stat()) {
+				stats.add(stat(s));
+			}
+		}
+		else {
+			localVars = ((SmalltalkParser.EmptyBodyContext)ctx).localVars();
+		}
+		List<String> locals = Collections.emptyList();
+		if ( localVars!=null ) locals = DefineSymbols.getTextValues(localVars.ID());
+		return new AST.Body(locals, stats);
+	}
+
+	public static AST.Stat stat(SmalltalkParser.StatContext ctx) {
+		if ( ctx instanceof SmalltalkParser.AssignContext ) {
+			SmalltalkParser.AssignContext a = (SmalltalkParser.AssignContext)ctx;
+			return new AST.Assign(a.lvalue().ID().getText(), messageExpression(a.messageExpression()));
+		}
+		if ( ctx instanceof SmalltalkParser.ReturnContext ) {
+			return new AST.Return(messageExpression(((SmalltalkParser.ReturnContext)ctx).messageExpression()));
+		}
+		return new AST.ExprStat(messageExpression(((SmalltalkParser.SendMessageContext)ctx).messageExpression()));
+	}
+
+	public static AST.Expr messageExpression(SmalltalkParser.MessageExpressionContext ctx) {
+		SmalltalkParser.KeywordExpressionContext e = ctx.keywordExpression();
+		if ( e instanceof SmalltalkParser.PassThroughContext ) {
+			return binaryExpression(((SmalltalkParser.PassThroughContext)e).recv);
+		}
+		if ( e instanceof SmalltalkParser.KeywordSendContext ) {
+			SmalltalkParser.KeywordSendContext send = (SmalltalkParser.KeywordSendContext)e;
+			return new AST.KeywordSend(binaryExpression(send.recv), selector(send.KEYWORD()),
+			                           binaryExpressions(send.args));
+		}
+		SmalltalkParser.SuperKeywordSendContext send = (SmalltalkParser.SuperKeywordSendContext)e;
+		return new AST.SuperKeywordSend(selector(send.KEYWORD()), binaryExpressions(send.args));
+	}
+
+	public static AST.Expr binaryExpression(SmalltalkParser.BinaryExpressionContext ctx) {
+		AST.Expr e = unaryExpression(ctx.unaryExpression(0));
+		for (int i=1; i<=ctx.bop().size(); i++) {
+			e = new AST.BinarySend(e, ctx.bop(i-1).getText(), unaryExpression(ctx.unaryExpression(i)));
+		}
+		return e;
+	}
+
+	public static AST.Expr unaryExpression(SmalltalkParser.UnaryExpressionContext ctx) {
+		if ( ctx instanceof SmalltalkParser.UnaryMsgSendContext ) {
+			SmalltalkParser.UnaryMsgSendContext send = (SmalltalkParser.UnaryMsgSendContext)ctx;
+			return new AST.UnarySend(unaryExpression(send.unaryExpression()), send.ID().getText());
+		}
+		if ( ctx instanceof SmalltalkParser.UnarySuperMsgSendContext ) {
+			return new AST.UnarySuperSend(((SmalltalkParser.UnarySuperMsgSendContext)ctx).ID().getText());
+		}
+		return primary(((SmalltalkParser.UnaryIsPrimaryContext)ctx).primary());
+	}
+
+	public static AST.Expr primary(SmalltalkParser.PrimaryContext ctx) {
+		if ( ctx.literal()!=null ) return literal(ctx.literal());
+		if ( ctx.id()!=null ) return new AST.Id(ctx.id().getText());
+		if ( ctx.block()!=null ) return block(ctx.block());
+		if ( ctx.array()!=null ) {
+			List<AST.Expr> elements = new ArrayList<>();
+			for (SmalltalkParser.MessageExpressionContext e : ctx.array().messageExpression()) {
+				elements.add(messageExpression(e));
+			}
+			return new AST.Array(elements);
+		}
+		return messageExpression(ctx.messageExpression()); // (expr)
+	}
+
+	public static AST.Literal literal(SmalltalkParser.LiteralContext ctx) {
+		return new AST.Literal(literalKind(ctx), ctx.getText());
+	}
+
+	public static AST.Literal.Kind literalKind(SmalltalkParser.LiteralContext ctx) {
+		if ( ctx.NUMBER()!=null ) return AST.Literal.Kind.NUMBER;
+		if ( ctx.CHAR()!=null ) return AST.Literal.Kind.CHAR;
+		if ( ctx.STRING()!=null ) return AST.Literal.Kind.STRING;
+		return AST.Literal.Kind.KEYWORD;
+	}
+
+	public static AST.Block block(SmalltalkParser.BlockContext ctx) {
+		List<String> args = Collections.emptyList();
+		if ( ctx.blockArgs()!=null ) args = DefineSymbols.getTextValues(ctx.blockArgs().ID());
+		return new AST.Block(args, body(ctx.body()));
+	}
+
+	protected static List<AST.Expr> binaryExpressions(List<SmalltalkParser.BinaryExpressionContext> ctxs) {
+		List<AST.Expr> exprs = new ArrayList<>(ctxs.size());
+		for (SmalltalkParser.BinaryExpressionContext e : ctxs) {
+			exprs.add(binaryExpression(e));
+		}
+		return exprs;
+	}
+
+	protected static String selector(List<TerminalNode> keywords) {
+		return String.join("", DefineSymbols.getTextValues(keywords));
+	}
+}
@@ -0,0 +1,224 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.VariableSymbol;
+import org.antlr.v4.runtime.CommonToken;
+import smalltalk.compiler.ast.AST;
+import smalltalk.compiler.symbols.STBlock;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STGlobalScope;
+import smalltalk.compiler.symbols.STMethod;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Define symbols and generate code from {@link AST}s rather than parse
+ *  trees, e.g., for classes found in an {@link smalltalk.compiler.ast.ASTCache}.
+ *  As with {@link FusedCodeGenerator}, call {@link #defineHeaders} on every
+ *  class and main first, then {@link #generate}; locals and blocks are
+ *  defined as we generate code for them. Symbols, errors, and bytecode are
+ *  the same as for compiling the parse trees the ASTs came from, except
+ *  that a redefined class or method is skipped rather than compiled: the
+ *  code for each construct comes from the same {@link CodeGenerator}
+ *  methods the parse tree visitors use. There is no debug info.
+ */
+public class ASTCodeGenerator extends CodeGenerator {
+	/** Checks assignments; its currentScope tracks ours */
+	protected final ResolveSymbols res;
+
+	protected STMethod currentMethod;
+
+	/** ASTs are shared and immutable so track their symbols here */
+	protected final Map<AST.Unit, STClass> classes = new IdentityHashMap<>();
+	protected final Map<AST.Method, STMethod> methods = new IdentityHashMap<>();
+	protected STMethod mainMethod;
+
+	public ASTCodeGenerator(Compiler compiler) {
+		super(compiler);
+		res = new ResolveSymbols(compiler);
+	}
+
+	public void defineHeaders(AST.Unit unit) {
+		if ( unit instanceof AST.ClassDef ) defineClass((AST.ClassDef)unit);
+		else defineMain((AST.Main)unit);
+	}
+
+	public void generate(AST.Unit unit) {
+		if ( unit instanceof AST.ClassDef ) generateClass((AST.ClassDef)unit);
+		else generateMain((AST.Main)unit);
+	}
+
+	/** Return the class defined for unit, if any; MainClass for main */
+	public STClass getClass(AST.Unit unit) {
+		return classes.get(unit);
+	}
+
+	/** Define class, fields, methods, and arguments as {@link DefineSymbols} does */
+	protected void defineClass(AST.ClassDef cd) {
+		String superClassName = cd.superClassName;
+		if ( superClassName==null && !cd.name.equals("Object") ) {
+			superClassName = "Object";
+		}
+		if ( cd.name.equals("MainClass") ) {
+			compiler.error("redefinition of "+cd.name);
+			return;
+		}
+		STClass cl = new STClass(cd.name, superClassName);
+		STGlobalScope globals = compiler.symtab.GLOBALS;
+		switch ( globals.define(cl, compiler.unit) ) {
+			case DUPLICATE_IN_UNIT :
+				compiler.error("redefinition of "+cd.name);
+				return;
+			case REDEFINED_IN_OTHER_UNIT :
+				cl.setScope(globals);
+				break;
+		}
+		compiler.defineFields(cl, cd.fields);
+		for (AST.Method m : cd.methods) {
+			defineMethod(cl, m);
+		}
+		classes.put(cd, cl);
+	}
+
+	protected void defineMethod(STClass cl, AST.Method m) {
+		STMethod sym;
+		if ( m.primitiveName!=null ) {
+			if ( cl.getSymbol(m.selector)!=null ) {
+				compiler.error("redefinition of primitive "+m.selector+" in "+cl.toQualifierString(">>"));
+			}
+			sym = compiler.createPrimitiveMethod(cl, m.selector, m.primitiveName, null);
+		}
+		else {
+			if ( cl.getSymbol(m.selector)!=null ) {
+				compiler.error("redefinition of method "+m.selector+" in "+cl.toQualifierString(">>"));
+				return;
+			}
+			sym = compiler.createMethod(m.selector, null);
+		}
+		cl.define(sym);
+		compiler.defineArguments(sym, m.args);
+		sym.isClassMethod = m.isClassMethod;
+		methods.put(m, sym);
+	}
+
+	protected void defineMain(AST.Main main) {
+		if ( main.isEmpty() ) return;
+		STClass cl = new STClass("MainClass", "Object");
+		new DefineSymbols(compiler).defineMainClass(cl);
+		mainMethod = compiler.createMethod("main", null);
+		cl.define(mainMethod);
+		classes.put(main, cl);
+	}
+
+	protected void generateClass(AST.ClassDef cd) {
+		currentClassScope = classes.get(cd);
+		if ( currentClassScope==null ) return;
+		for (AST.Method m : cd.methods) {
+			STMethod sym = methods.get(m);
+			if ( sym==null ) continue; // redefinition
+			if ( m.primitiveName!=null ) {
+				sym.compiledBlock = getCompiledMethod(sym);
+				continue;
+			}
+			enterMethod(sym);
+			Code code = body(m.body);
+			setCompiledMethod(sym, returnSelf(code, !m.body.stats.isEmpty(), Code.None));
+		}
+		currentClassScope = null;
+	}
+
+	protected void generateMain(AST.Main main) {
+		currentClassScope = classes.get(main);
+		if ( currentClassScope==null ) return;
+		enterMethod(mainMethod);
+		Code code = body(main.body);
+		setCompiledMethod(mainMethod, returnSelf(code, true, Code.None)); // pop final value
+		currentClassScope = null;
+	}
+
+	protected void enterMethod(STMethod m) {
+		currentMethod = m;
+		currentScope = m;
+	}
+
+	/** Define locals then generate each statement, popping all but the last */
+	protected Code body(AST.Body body) {
+		compiler.defineLocals(currentScope, body.locals);
+		if ( body.stats.isEmpty() ) return Code.None;
+		Code code = new Code();
+		for (int i=0; i<body.stats.size(); i++) {
+			code = code.join(stat(body.stats.get(i)));
+			if ( i<body.stats.size()-1 ) {
+				code = code.join(Compiler.pop());
+			}
+		}
+		return code;
+	}
+
+	protected Code stat(AST.Stat s) {
+		if ( s instanceof AST.Assign ) {
+			AST.Assign a = (AST.Assign)s;
+			res.currentScope = currentScope;
+			VariableSymbol sym = res.checkIDExists(new CommonToken(SmalltalkParser.ID, a.name));
+			return assign(expr(a.value), Code.None, a.name, sym);
+		}
+		if ( s instanceof AST.Return ) {
+			return methodReturn(expr(((AST.Return)s).value), Code.None);
+		}
+		return expr(((AST.ExprStat)s).expr);
+	}
+
+	protected Code expr(AST.Expr e) {
+		if ( e instanceof AST.Id ) {
+			String id = ((AST.Id)e).name;
+			return push(id, currentScope.resolve(id));
+		}
+		if ( e instanceof AST.Literal ) {
+			AST.Literal lit = (AST.Literal)e;
+			return literal(lit.kind, lit.text);
+		}
+		if ( e instanceof AST.BinarySend ) {
+			AST.BinarySend send = (AST.BinarySend)e;
+			Code code = expr(send.receiver);
+			code = code.join(expr(send.arg));
+			return send(code, send.operator, 1, Code.None);
+		}
+		if ( e instanceof AST.UnarySend ) {
+			AST.UnarySend send = (AST.UnarySend)e;
+			return send(expr(send.receiver), send.selector, 0, Code.None);
+		}
+		if ( e instanceof AST.KeywordSend ) {
+			AST.KeywordSend send = (AST.KeywordSend)e;
+			Code code = expr(send.receiver);
+			for (AST.Expr arg : send.args) {
+				code = code.join(expr(arg));
+			}
+			return send(code, send.selector, send.args.size(), Code.None);
+		}
+		if ( e instanceof AST.UnarySuperSend ) {
+			return superSend(((AST.UnarySuperSend)e).selector, Code.None);
+		}
+		if ( e instanceof AST.Block ) {
+			return block((AST.Block)e);
+		}
+		// arrays and super keyword sends generate just their elements/args
+		List<AST.Expr> elements = e instanceof AST.Array ?
+			((AST.Array)e).elements : ((AST.SuperKeywordSend)e).args;
+		Code code = Code.None;
+		for (AST.Expr element : elements) {
+			code = code.join(expr(element));
+		}
+		return code;
+	}
+
+	protected Code block(AST.Block b) {
+		STBlock blk = compiler.createBlock(currentMethod, null);
+		currentScope.define(blk); // must occur before defining variables
+		compiler.defineArguments(blk, b.args);
+		currentScope = blk;
+		Code code = body(b.body);
+		setCompiledBlock(blk, blockReturn(code, b.body.stats.isEmpty(), Code.None));
+		currentScope = currentScope.getEnclosingScope();
+		return Compiler.block((short)blk.index);
+	}
+}
@@ -1,7 +1,7 @@
 package smalltalk.compiler;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 public class Bytecode {
 	public static final int MAX_OPNDS = 3; // Or single opnd indicating variable number
@@ -46,6 +46,19 @@ public class Bytecode {
 			type[2] = c;
 			n = MAX_OPNDS;
 		}
+
+		public String getName() { return name; }
+
+		public int getNumberOfOperands() { return n; }
+
+		public OperandType getOperandType(int i) { return type[i]; }
+
+		/** Number of bytes occupied by the opcode and its operands */
+		public int size() {
+			int size = 1;
+			for (int i=0; i<n; i++) size += type[i].sizeInBytes;
+			return size;
+		}
 	}
 
 	// don't use enum for efficiency; don't want code block to
@@ -112,88 +125,24 @@ public class Bytecode {
 
 	public static String disassemble(String blkName, byte[] bytecode, String[] literals, int start) {
 		StringBuilder buf = new StringBuilder();
-		int i=start;
-		while (bytecode!=null && i<bytecode.length) {
-			i = disassembleInstruction(buf, blkName, bytecode, literals, i);
-			buf.append('\n');
+		try {
+			new Disassembler(buf).disassemble(blkName, bytecode, literals, start);
+		}
+		catch (IOException ioe) {
+			throw new UncheckedIOException(ioe); // can't happen with StringBuilder
 		}
 		return buf.toString();
 	}
 
 	public static String disassembleInstruction(String blkName, byte[] bytecode, String[] literals, int ip) {
 		StringBuilder buf = new StringBuilder();
-		disassembleInstruction(buf, blkName, bytecode, literals, ip);
-		return buf.toString();
-	}
-
-	public static int disassembleInstruction(StringBuilder buf, String blkName, byte[] bytecode, String[] literals, int ip) {
-		int opcode = bytecode[ip];
-		if ( ip>=bytecode.length ) {
-			throw new IllegalArgumentException("ip out of range: "+ip);
-		}
-		Bytecode.Instruction I =
-			Bytecode.instructions[opcode];
-		if ( I==null ) {
-			throw new IllegalArgumentException("no such instruction "+opcode+
-				" at address "+ip+" of "+ blkName+"\n");
-		}
-		String instrName = I.name;
-		if ( instrName.equals("dbg") ) {
-			buf.append(String.format("%04d:  %s ", ip, instrName));
-		}
-		else {
-			buf.append(String.format("%04d:  %-15s", ip, instrName));
+		try {
+			new Disassembler(buf).disassembleInstruction(blkName, bytecode, literals, ip);
 		}
-		ip++;
-		if ( I.n==0 ) {
-			buf.append("  ");
-			return ip;
+		catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
 		}
-		List<String> operands = new ArrayList<>();
-		for (int i=0; i<I.n; i++) {
-			switch ( I.type[i] ) {
-				case NONE:
-					break;
-				case BYTE:
-					operands.add(String.valueOf(bytecode[ip]));
-					break;
-				case CHAR :
-					operands.add(String.valueOf(getShort(bytecode, ip)));
-					break;
-				case SHORT :
-					operands.add(String.valueOf(getShort(bytecode, ip)));
-					break;
-				case LITERAL:
-					int lit = getShort(bytecode, ip);
-//					operands.add(String.format("'%s'(@%d)", literals[lit], lit));
-					operands.add(String.format("'%s'", literals[lit]));
-					break;
-				case ADDR :
-				case INT :
-					operands.add(String.valueOf(getInt(bytecode, ip)));
-					break;
-				case FLOAT :
-					float f = Float.intBitsToFloat(getInt(bytecode, ip));
-					operands.add(String.valueOf(f));
-					break;
-				case DBG_LOCATION :
-					int lineAndPos = getInt(bytecode, ip);
-					int charPos = charPosFromCombined(lineAndPos);
-					int line = lineFromCombined(lineAndPos);
-					operands.add(line+":"+charPos);
-					break;
-				default :
-					System.err.println("invalid opnd type: "+I.type[i]);
-					break;
-			}
-			ip += I.type[i].sizeInBytes;
-		}
-		for (int i = 0; i < operands.size(); i++) {
-			String s = operands.get(i);
-			if ( i>0 ) buf.append(", ");
-			buf.append( s );
-		}
-		return ip;
+		return buf.toString();
 	}
 
 	public static int getInt(byte[] memory, int index) {
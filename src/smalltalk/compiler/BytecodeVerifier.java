@@ -0,0 +1,261 @@
+package smalltalk.compiler;
+
+import smalltalk.compiler.symbols.STCompiledBlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Check that the bytecode of a method and its nested blocks is well
+ *  formed and compute the maximum operand stack depth of each. In one
+ *  pass over each block's code, we check that:
+ *
+ *  - every opcode exists and its operands fit within the code
+ *  - LITERAL operands index the literals
+ *  - push_local and store_local name a scope that lexically encloses
+ *    the block and a local or argument of that scope
+ *  - block n names one of the method's blocks
+ *  - the stack never underflows, holds exactly the return value at
+ *    return and block_return, and the code ends with one of those
+ *
+ *  There are no jumps so straight-line code is all there is. Code after
+ *  a return is dead, but the code generator still emits the pop that
+ *  follows every statement, so we verify it as if the returned value
+ *  were still on the stack.
+ *
+ *  The scope of a block is whichever block or method creates it with a
+ *  block instruction, so we verify the method first and then each block
+ *  once its creator has been verified. A block no code creates is still
+ *  checked but we can't check its local references to outer scopes.
+ *
+ *  The compiler runs this over every method it generates, to check the
+ *  max stack depth it tracked while generating code, and
+ *  {@link smalltalk.vm.STOLoader} over every method it loads. It works on
+ *  plain arrays so that it doesn't care which side the code came from.
+ */
+public class BytecodeVerifier {
+	/** Number of literals LITERAL operands may refer to */
+	protected final int numLiterals;
+
+	public final List<String> errors = new ArrayList<>();
+
+	// Per method being verified, indexed by unit: 0 is the method and
+	// i+1 is block i
+	protected String[] names;
+	protected byte[][] code;
+	protected int[] numLocals;
+	protected int[] parent; // -1 if unknown
+	protected int[] depth;  // scopes out to the method; -1 if unknown
+	protected int[] maxStack;
+
+	// Units in the order we verify them; checkBlock queues each block
+	// the first time it sees it created
+	protected int[] order;
+	protected boolean[] queued;
+	protected int tail;
+
+	public BytecodeVerifier(int numLiterals) {
+		this.numLiterals = numLiterals;
+	}
+
+	/** Verify a method and its nested blocks: names[0], code[0], and
+	 *  numLocals[0] (args plus locals) describe the method and element
+	 *  i+1 describes blocks[i]. Return the max stack depth of each, indexed
+	 *  the same way; problems are added to {@link #errors}.
+	 */
+	public int[] verify(String[] names, byte[][] code, int[] numLocals) {
+		int n = code.length;
+		this.names = names;
+		this.code = code;
+		this.numLocals = numLocals;
+		parent = new int[n];
+		depth = new int[n];
+		maxStack = new int[n];
+		Arrays.fill(parent, -1);
+		Arrays.fill(depth, -1);
+		depth[0] = 0;
+		// verifying a unit sets the parent of any block it creates and
+		// queues it, so creators come before the blocks they create
+		order = new int[n];
+		queued = new boolean[n];
+		order[0] = 0;
+		queued[0] = true;
+		tail = 1;
+		int head = 0;
+		int orphan = 1; // blocks before this are queued
+		while ( true ) {
+			while ( head<tail ) {
+				verifyUnit(order[head++]);
+			}
+			while ( orphan<n && queued[orphan] ) orphan++;
+			if ( orphan==n ) break;
+			queue(orphan); // never created; no scope info
+		}
+		return maxStack;
+	}
+
+	/** Verify method and its {@link STCompiledBlock#blocks} and check
+	 *  that the {@link STCompiledBlock#maxStack} the code generator
+	 *  recorded for each is what the code needs.
+	 */
+	public void verify(STCompiledBlock method) {
+		int n = method.blocks!=null ? method.blocks.length+1 : 1;
+		String[] names = new String[n];
+		byte[][] code = new byte[n][];
+		int[] numLocals = new int[n];
+		for (int i=0; i<n; i++) {
+			STCompiledBlock blk = i==0 ? method : method.blocks[i-1];
+			names[i] = blk.qualifiedName;
+			code[i] = blk.bytecode;
+			numLocals[i] = blk.nargs+blk.nlocals;
+		}
+		int[] maxStack = verify(names, code, numLocals);
+		for (int i=0; i<n; i++) {
+			STCompiledBlock blk = i==0 ? method : method.blocks[i-1];
+			if ( blk.maxStack!=maxStack[i] ) {
+				errors.add(names[i]+": maxStack is "+blk.maxStack+" but code needs "+maxStack[i]);
+			}
+		}
+	}
+
+	protected void verifyUnit(int u) {
+		byte[] bytes = code[u];
+		if ( bytes==null || bytes.length==0 ) return; // primitive
+		int sp = 0;   // operand stack depth
+		int max = 0;
+		int ip = 0;
+		int lastOpcode = 0;
+		while ( ip<bytes.length ) {
+			int opcode = bytes[ip];
+			Bytecode.Instruction I = opcode>0 && opcode<Bytecode.instructions.length ?
+				Bytecode.instructions[opcode] : null;
+			if ( I==null ) {
+				error(u, ip, "invalid opcode "+opcode);
+				return;
+			}
+			if ( ip+I.size()>bytes.length ) {
+				error(u, ip, I.name+" operands run past end of code");
+				return;
+			}
+			int a = ip+1; // first operand
+			switch ( opcode ) {
+				case Bytecode.PUSH_LITERAL :
+				case Bytecode.PUSH_GLOBAL :
+					checkLiteral(u, ip, Bytecode.getShort(bytes, a));
+					break;
+				case Bytecode.SEND :
+				case Bytecode.SEND_SUPER :
+					checkLiteral(u, ip, Bytecode.getShort(bytes, a+2));
+					break;
+				case Bytecode.DBG :
+					checkLiteral(u, ip, Bytecode.getShort(bytes, a));
+					break;
+				case Bytecode.PUSH_LOCAL :
+				case Bytecode.STORE_LOCAL :
+					checkLocal(u, ip, Bytecode.getShort(bytes, a), Bytecode.getShort(bytes, a+2));
+					break;
+				case Bytecode.BLOCK :
+					checkBlock(u, ip, Bytecode.getShort(bytes, a));
+					break;
+				case Bytecode.BLOCK_RETURN :
+					if ( u==0 ) error(u, ip, "block_return in a method");
+					if ( sp!=1 ) error(u, ip, I.name+" with stack depth "+sp);
+					break;
+				case Bytecode.RETURN :
+					if ( sp!=1 ) error(u, ip, I.name+" with stack depth "+sp);
+					break;
+			}
+			int pops = pops(opcode, bytes, a);
+			if ( pops>sp ) {
+				error(u, ip, I.name+" pops "+pops+" but stack depth is "+sp);
+				return;
+			}
+			sp += pushes(opcode) - pops;
+			max = Math.max(max, sp);
+			lastOpcode = opcode;
+			ip += I.size();
+		}
+		if ( lastOpcode!=Bytecode.RETURN && lastOpcode!=Bytecode.BLOCK_RETURN ) {
+			error(u, ip, "code doesn't end with return or block_return");
+		}
+		maxStack[u] = max;
+	}
+
+	/** How many operands the instruction at opcode, with operands at a, pops */
+	public static int pops(int opcode, byte[] bytes, int a) {
+		switch ( opcode ) {
+			case Bytecode.POP :
+				return 1;
+			case Bytecode.PUSH_ARRAY :
+				return Bytecode.getShort(bytes, a);
+			case Bytecode.SEND :
+			case Bytecode.SEND_SUPER :
+				return Bytecode.getShort(bytes, a)+1; // args and receiver
+			case Bytecode.BLOCK_RETURN :
+			case Bytecode.RETURN :
+				// a returned value is popped but, as explained above, we
+				// treat it as staying put for the dead code that follows
+				return 1;
+			default :
+				return 0; // stores leave the value on the stack
+		}
+	}
+
+	/** How many operands the instruction at opcode pushes */
+	public static int pushes(int opcode) {
+		switch ( opcode ) {
+			case Bytecode.STORE_FIELD :
+			case Bytecode.STORE_LOCAL :
+			case Bytecode.POP :
+			case Bytecode.DBG :
+				return 0;
+			default :
+				return 1; // including the value left by return
+		}
+	}
+
+	protected void checkLiteral(int u, int ip, int index) {
+		if ( index>=numLiterals ) {
+			error(u, ip, "literal "+index+" out of range 0.."+(numLiterals-1));
+		}
+	}
+
+	protected void checkLocal(int u, int ip, int scope, int index) {
+		if ( depth[u]<0 ) return; // we don't know our enclosing scopes
+		if ( scope>depth[u] ) {
+			error(u, ip, "scope "+scope+" but only "+depth[u]+" enclosing scopes");
+			return;
+		}
+		int target = u;
+		for (int i=0; i<scope; i++) target = parent[target];
+		if ( index>=numLocals[target] ) {
+			error(u, ip, "local "+index+" out of range for "+names[target]+
+			             " with "+numLocals[target]+" args and locals");
+		}
+	}
+
+	protected void checkBlock(int u, int ip, int index) {
+		int b = index+1;
+		if ( b>=code.length ) {
+			error(u, ip, "block "+index+" but method has "+(code.length-1)+" blocks");
+			return;
+		}
+		if ( parent[b]>=0 && parent[b]!=u ) {
+			error(u, ip, "block "+index+" also created by "+names[parent[b]]);
+			return;
+		}
+		if ( b==u || depth[u]<0 ) return;
+		parent[b] = u;
+		depth[b] = depth[u]+1;
+		if ( !queued[b] ) queue(b);
+	}
+
+	protected void queue(int u) {
+		order[tail++] = u;
+		queued[u] = true;
+	}
+
+	protected void error(int u, int ip, String msg) {
+		errors.add(names[u]+" at "+ip+": "+msg);
+	}
+}
@@ -1,10 +1,24 @@
 package smalltalk.compiler;
 
 import smalltalk.compiler.misc.ByteList;
+import smalltalk.compiler.misc.LineTable;
 
 public class Code extends ByteList { // just an alias
 	public static final Code None = new Code();
 
+	/** Source locations of instructions in this code, relative to its
+	 *  start, or null if there are none; see {@link Compiler#dbg}.
+	 */
+	public LineTable lines;
+
+	/** Net change in operand stack depth from running this code */
+	public int depth;
+
+	/** The deepest the operand stack gets, relative to where it was when
+	 *  this code started, while running this code.
+	 */
+	public int maxDepth;
+
 	public static Code of(short... args) {
 		Code bytes = new Code();
 		for (short b : args) bytes.add(b);
@@ -19,6 +33,13 @@ public class Code extends ByteList { // just an alias
 		return bytes;
 	}
 
+	/** Record the stack effect of the single instruction in this code */
+	public Code effect(int pops, int pushes) {
+		depth = pushes - pops;
+		maxDepth = Math.max(depth, 0);
+		return this;
+	}
+
 	// Support code.join(morecode).join(evenmorecode) chains
 	public Code join(Code bytes) {
 		if ( this == None ) {
@@ -27,9 +48,15 @@ public class Code extends ByteList { // just an alias
 		if ( bytes == None ) {
 			return this;
 		}
+		if ( bytes.lines!=null ) {
+			if ( lines==null ) lines = new LineTable();
+			lines.addAll(bytes.lines, n);
+		}
 		for (int i=0; i<bytes.n; i++) {
 			add(bytes.elements[i]);
 		}
+		maxDepth = Math.max(maxDepth, depth + bytes.maxDepth);
+		depth += bytes.depth;
 		return this;
 	}
 }
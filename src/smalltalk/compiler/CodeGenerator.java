@@ -4,6 +4,7 @@ import org.antlr.symtab.*;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.TerminalNode;
+import smalltalk.compiler.ast.AST;
 import smalltalk.compiler.symbols.*;
 import java.util.List;
 
@@ -56,20 +57,13 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		Code code = null;
 		if (ctx.scope != null) {
 			currentClassScope = ctx.classScope;
+			if ( compiler.genDbg ) currentClassScope.sourceFile = compiler.getFileName();
 			pushScope(ctx.classScope);
 			pushScope(ctx.scope);
 			code = visitChildren(ctx);
-			code = code.join(Compiler.pop()); // final value
-			code = code.join(Compiler.push_self()); //always add ^self
-			code = code.join(Compiler.method_return());
-			ctx.scope.compiledBlock = getCompiledMethod(ctx.scope);
-			ctx.scope.compiledBlock.bytecode = code.bytes();
-			List<Scope> STBlocks = ctx.scope.getAllNestedScopedSymbols();
-			ctx.scope.compiledBlock.blocks = new STCompiledBlock[STBlocks.size()];
-			for(int i=0; i<STBlocks.size();i++){
-				STBlock stb = ((STBlock)STBlocks.get(i));
-				ctx.scope.compiledBlock.blocks[stb.index] = stb.compiledBlock;
-			}
+			code = returnSelf(code, true, dbgAtEndMain(ctx.getStop())); // pop final value
+			setCompiledMethod(ctx.scope, code);
+			setDebugInfo(ctx.scope.compiledBlock, ctx.scope, ctx);
 			popScope();
 			popScope();
 			currentClassScope = null;
@@ -80,6 +74,7 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	@Override
 	public Code visitClassDef(SmalltalkParser.ClassDefContext ctx) {
 		currentClassScope = ctx.scope;
+		if ( compiler.genDbg && ctx.scope!=null ) ctx.scope.sourceFile = compiler.getFileName();
 		pushScope(ctx.scope);
 		visitChildren(ctx);
 		popScope();
@@ -124,29 +119,19 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		pushScope(((SmalltalkParser.MethodContext) ctx.getParent()).scope);
 
 		Code code = visitChildren(ctx);
-		if (ctx.body() instanceof SmalltalkParser.FullBodyContext) {
-			code = code.join(Compiler.pop());
-		}
-		code = code.join(Compiler.push_self());
-		code = code.join(Compiler.method_return());
-		methodContext.scope.compiledBlock = getCompiledMethod(methodContext.scope);
-		methodContext.scope.compiledBlock.bytecode = code.bytes();
-		List<Scope> STBlocks = methodContext.scope.getAllNestedScopedSymbols();
-		methodContext.scope.compiledBlock.blocks = new STCompiledBlock[STBlocks.size()];
-		for(int i=0; i<STBlocks.size();i++){
-			STBlock stb = ((STBlock)STBlocks.get(i));
-			methodContext.scope.compiledBlock.blocks[stb.index] = stb.compiledBlock;
-		}
+		code = returnSelf(code, ctx.body() instanceof SmalltalkParser.FullBodyContext,
+		                  dbgAtEndBlock(ctx.getStop()));
+		setCompiledMethod(methodContext.scope, code);
+		setDebugInfo(methodContext.scope.compiledBlock, methodContext.scope, methodContext);
 		popScope();
 		return Code.None;
 	}
 
 	@Override
 	public Code visitAssign(SmalltalkParser.AssignContext ctx) {
-		Code rigthside = visit(ctx.messageExpression());
-		Code leftside = store(ctx.lvalue().ID().getText());
-		Code code = rigthside.join(leftside);
-		return code;
+		Code code = visit(ctx.messageExpression());
+		String id = ctx.lvalue().ID().getText();
+		return assign(code, dbg(ctx.lvalue().getStart()), id, currentScope.resolve(id));
 	}
 
 	@Override
@@ -158,31 +143,23 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	@Override
 	public Code visitKeywordSend(SmalltalkParser.KeywordSendContext ctx) {
 		Code code = visit(ctx.recv);
-		Code args = new Code();
 		for (SmalltalkParser.BinaryExpressionContext binaryExpressionContext: ctx.args) {
-			args.join(visit(binaryExpressionContext));
+			code = aggregateResult(code, visit(binaryExpressionContext));
 		}
 		String s = "";
 		for (TerminalNode terminalNode: ctx.KEYWORD()) {
 			s += terminalNode.getText();
 		}
-		int literalIndex = getLiteralIndex(s);
-		int size = ctx.args.size();
-		args.join(Compiler.send(size, literalIndex));
-		aggregateResult(code, args);
-		return code;
+		return send(code, s, ctx.args.size(), dbg(ctx.KEYWORD(0).getSymbol()));
 	}
 
 	@Override
 	public Code visitBinaryExpression(SmalltalkParser.BinaryExpressionContext ctx) {
 		Code code = visit(ctx.unaryExpression(0));
 		if (ctx.bop().size() != 0) {
-			String operand;
 			for (int i=1; i<=ctx.bop().size(); i++) {
 				code = aggregateResult(code, visit(ctx.unaryExpression(i)));
-				operand = ctx.bop().get(i-1).getText();
-				int literalIndex = getLiteralIndex(operand);
-				code = aggregateResult(code, Compiler.send(1,literalIndex));
+				code = send(code, ctx.bop(i-1).getText(), 1, dbg(ctx.bop(i-1).getStart()));
 			}
 		}
 		return code;
@@ -191,17 +168,13 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	@Override
 	public Code visitBlock(SmalltalkParser.BlockContext ctx) {
 		pushScope(ctx.scope);
-		Code icode = new Code();
-		icode.join(Compiler.block((short) ctx.scope.index));
 		Code code = visitChildren(ctx);
-		if (ctx.body() instanceof SmalltalkParser.EmptyBodyContext){
-			code = code.join(Compiler.push_nil());
-		}
-		code = code.join(Compiler.block_return());
-		ctx.scope.compiledBlock = getCompiledBlock(ctx.scope);
-		ctx.scope.compiledBlock.bytecode = code.bytes();
+		code = blockReturn(code, ctx.body() instanceof SmalltalkParser.EmptyBodyContext,
+		                   dbgAtEndBlock(ctx.getStop()));
+		setCompiledBlock(ctx.scope, code);
+		setDebugInfo(ctx.scope.compiledBlock, ctx.scope, ctx);
 		popScope();
-		return icode;
+		return Compiler.block((short) ctx.scope.index);
 	}
 
 	@Override
@@ -217,19 +190,12 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	@Override
 	public Code visitUnaryMsgSend(SmalltalkParser.UnaryMsgSendContext ctx) {
 		Code code = visit(ctx.unaryExpression());
-		String s = ctx.ID().getText();
-		int literalIndex = getLiteralIndex(s);
-		code.join(Compiler.send(0,literalIndex));
-		return code;
+		return send(code, ctx.ID().getText(), 0, dbg(ctx.ID().getSymbol()));
 	}
 
 	@Override
 	public Code visitUnarySuperMsgSend(SmalltalkParser.UnarySuperMsgSendContext ctx) {
-		Code code = new Code();
-		String str = ctx.ID().getText();
-		int index = getLiteralIndex(str);
-		code.join(Compiler.push_self()).join(Compiler.send_super(0, index));
-		return code;
+		return superSend(ctx.ID().getText(), dbg(ctx.ID().getSymbol()));
 	}
 
 	@Override
@@ -241,52 +207,104 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 
 	@Override
 	public Code visitLiteral(SmalltalkParser.LiteralContext ctx) {
-		Code code = new Code();
-		if (ctx.NUMBER() != null) {
-			String number = ctx.NUMBER().getText();
-			if (number.contains(".")) {
-				float aFloat = Float.parseFloat(number);
-				code.join(Compiler.push_float(aFloat));
-			} else {
-				int i = Integer.parseInt(number);
-				code.join(Compiler.push_int(i));
-			}
-		} else if (ctx.CHAR() != null) {
-			char c = ctx.CHAR().getText().charAt(1);
-			code.join(Compiler.push_char(c));
-		} else if (ctx.STRING() != null) {
-			String s = ctx.STRING().getText();
-			int literalIndex = getLiteralIndex(s);
-			code.join(Compiler.push_literal(literalIndex));
-		} else {
-			String s = ctx.getText();
-			switch (s) {
-				case "nil":
-					code.join(Compiler.push_nil());
-					break;
-				case "self":
-					code.join(Compiler.push_self());
-					break;
-				case "true":
-					code.join(Compiler.push_true());
-					break;
-				case "false":
-					code.join(Compiler.push_false());
-					break;
-				default:
-					break;
-			}
-		}
-		return code;
+		return literal(ASTBuilder.literalKind(ctx), ctx.getText());
 	}
 
 	@Override
 	public Code visitReturn(SmalltalkParser.ReturnContext ctx) {
-		Code e = visit(ctx.messageExpression());
-		Code code = e.join(Compiler.method_return());
+		Code code = visit(ctx.messageExpression());
+		return methodReturn(code, dbg(ctx.getStart()));
+	}
+
+	/* The methods below emit code for one construct given the code for its
+	 * parts, generated in source order; ASTCodeGenerator uses them
+	 * too so compiling ASTs gives the same code as compiling parse trees.
+	 * dbg is a dbg() location or Code.None.
+	 */
+
+	/** Send selector to the receiver and nargs args that code pushes */
+	public Code send(Code code, String selector, int nargs, Code dbg) {
+		int literalIndex = getLiteralIndex(selector);
+		return code.join(dbg).join(Compiler.send(nargs, literalIndex));
+	}
+
+	/** Send unary selector to super */
+	public Code superSend(String selector, Code dbg) {
+		int literalIndex = getLiteralIndex(selector);
+		Code code = Code.join(Compiler.push_self(), dbg, Compiler.send_super(0, literalIndex));
+		markSelfRef();
+		return code;
+	}
+
+	/** Store the value that code pushes into id, resolved to symbol; leaves the value */
+	public Code assign(Code code, Code dbg, String id, Symbol symbol) {
+		return code.join(dbg).join(store(id, symbol));
+	}
+
+	/** Return the value that code pushes from the home method */
+	public Code methodReturn(Code code, Code dbg) {
+		code = code.join(dbg).join(Compiler.method_return());
+		markNonLocalReturn();
 		return code;
 	}
 
+	/** End a method body with ^self, first popping the last statement's value if pop */
+	public Code returnSelf(Code code, boolean pop, Code dbg) {
+		code = code.join(dbg);
+		if ( pop ) code = code.join(Compiler.pop());
+		return code.join(Compiler.push_self()).join(Compiler.method_return());
+	}
+
+	/** End a block body by returning its last value, nil if empty */
+	public Code blockReturn(Code code, boolean empty, Code dbg) {
+		if ( empty ) code = code.join(Compiler.push_nil());
+		return code.join(dbg).join(Compiler.block_return());
+	}
+
+	/** Push the literal with source text of kind */
+	public Code literal(AST.Literal.Kind kind, String text) {
+		switch ( kind ) {
+			case NUMBER :
+				if ( text.contains(".") ) return Compiler.push_float(Float.parseFloat(text));
+				return Compiler.push_int(Integer.parseInt(text));
+			case CHAR :
+				return Compiler.push_char(text.charAt(1));
+			case STRING :
+				return Compiler.push_literal(getLiteralIndex(text));
+			default :
+				switch ( text ) {
+					case "nil" :
+						return Compiler.push_nil();
+					case "self" :
+						markSelfRef();
+						return Compiler.push_self();
+					case "true" :
+						return Compiler.push_true();
+					case "false" :
+						return Compiler.push_false();
+				}
+				return Code.None;
+		}
+	}
+
+	/** Give m its compiled method, with code and its blocks, and verify it */
+	public void setCompiledMethod(STMethod m, Code code) {
+		m.compiledBlock = getCompiledMethod(m);
+		setCode(m.compiledBlock, code);
+		List<Scope> blocks = m.getAllNestedScopedSymbols();
+		m.compiledBlock.blocks = new STCompiledBlock[blocks.size()];
+		for (Scope s : blocks) {
+			STBlock blk = (STBlock)s;
+			m.compiledBlock.blocks[blk.index] = blk.compiledBlock;
+		}
+		verify(m.compiledBlock);
+	}
+
+	public void setCompiledBlock(STBlock blk, Code code) {
+		blk.compiledBlock = getCompiledBlock(blk);
+		setCode(blk.compiledBlock, code);
+	}
+
 	public void pushScope(Scope scope) {
 		currentScope = scope;
 	}
@@ -305,6 +323,47 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		return currentClassScope.stringTable.add(operand.replace("\'",""));
 	}
 
+	/** Set the bytecode of blk, its max stack depth, and its line table,
+	 *  if we're generating one.
+	 */
+	public void setCode(STCompiledBlock blk, Code code) {
+		blk.bytecode = code.bytes();
+		blk.maxStack = code.maxDepth;
+		blk.lineTable = code.lines!=null ? code.lines.encode() : null;
+	}
+
+	/** Verify the code of method and its blocks, once all are generated,
+	 *  and check the max stack depths we tracked. A problem here is a bug in the
+	 *  code generator, not in the Smalltalk code, but report it as an
+	 *  error rather than write a .sto that the VM will reject.
+	 */
+	public void verify(STCompiledBlock method) {
+		BytecodeVerifier verifier = new BytecodeVerifier(currentClassScope.stringTable.size());
+		verifier.verify(method);
+		for (String msg : verifier.errors) {
+			compiler.error("bad bytecode in "+msg);
+		}
+	}
+
+	/** With -dbg, record blk's local names and tree's extent in compiled */
+	public void setDebugInfo(STCompiledBlock compiled, STBlock blk, ParserRuleContext tree) {
+		if ( !compiler.genDbg ) return;
+		compiled.localNames = blk.getLocalNames();
+		Token start = tree.getStart();
+		Token stop = tree.getStop();
+		if ( stop==null || stop.getTokenIndex()<start.getTokenIndex() ) stop = start;
+		int stopCharPos = stop.getCharPositionInLine() + Math.max(stop.getStopIndex()-stop.getStartIndex(), 0);
+		compiled.sourceSpan = new int[] {
+			start.getLine(), start.getCharPositionInLine(),
+			stop.getLine(), stopCharPos
+		};
+	}
+
+	/* The dbg methods return no instructions, just a line table entry for
+	 * the instruction joined after it. They return Code.None unless
+	 * compiler.genDbg so code is identical either way.
+	 */
+
 	public Code dbgAtEndMain(Token t) {
 		int charPos = t.getCharPositionInLine() + t.getText().length();
 		return dbg(t.getLine(), charPos);
@@ -321,25 +380,36 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	}
 
 	public Code dbg(int line, int charPos) {
-		return Compiler.dbg(getLiteralIndex(compiler.getFileName()), line, charPos);
+		if ( !compiler.genDbg ) return Code.None;
+		return Compiler.dbg(line, charPos);
 	}
 
 	public Code store(String id) {
+		return store(id, currentScope.resolve(id));
+	}
+
+	/** Store into id, which the caller has already resolved to symbol */
+	public Code store(String id, Symbol symbol) {
 		Code code = new Code();
-		Symbol symbol = currentScope.resolve(id);
 		if (symbol instanceof STField) {
 			code.join(Compiler.store_field(symbol.getInsertionOrderNumber())); ////////////////
+			markSelfRef();
 		} else if (symbol instanceof STVariable) {
 			int in = symbol.getInsertionOrderNumber();
 			int sc = ((STBlock)currentScope).getRelativeScopeCount(symbol.getScope().getName());
 			code.join(Compiler.store_local(sc, in));
+			markOuterLocalRef(sc);
 		}
 		return code;
 	}
 
 	public Code push(String id) {
+		return push(id, currentScope.resolve(id));
+	}
+
+	/** Push id, which the caller has already resolved to symbol */
+	public Code push(String id, Symbol symbol) {
 		Code code = new Code();
-		Symbol symbol = currentScope.resolve(id);
 		if (symbol == null || symbol.getScope() == compiler.symtab.GLOBALS) {
 			int literalIndex = getLiteralIndex(id);
 			code.join(Compiler.push_global(literalIndex));
@@ -351,15 +421,46 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 				} else {
 					code.join(Compiler.push_field(symbol.getInsertionOrderNumber()));
 				}
+				markSelfRef();
 			} else {
 				int in = symbol.getInsertionOrderNumber();
 				int sc = ((STBlock) currentScope).getRelativeScopeCount(symbol.getScope().getName());
 				code.join(Compiler.push_local(sc, in));
+				markOuterLocalRef(sc);
 			}
 		}
 		return code;
 	}
 
+	/** A reference to a local scopeCount scopes up escapes every block
+	 *  between the current scope and the scope that defines the local.
+	 */
+	public void markOuterLocalRef(int scopeCount) {
+		Scope scope = currentScope;
+		for (int i=0; i<scopeCount && isBlockScope(scope); i++) {
+			((STBlock) scope).refsOuterLocals = true;
+			scope = scope.getEnclosingScope();
+		}
+	}
+
+	/** self is only reachable through the home method so all enclosing blocks capture it */
+	public void markSelfRef() {
+		for (Scope scope = currentScope; isBlockScope(scope); scope = scope.getEnclosingScope()) {
+			((STBlock) scope).refsSelf = true;
+		}
+	}
+
+	/** A ^expr in a block unwinds through all enclosing blocks to the home method */
+	public void markNonLocalReturn() {
+		for (Scope scope = currentScope; isBlockScope(scope); scope = scope.getEnclosingScope()) {
+			((STBlock) scope).hasNonLocalReturn = true;
+		}
+	}
+
+	public static boolean isBlockScope(Scope scope) {
+		return scope instanceof STBlock && !((STBlock) scope).isMethod();
+	}
+
 	public Code sendKeywordMsg(ParserRuleContext receiver,
 							   Code receiverCode,
 							   List<SmalltalkParser.BinaryExpressionContext> args,
@@ -0,0 +1,41 @@
+package smalltalk.compiler;
+
+/** What happened during a single {@link Compiler#compile} call. */
+public class CompileStats {
+	/** "SLL" if the fast SLL parse succeeded, "LL" if we had to reparse
+	 *  with full LL prediction, which happens on syntax errors or on input
+	 *  that truly needs full context to parse. "cached" if classes came
+	 *  from {@link Compiler#astCache}, parsing only those that missed.
+	 */
+	public String parseMode;
+
+	/** Classes and main chunks found in, or missing from, the AST cache */
+	public int astCacheHits;
+	public int astCacheMisses;
+
+	public long parseNanos;
+	public long defineNanos;
+	public long resolveNanos;
+	public long codegenNanos;
+
+	public long totalNanos() {
+		return parseNanos + defineNanos + resolveNanos + codegenNanos;
+	}
+
+	@Override
+	public String toString() {
+		String cache = "";
+		if ( astCacheHits+astCacheMisses>0 ) {
+			cache = String.format("ast cache: %d hits, %d misses\n", astCacheHits, astCacheMisses);
+		}
+		return cache + String.format("parse mode: %s\n"+
+		                     "parse: %.3fms\n"+
+		                     "define symbols: %.3fms\n"+
+		                     "resolve symbols: %.3fms\n"+
+		                     "codegen: %.3fms\n"+
+		                     "total: %.3fms\n",
+		                     parseMode,
+		                     parseNanos/1e6, defineNanos/1e6, resolveNanos/1e6,
+		                     codegenNanos/1e6, totalNanos()/1e6);
+	}
+}
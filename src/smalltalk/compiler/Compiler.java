@@ -1,26 +1,61 @@
 package smalltalk.compiler;
 
 import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
 import org.antlr.symtab.VariableSymbol;
+import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import smalltalk.compiler.ast.AST;
+import smalltalk.compiler.ast.ASTCache;
+import smalltalk.compiler.ast.SourceChunks;
+import smalltalk.compiler.misc.DefaultChannelTokenSource;
+import smalltalk.compiler.misc.LineTable;
+import smalltalk.compiler.misc.MappedCharStream;
 import smalltalk.compiler.misc.Utils;
 import smalltalk.compiler.symbols.STArg;
 import smalltalk.compiler.symbols.STBlock;
 import smalltalk.compiler.symbols.STClass;
 import smalltalk.compiler.symbols.STField;
+import smalltalk.compiler.symbols.STGlobalScope;
 import smalltalk.compiler.symbols.STMethod;
 import smalltalk.compiler.symbols.STPrimitiveMethod;
 import smalltalk.compiler.symbols.STSymbolTable;
 import smalltalk.compiler.symbols.STVariable;
+import smalltalk.vm.Primitive;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class Compiler {
 	protected STSymbolTable symtab;
@@ -28,10 +63,42 @@ public class Compiler {
 	protected CommonTokenStream tokens;
 	protected SmalltalkParser.FileContext fileTree;
 	protected String fileName;
-	public boolean genDbg; // generate dbg file,line instructions
+	public boolean genDbg; // generate line tables
+	public boolean checkPrimitives; // report primitive names unknown to the VM
+	public boolean lean; // drop parse trees and parser state once code is generated
+	public boolean separatePasses; // define, resolve, generate in separate tree walks (debugging)
+	public boolean antlrLexer; // lex with generated SmalltalkLexer not SmalltalkTokenSource (debugging)
+
+	/** If set, {@link #compile(String, CharStream)} reuses ASTs of classes
+	 *  it has seen before; see {@link #compileCached}. ASTs carry no source
+	 *  positions so compiling with this and {@link #genDbg} both set is an
+	 *  IllegalStateException.
+	 */
+	public ASTCache astCache;
+
+	/** Compilation unit number; orders classes when many compilers share a
+	 *  symbol table. See {@link STGlobalScope}.
+	 */
+	public int unit;
+
+	/** Token type of 'class', which starts every classDef */
+	protected static final int CLASS = tokenType("'class'");
 
 	public final List<String> errors = new ArrayList<>();
 
+	public final CompileStats stats = new CompileStats();
+
+	/** Add syntax errors to {@link #errors} as the LL parse reports them */
+	protected final ANTLRErrorListener syntaxErrors = new BaseErrorListener() {
+		@Override
+		public void syntaxError(Recognizer<?,?> recognizer, Object offendingSymbol,
+		                        int line, int charPositionInLine,
+		                        String msg, RecognitionException e)
+		{
+			error("line "+line+":"+charPositionInLine+" "+msg);
+		}
+	};
+
 	public Compiler() {
 		symtab = new STSymbolTable();
 	}
@@ -41,28 +108,467 @@ public class Compiler {
 	}
 
 	public STSymbolTable compile(String fileName, String input) {
-		ParserRuleContext tree = parseClasses(new ANTLRInputStream(input));
-		defSymbols(tree);
-		resolveSymbols(tree);
-		CodeGenerator codeGenerator = new CodeGenerator(this);
-		codeGenerator.visit(tree);
+		return compile(fileName, new ANTLRInputStream(input));
+	}
+
+	/** Compile a file without first reading it into a String; the lexer
+	 *  reads directly from the memory-mapped file. See {@link MappedCharStream}.
+	 */
+	public STSymbolTable compile(Path path) throws IOException {
+		return compile(path.getFileName().toString(), MappedCharStream.fromPath(path));
+	}
+
+	public STSymbolTable compile(String fileName, CharStream input) {
+		this.fileName = fileName;
+		if ( astCache!=null && genDbg ) {
+			throw new IllegalStateException("can't generate debug info from cached ASTs");
+		}
+		if ( astCache!=null && compileCached(input) ) {
+			if ( lean ) releaseParseState();
+			return symtab;
+		}
+		long start = System.nanoTime();
+		ParserRuleContext tree = parseClasses(input);
+		long parsed = System.nanoTime();
+		stats.parseNanos = parsed - start;
+		if ( tree==null ) { // syntax errors are in errors
+			if ( lean ) releaseParseState();
+			return symtab;
+		}
+		if ( separatePasses ) {
+			defSymbols(tree);
+			long defined = System.nanoTime();
+			resolveSymbols(tree);
+			long resolved = System.nanoTime();
+			CodeGenerator codeGenerator = new CodeGenerator(this);
+			codeGenerator.visit(tree);
+			long generated = System.nanoTime();
+			stats.defineNanos = defined - parsed;
+			stats.resolveNanos = resolved - defined;
+			stats.codegenNanos = generated - resolved;
+		}
+		else {
+			FusedCodeGenerator.defineHeaders(this, tree);
+			long defined = System.nanoTime();
+			new FusedCodeGenerator(this).visit(tree);
+			long generated = System.nanoTime();
+			stats.defineNanos = defined - parsed;
+			stats.resolveNanos = 0; // done during code generation
+			stats.codegenNanos = generated - defined;
+		}
+		if ( lean ) releaseParseState();
 		return symtab;
 	}
 
+	/** Once every method and block has its {@link smalltalk.compiler.symbols.STCompiledBlock},
+	 *  nothing needs the parse tree or the token stream. Drop our references
+	 *  to them and detach the def nodes from the symbols so that a long-lived
+	 *  symbol table holds only symbols and bytecode. Any later phase that
+	 *  needs a tree, such as recompiling, must parse again.
+	 */
+	public void releaseParseState() {
+		symtab.releaseDefNodes();
+		fileTree = null;
+		parser = null;
+		tokens = null;
+	}
+
 	/** Parse classes and/or a chunk of code, returning AST root.
-	 *  Return null upon syntax error.
+	 *  Return null upon syntax error, having added it to {@link #errors}.
+	 *
+	 *  We first try the much faster SLL prediction mode, bailing out at the
+	 *  first syntax error. SLL fails on all invalid input and, rarely, on
+	 *  valid input that needs full LL context. Only then do we rewind and
+	 *  reparse with full LL prediction and normal error reporting/recovery.
+	 *  {@link CompileStats#parseMode} records which one succeeded.
 	 */
 	public ParserRuleContext parseClasses(CharStream input) {
-		SmalltalkLexer l = new SmalltalkLexer(input);
-		CommonTokenStream tokens = new CommonTokenStream(l);
+		fileTree = parse(newLexer(input), SmalltalkParser::file);
+		//System.out.println(((Tree)r.getTree()).toStringTree());
+		if ( parser.getNumberOfSyntaxErrors()>0 ) return null;
+		return fileTree;
+	}
+
+	/** Return a {@link SmalltalkTokenSource} for input unless {@link #antlrLexer} */
+	public TokenSource newLexer(CharStream input) {
+		if ( antlrLexer ) return new SmalltalkLexer(input);
+		return new SmalltalkTokenSource(input);
+	}
+
+	/** Parse tokens from lexer with rule, SLL first, as described above */
+	protected <T extends ParserRuleContext> T parse(TokenSource lexer, Function<SmalltalkParser,T> rule) {
+		this.tokens = new CommonTokenStream(lexer);
 		//System.out.println(tokens.getTokens());
 
 		this.parser = new SmalltalkParser(tokens);
-		fileTree= parser.file();
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.removeErrorListeners();
+		parser.setErrorHandler(new BailErrorStrategy());
+		T tree;
+		try {
+			tree = rule.apply(parser);
+			stats.parseMode = "SLL";
+		}
+		catch (ParseCancellationException pce) {
+			tokens.seek(0);
+			parser.reset();
+			parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+			parser.addErrorListener(syntaxErrors);
+			parser.setErrorHandler(new DefaultErrorStrategy());
+			parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+			tree = rule.apply(parser);
+			stats.parseMode = "LL";
+		}
+		return tree;
+	}
 
-		//System.out.println(((Tree)r.getTree()).toStringTree());
+	/** Compile input using {@link #astCache}. Split the source into the
+	 *  text of each class and of main with {@link SourceChunks}, and look
+	 *  up each by its hash. Only chunks that miss are lexed and parsed, one
+	 *  at a time, and their ASTs added to the cache. If every chunk hits,
+	 *  neither the lexer nor the parser runs at all. Symbols and code then
+	 *  come from the ASTs via {@link ASTCodeGenerator}. A chunk with a
+	 *  syntax error is not cached and, as when parsing the whole file, its
+	 *  errors are in {@link #errors} and no code is generated at all; the
+	 *  other chunks are still parsed and cached.
+	 *
+	 *  Return false, having done nothing, if the source can't be split;
+	 *  the caller then compiles normally to report the syntax errors.
+	 */
+	protected boolean compileCached(CharStream input) {
+		long start = System.nanoTime();
+		String src = input.getText(Interval.of(0, input.size()-1));
+		List<SourceChunks.Chunk> chunks = SourceChunks.split(src);
+		if ( chunks==null ) return false;
+		stats.parseMode = "cached";
+		List<AST.Unit> units = new ArrayList<>();
+		boolean syntaxError = false;
+		for (SourceChunks.Chunk chunk : chunks) {
+			String key = ASTCache.key(chunk.text);
+			AST.Unit unit = astCache.get(key);
+			if ( unit!=null ) {
+				stats.astCacheHits++;
+			}
+			else {
+				stats.astCacheMisses++;
+				unit = parseChunk(chunk);
+				if ( unit==null ) {
+					syntaxError = true;
+					continue;
+				}
+				try {
+					astCache.put(key, unit);
+				}
+				catch (IOException ioe) {
+					// the cache is only an optimization; carry on without it
+				}
+			}
+			units.add(unit);
+		}
+		long parsed = System.nanoTime();
+		stats.parseNanos = parsed - start;
+		if ( syntaxError ) return true;
+		ASTCodeGenerator gen = new ASTCodeGenerator(this);
+		for (AST.Unit unit : units) gen.defineHeaders(unit);
+		long defined = System.nanoTime();
+		for (AST.Unit unit : units) gen.generate(unit);
+		long generated = System.nanoTime();
+		stats.defineNanos = defined - parsed;
+		stats.resolveNanos = 0; // done during code generation
+		stats.codegenNanos = generated - defined;
+		return true;
+	}
+
+	/** Parse a class or main chunk; return its AST or null upon syntax
+	 *  error, having added it to {@link #errors}.
+	 *  Tokens get their line and char position within the whole file.
+	 */
+	protected AST.Unit parseChunk(SourceChunks.Chunk chunk) {
+		CharStream input = CharStreams.fromString(chunk.text, fileName);
+		TokenSource lexer;
+		if ( antlrLexer ) {
+			SmalltalkLexer l = new SmalltalkLexer(input);
+			l.setLine(chunk.line);
+			l.setCharPositionInLine(chunk.charPositionInLine);
+			lexer = l;
+		}
+		else {
+			SmalltalkTokenSource l = new SmalltalkTokenSource(input);
+			l.setLine(chunk.line);
+			l.setCharPositionInLine(chunk.charPositionInLine);
+			lexer = l;
+		}
+		if ( chunk.isClass ) {
+			SmalltalkParser.ClassDefContext tree = parse(lexer, SmalltalkParser::classDef);
+			if ( parser.getNumberOfSyntaxErrors()>0 ) return null;
+			if ( tokens.LA(1)!=Token.EOF ) {
+				error("line "+tokens.LT(1).getLine()+":"+tokens.LT(1).getCharPositionInLine()+
+				      " extraneous input "+tokens.LT(1).getText()+" expecting <EOF>");
+				return null;
+			}
+			return ASTBuilder.classDef(tree);
+		}
+		SmalltalkParser.FileContext tree = parse(lexer, SmalltalkParser::file);
 		if ( parser.getNumberOfSyntaxErrors()>0 ) return null;
-		return fileTree;
+		return ASTBuilder.main(tree.main());
+	}
+
+	/** Compile one classDef at a time rather than parsing the whole file
+	 *  first. Each class is parsed, defined, resolved, and generated, then
+	 *  passed to classDone (e.g., to write its .sto file) and its parse tree
+	 *  released before the next class is parsed. Tokens are not buffered
+	 *  beyond the current class, so peak memory depends on the largest
+	 *  class, not the file size. A MainClass for the trailing main code,
+	 *  if any, is generated and passed to classDone last.
+	 *
+	 *  Field offsets depend on the number of fields in all superclasses,
+	 *  so a class whose superclass chain is not yet defined waits in a
+	 *  list of deferred classes. Each time we define a class, we generate
+	 *  any deferred classes whose chains are now complete. At EOF, any
+	 *  class still waiting has an undefined superclass and is generated
+	 *  just as {@link #compile(String, CharStream)} would.
+	 *
+	 *  The symbol table ends up with the same classes and bytecode as the
+	 *  batch compile; only the order of calls to classDone differs.
+	 */
+	public STSymbolTable compileStreaming(String fileName, CharStream input, Consumer<STClass> classDone) {
+		this.fileName = fileName;
+		UnbufferedTokenStream<Token> tokens =
+			new UnbufferedTokenStream<>(new DefaultChannelTokenSource(newLexer(input)));
+		parser = new SmalltalkParser(tokens);
+		stats.parseMode = "SLL";
+		List<SmalltalkParser.ClassDefContext> deferred = new ArrayList<>();
+		while ( tokens.LA(1)==CLASS ) {
+			long start = System.nanoTime();
+			SmalltalkParser.ClassDefContext classTree = parseStreaming(tokens, parser::classDef);
+			stats.parseNanos += System.nanoTime() - start;
+			if ( classTree==null ) continue;
+
+			start = System.nanoTime();
+			defineForMode(classTree);
+			stats.defineNanos += System.nanoTime() - start;
+			if ( classTree.scope==null ) continue; // e.g., redefinition
+
+			deferred.add(classTree);
+			generateReadyClasses(deferred, false, classDone);
+		}
+		generateReadyClasses(deferred, true, classDone);
+
+		long start = System.nanoTime();
+		SmalltalkParser.MainContext mainTree = parseStreaming(tokens, parser::main);
+		stats.parseNanos += System.nanoTime() - start;
+		if ( mainTree!=null ) {
+			if ( tokens.LA(1)!=Token.EOF ) {
+				parser.notifyErrorListeners(tokens.LT(1), "extraneous input "+tokens.LT(1).getText()+" expecting <EOF>", null);
+			}
+			else {
+				defineForMode(mainTree);
+				compileClass(mainTree, mainTree.classScope, classDone);
+			}
+		}
+		parser = null;
+		return symtab;
+	}
+
+	/** Parse one rule trying SLL then LL, as {@link #parseClasses} does for
+	 *  the whole file. Mark the token stream so that we can rewind to the
+	 *  start of the rule. Return null upon syntax error.
+	 */
+	protected <T extends ParserRuleContext> T parseStreaming(TokenStream tokens, Supplier<T> rule) {
+		int marker = tokens.mark();
+		int startIndex = tokens.index();
+		int errorsBefore = parser.getNumberOfSyntaxErrors();
+		T tree;
+		try {
+			parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+			parser.removeErrorListeners();
+			parser.setErrorHandler(new BailErrorStrategy());
+			tree = rule.get();
+		}
+		catch (ParseCancellationException pce) {
+			tokens.seek(startIndex);
+			parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+			parser.addErrorListener(syntaxErrors);
+			parser.setErrorHandler(new DefaultErrorStrategy());
+			parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+			tree = rule.get();
+			stats.parseMode = "LL";
+		}
+		finally {
+			tokens.release(marker);
+		}
+		if ( parser.getNumberOfSyntaxErrors()>errorsBefore ) return null;
+		return tree;
+	}
+
+	/** Generate each deferred class whose superclass chain is fully defined,
+	 *  or all of them if force is set. Superclasses are passed to classDone
+	 *  before their subclasses, except within a cycle.
+	 */
+	protected void generateReadyClasses(List<SmalltalkParser.ClassDefContext> deferred,
+	                                    boolean force,
+	                                    Consumer<STClass> classDone)
+	{
+		boolean progress = true;
+		while ( progress ) {
+			progress = false;
+			for (Iterator<SmalltalkParser.ClassDefContext> it = deferred.iterator(); it.hasNext(); ) {
+				SmalltalkParser.ClassDefContext classTree = it.next();
+				STClass cl = classTree.scope;
+				if ( (force || isSuperClassChainDefined(cl)) && !isDeferred(cl.getSuperClassName(), deferred) ) {
+					it.remove();
+					compileClass(classTree, cl, classDone);
+					progress = true;
+				}
+			}
+		}
+		if ( force ) { // only cycles remain
+			for (SmalltalkParser.ClassDefContext classTree : deferred) {
+				compileClass(classTree, classTree.scope, classDone);
+			}
+			deferred.clear();
+		}
+	}
+
+	protected static boolean isDeferred(String className, List<SmalltalkParser.ClassDefContext> deferred) {
+		for (SmalltalkParser.ClassDefContext classTree : deferred) {
+			if ( classTree.scope.getName().equals(className) ) return true;
+		}
+		return false;
+	}
+
+	protected boolean isSuperClassChainDefined(STClass cl) {
+		int depth = 0;
+		String superClassName = cl.getSuperClassName();
+		// a chain longer than the number of classes has a cycle; let codegen deal with it
+		while ( superClassName!=null && !superClassName.equals("Object") &&
+			    depth++ < symtab.GLOBALS.getNumberOfSymbols() )
+		{
+			Symbol sup = symtab.GLOBALS.getSymbol(superClassName);
+			if ( !(sup instanceof STClass) ) return false;
+			superClassName = ((STClass)sup).getSuperClassName();
+		}
+		return true;
+	}
+
+	protected void compileClass(ParserRuleContext tree, STClass cl, Consumer<STClass> classDone) {
+		generateForMode(tree);
+		if ( cl==null ) return; // empty main
+		STSymbolTable.releaseDefNodes(cl);
+		classDone.accept(cl);
+	}
+
+	/** Compile files in parallel into one shared symbol table, using up to
+	 *  nThreads threads. File i is compilation unit i+1, so the classes in
+	 *  symtab are in file order and a class defined in two files belongs
+	 *  to the earlier file, whatever the thread timing.
+	 *
+	 *  All files are parsed and their headers defined before any code is
+	 *  generated, since a class can inherit fields from a class in another
+	 *  file. Returns the compiler for each file, in file order. Errors,
+	 *  including the redefinitions STGlobalScope recorded, are in each
+	 *  compiler's {@link #errors}.
+	 */
+	public static List<Compiler> compileAll(STSymbolTable symtab, List<Path> files, int nThreads)
+		throws IOException
+	{
+		return compileAll(symtab, files, nThreads, c -> { });
+	}
+
+	/** Like {@link #compileAll(STSymbolTable, List, int)} but call configure
+	 *  on each compiler first, e.g., to set {@link #genDbg}.
+	 */
+	public static List<Compiler> compileAll(STSymbolTable symtab, List<Path> files, int nThreads,
+	                                        Consumer<Compiler> configure)
+		throws IOException
+	{
+		List<Compiler> compilers = new ArrayList<>();
+		List<Callable<ParserRuleContext>> defineTasks = new ArrayList<>();
+		for (int i=0; i<files.size(); i++) {
+			Compiler c = new Compiler(symtab);
+			configure.accept(c);
+			c.unit = i+1;
+			Path file = files.get(i);
+			c.fileName = file.getFileName().toString();
+			compilers.add(c);
+			defineTasks.add(() -> {
+				ParserRuleContext tree = c.parseClasses(MappedCharStream.fromPath(file));
+				if ( tree!=null ) c.defineForMode(tree);
+				return tree;
+			});
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<ParserRuleContext> trees = invokeAll(pool, defineTasks);
+			List<Callable<ParserRuleContext>> genTasks = new ArrayList<>();
+			for (int i=0; i<files.size(); i++) {
+				Compiler c = compilers.get(i);
+				ParserRuleContext tree = trees.get(i);
+				genTasks.add(() -> {
+					if ( tree!=null ) c.generateForMode(tree);
+					if ( c.lean ) c.releaseParseState();
+					return tree;
+				});
+			}
+			invokeAll(pool, genTasks);
+		}
+		finally {
+			pool.shutdown();
+		}
+		for (STGlobalScope.Definition d : symtab.GLOBALS.getRedefinitions()) {
+			compilers.get(d.unit-1).error("redefinition of "+d.sym.getName());
+		}
+		return compilers;
+	}
+
+	protected static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks)
+		throws IOException
+	{
+		List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> f : pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", ie);
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof IOException ) throw (IOException)cause;
+			if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+		return results;
+	}
+
+	/** Resolve and generate code for tree, whose symbols are already defined */
+	protected void generateForMode(ParserRuleContext tree) {
+		long start = System.nanoTime();
+		if ( separatePasses ) {
+			resolveSymbols(tree);
+			long resolved = System.nanoTime();
+			new CodeGenerator(this).visit(tree);
+			stats.resolveNanos += resolved - start;
+			stats.codegenNanos += System.nanoTime() - resolved;
+		}
+		else {
+			new FusedCodeGenerator(this).visit(tree);
+			stats.codegenNanos += System.nanoTime() - start;
+		}
+	}
+
+	/** Define all symbols or, unless {@link #separatePasses}, just those
+	 *  that {@link FusedCodeGenerator} needs before it starts.
+	 */
+	protected void defineForMode(ParserRuleContext tree) {
+		if ( separatePasses ) {
+			defSymbols(tree);
+		}
+		else {
+			FusedCodeGenerator.defineHeaders(this, tree);
+		}
 	}
 
 	public void defSymbols(ParserRuleContext tree) {
@@ -97,9 +603,31 @@ public class Compiler {
 //		System.out.println("	create primitive "+selector+" "+args+"->"+primitiveName);
 		// convert "<classname>_<methodname>" Primitive value
 		// warn if classname!=currentClass
+		if ( checkPrimitives ) {
+			Primitive p = Primitive.lookup(primitiveName);
+			if ( p==null ) {
+				error("unknown primitive "+primitiveName+" in "+currentClass.getName()+">>"+selector);
+			}
+			else if ( p.nargs!=getNumberOfArgs(selector) ) {
+				error("primitive "+primitiveName+" takes "+p.nargs+" args but "+
+				      currentClass.getName()+">>"+selector+" takes "+getNumberOfArgs(selector));
+			}
+		}
 		return new STPrimitiveMethod(selector, tree, primitiveName);
 	}
 
+	/** Number of args a message with this selector takes: one per keyword,
+	 *  one for a binary operator, and none for a unary message.
+	 */
+	public static int getNumberOfArgs(String selector) {
+		if ( !Character.isLetter(selector.charAt(0)) && selector.charAt(0)!='_' ) return 1;
+		int n = 0;
+		for (int i=0; i<selector.length(); i++) {
+			if ( selector.charAt(i)==':' ) n++;
+		}
+		return n;
+	}
+
 	public void defineVariables(Scope scope, List<String> names, Function<String,? extends VariableSymbol> getter) {
 		if ( names!=null ) {
 			for (String name : names) {
@@ -126,36 +654,54 @@ public class Compiler {
 		defineVariables(scope, names, n -> new STVariable(n));
 	}
 
-	// Convenience methods for code gen
+	// Convenience methods for code gen. Each records its stack effect so
+	// that joined code knows its max stack depth. Stores leave the value
+	// on the stack. A return pops its value but we count it as staying
+	// there for the pop, self, return that follow ^expr in a method; see
+	// BytecodeVerifier.
 
-	public static Code push_nil() 				{ return Code.of(Bytecode.NIL); }
-	public static Code push_self()				{ return Code.of(Bytecode.SELF); }
-	public static Code push_true()				{ return Code.of(Bytecode.TRUE); }
-	public static Code push_false()				{ return Code.of(Bytecode.FALSE); }
-	public static Code push_char(char c)		{ return Code.of(Bytecode.PUSH_CHAR).join(Utils.shortToBytes(c)); }
-	public static Code push_int(int v)			{ return Code.of(Bytecode.PUSH_INT).join(Utils.intToBytes(v)); }
-	public static Code push_float(float v)		{ return Code.of(Bytecode.PUSH_FLOAT).join(Utils.floatToBytes(v)); }
-	public static Code push_field(int v)		{ return Code.of(Bytecode.PUSH_FIELD).join(Utils.toLiteral(v)); }
-	public static Code push_local(int s, int i)	{ return Code.of(Bytecode.PUSH_LOCAL).join(Utils.toLiteral(s).join(Utils.toLiteral(i))); }
-	public static Code push_literal(int v)		{ return Code.of(Bytecode.PUSH_LITERAL).join(Utils.toLiteral(v)); }
-	public static Code push_global(int v)		{ return Code.of(Bytecode.PUSH_GLOBAL).join(Utils.toLiteral(v)); }
+	public static Code push_nil() 				{ return Code.of(Bytecode.NIL).effect(0,1); }
+	public static Code push_self()				{ return Code.of(Bytecode.SELF).effect(0,1); }
+	public static Code push_true()				{ return Code.of(Bytecode.TRUE).effect(0,1); }
+	public static Code push_false()				{ return Code.of(Bytecode.FALSE).effect(0,1); }
+	public static Code push_char(char c)		{ return Code.of(Bytecode.PUSH_CHAR).join(Utils.shortToBytes(c)).effect(0,1); }
+	public static Code push_int(int v)			{ return Code.of(Bytecode.PUSH_INT).join(Utils.intToBytes(v)).effect(0,1); }
+	public static Code push_float(float v)		{ return Code.of(Bytecode.PUSH_FLOAT).join(Utils.floatToBytes(v)).effect(0,1); }
+	public static Code push_field(int v)		{ return Code.of(Bytecode.PUSH_FIELD).join(Utils.toLiteral(v)).effect(0,1); }
+	public static Code push_local(int s, int i)	{ return Code.of(Bytecode.PUSH_LOCAL).join(Utils.toLiteral(s).join(Utils.toLiteral(i))).effect(0,1); }
+	public static Code push_literal(int v)		{ return Code.of(Bytecode.PUSH_LITERAL).join(Utils.toLiteral(v)).effect(0,1); }
+	public static Code push_global(int v)		{ return Code.of(Bytecode.PUSH_GLOBAL).join(Utils.toLiteral(v)).effect(0,1); }
 	public static Code store_field(int v)		{ return Code.of(Bytecode.STORE_FIELD).join(Utils.shortToBytes(v)); }
 	public static Code store_local(int s, int i){ return Code.of(Bytecode.STORE_LOCAL).join(Utils.shortToBytes(s).join(Utils.shortToBytes(i))); }
-	public static Code pop()					{ return Code.of(Bytecode.POP); }
-	public static Code send(int size, int i)	{ return Code.of(Bytecode.SEND).join(Utils.toLiteral(size).join(Utils.toLiteral(i))); }
-	public static Code send_super(int s, int i) { return Code.of(Bytecode.SEND_SUPER).join(Utils.toLiteral(s).join(Utils.toLiteral(i))); }
-	public static Code block(short v)			{ return Code.of(Bytecode.BLOCK).join(Utils.shortToBytes(v)); }
-	public static Code block_return()			{ return Code.of(Bytecode.BLOCK_RETURN); }
-	public static Code method_return()          { return Code.of(Bytecode.RETURN); }
+	public static Code pop()					{ return Code.of(Bytecode.POP).effect(1,0); }
+	public static Code send(int size, int i)	{ return Code.of(Bytecode.SEND).join(Utils.toLiteral(size).join(Utils.toLiteral(i))).effect(size+1,1); }
+	public static Code send_super(int s, int i) { return Code.of(Bytecode.SEND_SUPER).join(Utils.toLiteral(s).join(Utils.toLiteral(i))).effect(s+1,1); }
+	public static Code block(short v)			{ return Code.of(Bytecode.BLOCK).join(Utils.shortToBytes(v)).effect(0,1); }
+	public static Code block_return()			{ return Code.of(Bytecode.BLOCK_RETURN).effect(1,1); }
+	public static Code method_return()          { return Code.of(Bytecode.RETURN).effect(1,1); }
 
-	public static Code dbg(int filenameLitIndex, int line, int charPos) {
-		return null;
+	/** Return no instructions but a line table entry, line:charPos, for
+	 *  whatever instruction follows once joined into other code.
+	 */
+	public static Code dbg(int line, int charPos) {
+		Code code = new Code();
+		code.lines = new LineTable();
+		code.lines.add(0, line, charPos);
+		return code;
 	}
 
 	public String getFileName() {
 		return fileName;
 	}
 
+	protected static int tokenType(String literal) {
+		Vocabulary vocab = SmalltalkParser.VOCABULARY;
+		for (int t=0; t<=vocab.getMaxTokenType(); t++) {
+			if ( literal.equals(vocab.getLiteralName(t)) ) return t;
+		}
+		throw new IllegalArgumentException("no token for "+literal);
+	}
+
 	public void setFileName(String fileName) {
 		this.fileName = fileName;
 	}
@@ -6,6 +6,7 @@ import org.antlr.symtab.Utils;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import smalltalk.compiler.symbols.STBlock;
 import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STGlobalScope;
 import smalltalk.compiler.symbols.STMethod;
 
 import java.util.ArrayList;
@@ -41,12 +42,23 @@ public class DefineSymbols extends SmalltalkBaseListener {
 			}
 //			System.out.println("\tinstance vars: "+instanceVars);
 		}
-		if ( currentScope.getSymbol(className)!=null || className.equals("MainClass") ) {
+		if ( className.equals("MainClass") ) {
 			compiler.error("redefinition of "+className);
 			return;
 		}
 		STClass cl = new STClass(className, superClassName);
-		currentScope.define(cl);
+		STGlobalScope globals = compiler.symtab.GLOBALS;
+		switch ( globals.define(cl, compiler.unit) ) {
+			case DUPLICATE_IN_UNIT :
+				compiler.error("redefinition of "+className);
+				return;
+			case REDEFINED_IN_OTHER_UNIT :
+				// A lower unit owns this name; compile ours detached from
+				// GLOBALS as if it had been displaced after we defined it.
+				// The caller reports it; see Compiler.compileAll().
+				cl.setScope(globals);
+				break;
+		}
 		compiler.defineFields(cl, instanceVars);
 		ctx.scope = cl;
 		pushScope(cl);
@@ -64,7 +76,7 @@ public class DefineSymbols extends SmalltalkBaseListener {
 		// define MainClass
 		STClass cl = new STClass("MainClass", "Object");
 		ctx.classScope = cl;
-		currentScope.define(cl);
+		defineMainClass(cl);
 		pushScope(cl);
 
 		// define main method
@@ -75,6 +87,20 @@ public class DefineSymbols extends SmalltalkBaseListener {
 		pushScope(m);
 	}
 
+	/** Each file with main code has a MainClass; in a multi-file build the
+	 *  lowest unit's wins and the others are compiled detached from GLOBALS.
+	 */
+	protected void defineMainClass(STClass cl) {
+		STGlobalScope globals = compiler.symtab.GLOBALS;
+		switch ( globals.define(cl, compiler.unit) ) {
+			case DUPLICATE_IN_UNIT :
+				throw new IllegalArgumentException("duplicate symbol "+cl.getName());
+			case REDEFINED_IN_OTHER_UNIT :
+				cl.setScope(globals);
+				break;
+		}
+	}
+
 	@Override
 	public void exitMain(SmalltalkParser.MainContext ctx) {
 		if ( ctx.body().getChildCount()==0 ) return;
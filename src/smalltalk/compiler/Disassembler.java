@@ -0,0 +1,287 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.FieldSymbol;
+import org.antlr.symtab.MethodSymbol;
+import smalltalk.compiler.misc.LineTable;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/** Write the test string format of classes, blocks, and bytecode, as
+ *  produced by {@link STClass#toTestString()}, straight to an
+ *  {@link Appendable} such as a Writer.
+ *
+ *  That format used to come from an ST template per class and per block
+ *  plus a String.format per instruction, with each block rendered to a
+ *  String that the enclosing template then re-indented. Here, nested
+ *  blocks are written in place and indentation is applied as lines
+ *  start, as StringTemplate's AutoIndentWriter does, so nothing is
+ *  materialized. Opcodes, offsets, and operands other than floats are
+ *  written char by char with no allocation per instruction, into a
+ *  buffer that is handed to out in chunks; a Writer, even a buffered
+ *  one, locks on every write(char).
+ */
+public class Disassembler {
+	protected final Appendable out;
+
+	/** Spaces to write before the first char of each line */
+	protected int indent = 0;
+
+	protected boolean atStartOfLine = true;
+
+	protected final char[] buf = new char[8192];
+	protected int n = 0;
+
+	public Disassembler(Appendable out) {
+		this.out = out;
+	}
+
+	public static String toString(STClass cl) {
+		StringBuilder buf = new StringBuilder();
+		try {
+			new Disassembler(buf).disassemble(cl);
+		}
+		catch (IOException ioe) {
+			throw new UncheckedIOException(ioe); // can't happen with StringBuilder
+		}
+		return buf.toString();
+	}
+
+	public static String toString(STCompiledBlock blk) {
+		StringBuilder buf = new StringBuilder();
+		try {
+			new Disassembler(buf).disassemble(blk, blk.enclosingClass.stringTable.toArray());
+		}
+		catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		return buf.toString();
+	}
+
+	public void disassemble(STClass cl) throws IOException {
+		writeClass(cl);
+		flush();
+	}
+
+	/** Write blk, whose class's literals are literals, and its nested blocks */
+	public void disassemble(STCompiledBlock blk, String[] literals) throws IOException {
+		writeBlock(blk, literals);
+		flush();
+	}
+
+	/** Write one line per instruction in bytecode from start */
+	public void disassemble(String blkName, byte[] bytecode, String[] literals, int start) throws IOException {
+		writeCode(blkName, bytecode, literals, start);
+		flush();
+	}
+
+	/** Write the instruction at ip, without a newline, and return the
+	 *  address of the next instruction.
+	 */
+	public int disassembleInstruction(String blkName, byte[] bytecode, String[] literals, int ip) throws IOException {
+		ip = writeInstruction(blkName, bytecode, literals, ip);
+		flush();
+		return ip;
+	}
+
+	protected void writeClass(STClass cl) throws IOException {
+		write("name: ").write(cl.getName()).newline();
+		write("superClass: ");
+		String superClassName = cl.getSuperClassName();
+		if ( superClassName!=null && !superClassName.equals("Object") ) write(superClassName);
+		newline();
+		write("fields: ");
+		boolean first = true;
+		for (FieldSymbol f : cl.getDefinedFields()) {
+			if ( !first ) write(',');
+			write(f.getName());
+			first = false;
+		}
+		newline();
+		String[] literals = cl.stringTable.toArray();
+		write("literals: ");
+		for (int i=0; i<literals.length; i++) {
+			if ( i>0 ) write(',');
+			write('\'').write(literals[i]).write('\'');
+		}
+		newline();
+		write("methods:").newline();
+		indent += 4;
+		first = true;
+		for (MethodSymbol m : cl.getDefinedMethods()) {
+			if ( !first ) newline();
+			writeBlock(((STMethod)m).compiledBlock, literals);
+			first = false;
+		}
+		indent -= 4;
+	}
+
+	protected void writeBlock(STCompiledBlock blk, String[] literals) throws IOException {
+		write("name: ");
+		if ( blk.isClassMethod ) write("static ");
+		write(blk.name).newline();
+		write("qualifiedName: ").write(blk.qualifiedName).newline();
+		write("nargs: ").write(blk.nargs).newline();
+		write("nlocals: ").write(blk.nlocals).newline();
+		write("maxStack: ").write(blk.maxStack).newline();
+		writeCode(blk.name, blk.bytecode, literals, 0);
+		if ( blk.lineTable!=null && blk.lineTable.length>0 ) {
+			LineTable lines = LineTable.decode(blk.lineTable);
+			write("lines: ");
+			for (int i=0; i<lines.size(); i++) {
+				if ( i>0 ) write(", ");
+				writePadded(lines.getOffset(i), 4).write(' ');
+				write(lines.getLine(i)).write(':').write(lines.getCharPos(i));
+			}
+			newline();
+		}
+		if ( blk.blocks!=null && blk.blocks.length>0 ) {
+			write("blocks:").newline();
+			indent += 4;
+			for (int i=0; i<blk.blocks.length; i++) {
+				if ( i>0 ) newline();
+				writeBlock(blk.blocks[i], literals);
+			}
+			indent -= 4;
+		}
+	}
+
+	protected void writeCode(String blkName, byte[] bytecode, String[] literals, int start) throws IOException {
+		int ip = start;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			ip = writeInstruction(blkName, bytecode, literals, ip);
+			newline();
+		}
+	}
+
+	protected int writeInstruction(String blkName, byte[] bytecode, String[] literals, int ip) throws IOException {
+		if ( ip>=bytecode.length ) {
+			throw new IllegalArgumentException("ip out of range: "+ip);
+		}
+		int opcode = bytecode[ip];
+		Bytecode.Instruction I = opcode>=0 && opcode<Bytecode.instructions.length ?
+			Bytecode.instructions[opcode] : null;
+		if ( I==null ) {
+			throw new IllegalArgumentException("no such instruction "+opcode+
+				" at address "+ip+" of "+ blkName+"\n");
+		}
+		writePadded(ip, 4).write(":  ").write(I.name);
+		if ( opcode==Bytecode.DBG ) {
+			write(' ');
+		}
+		else {
+			for (int i=I.name.length(); i<15; i++) write(' ');
+		}
+		ip++;
+		if ( I.n==0 ) {
+			write("  ");
+			return ip;
+		}
+		for (int i=0; i<I.n; i++) {
+			if ( i>0 ) write(", ");
+			switch ( I.type[i] ) {
+				case BYTE :
+					write(bytecode[ip]);
+					break;
+				case CHAR :
+				case SHORT :
+					write(Bytecode.getShort(bytecode, ip));
+					break;
+				case LITERAL :
+					write('\'').write(literals[Bytecode.getShort(bytecode, ip)]).write('\'');
+					break;
+				case ADDR :
+				case INT :
+					write(Bytecode.getInt(bytecode, ip));
+					break;
+				case FLOAT :
+					write(String.valueOf(Float.intBitsToFloat(Bytecode.getInt(bytecode, ip))));
+					break;
+				case DBG_LOCATION :
+					int lineAndPos = Bytecode.getInt(bytecode, ip);
+					write(Bytecode.lineFromCombined(lineAndPos)).write(':');
+					write(Bytecode.charPosFromCombined(lineAndPos));
+					break;
+			}
+			ip += I.type[i].sizeInBytes;
+		}
+		return ip;
+	}
+
+	/** Write s, indenting any lines within it, e.g., in a string literal */
+	protected Disassembler write(CharSequence s) throws IOException {
+		for (int i=0; i<s.length(); i++) {
+			write(s.charAt(i));
+		}
+		return this;
+	}
+
+	protected Disassembler write(char c) throws IOException {
+		if ( c=='\n' ) return newline();
+		startLine();
+		append(c);
+		return this;
+	}
+
+	/** Write v in decimal without creating a String */
+	protected Disassembler write(int v) throws IOException {
+		if ( v<0 ) {
+			if ( v==Integer.MIN_VALUE ) return write(String.valueOf(v));
+			write('-');
+			v = -v;
+		}
+		return writePadded(v, 1);
+	}
+
+	/** Write nonnegative v in decimal with leading zeros to width digits */
+	protected Disassembler writePadded(int v, int width) throws IOException {
+		int digits = 1;
+		for (int t=v/10; t>0; t/=10) digits++;
+		for (int i=digits; i<width; i++) write('0');
+		int pow = 1;
+		for (int i=1; i<digits; i++) pow *= 10;
+		for (; pow>0; pow/=10) {
+			write((char)('0'+(v/pow)%10));
+		}
+		return this;
+	}
+
+	protected Disassembler newline() throws IOException {
+		append('\n');
+		atStartOfLine = true;
+		return this;
+	}
+
+	/** Indent lazily, as AutoIndentWriter does, so blank lines stay empty */
+	protected void startLine() throws IOException {
+		if ( atStartOfLine ) {
+			atStartOfLine = false;
+			for (int i=0; i<indent; i++) append(' ');
+		}
+	}
+
+	protected void append(char c) throws IOException {
+		if ( n==buf.length ) flush();
+		buf[n++] = c;
+	}
+
+	/** Hand buffered chars to out; the public methods do this when done */
+	public void flush() throws IOException {
+		if ( n==0 ) return;
+		if ( out instanceof Writer ) {
+			((Writer)out).write(buf, 0, n);
+		}
+		else if ( out instanceof StringBuilder ) {
+			((StringBuilder)out).append(buf, 0, n);
+		}
+		else {
+			out.append(CharBuffer.wrap(buf, 0, n));
+		}
+		n = 0;
+	}
+}
@@ -0,0 +1,113 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.Symbol;
+import org.antlr.symtab.VariableSymbol;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import smalltalk.compiler.symbols.STMethod;
+
+/** Define, resolve, and generate code for method bodies in one walk.
+ *
+ *  The separate passes walk every tree three times: {@link DefineSymbols},
+ *  {@link ResolveSymbols} (which rediscovers scopes via {@link SetScope}),
+ *  and then {@link CodeGenerator}. Only classes, fields, and method
+ *  headers must be defined before any code is generated, because a method
+ *  can refer to fields of a superclass that appears later in the file.
+ *  Everything inside a method body is lexically scoped, though, and
+ *  defined before it is used. So {@link #defineHeaders} walks the tree
+ *  without descending into bodies, and this visitor then defines locals
+ *  and blocks just before generating code for them and resolves each ID
+ *  once, using the result for both error checking and code generation.
+ *
+ *  Set {@link Compiler#separatePasses} to use the original passes, e.g.,
+ *  to debug symbol definition separately from code generation.
+ */
+public class FusedCodeGenerator extends CodeGenerator {
+	/** Defines locals and blocks; its currentScope tracks ours */
+	protected final DefineSymbols def;
+
+	/** Checks assignments; its currentScope tracks ours */
+	protected final ResolveSymbols res;
+
+	public FusedCodeGenerator(Compiler compiler) {
+		super(compiler);
+		def = new DefineSymbols(compiler);
+		res = new ResolveSymbols(compiler);
+	}
+
+	/** Walk tree with a {@link DefineSymbols} listener, skipping method and
+	 *  main bodies, to define all classes, fields, methods, and arguments.
+	 */
+	public static void defineHeaders(Compiler compiler, ParseTree tree) {
+		ParseTreeWalker walker = new ParseTreeWalker() {
+			@Override
+			public void walk(ParseTreeListener listener, ParseTree t) {
+				if ( t instanceof SmalltalkParser.BodyContext ) return;
+				super.walk(listener, t);
+			}
+		};
+		walker.walk(new DefineSymbols(compiler), tree);
+	}
+
+	@Override
+	public Code visitMain(SmalltalkParser.MainContext ctx) {
+		enterMethod(ctx.scope);
+		return super.visitMain(ctx);
+	}
+
+	@Override
+	public Code visitSmalltalkMethodBlock(SmalltalkParser.SmalltalkMethodBlockContext ctx) {
+		enterMethod(((SmalltalkParser.MethodContext)ctx.getParent()).scope);
+		return super.visitSmalltalkMethodBlock(ctx);
+	}
+
+	/** Sync def with the method we're about to generate. A redefined method
+	 *  has no scope; as in {@link DefineSymbols}, its locals go into the class.
+	 */
+	protected void enterMethod(STMethod method) {
+		if ( method!=null ) {
+			def.currentScope = method;
+			def.currentMethod = method;
+		}
+		else {
+			def.currentScope = currentClassScope;
+		}
+	}
+
+	@Override
+	public Code visitFullBody(SmalltalkParser.FullBodyContext ctx) {
+		def.enterFullBody(ctx);
+		return super.visitFullBody(ctx);
+	}
+
+	@Override
+	public Code visitEmptyBody(SmalltalkParser.EmptyBodyContext ctx) {
+		def.enterEmptyBody(ctx);
+		return super.visitEmptyBody(ctx);
+	}
+
+	@Override
+	public Code visitBlock(SmalltalkParser.BlockContext ctx) {
+		def.enterBlock(ctx);
+		Code code = super.visitBlock(ctx);
+		def.exitBlock(ctx);
+		return code;
+	}
+
+	@Override
+	public Code visitAssign(SmalltalkParser.AssignContext ctx) {
+		res.currentScope = currentScope;
+		VariableSymbol sym = res.checkIDExists(ctx.lvalue().getStart());
+		ctx.lvalue().sym = sym;
+		Code code = visit(ctx.messageExpression());
+		return assign(code, dbg(ctx.lvalue().getStart()), ctx.lvalue().ID().getText(), sym);
+	}
+
+	@Override
+	public Code visitId(SmalltalkParser.IdContext ctx) {
+		Symbol sym = currentScope.resolve(ctx.getText());
+		ctx.sym = sym;
+		return push(ctx.getText(), sym);
+	}
+}
@@ -2,16 +2,41 @@ package smalltalk.compiler;
 
 import org.antlr.symtab.ClassSymbol;
 import org.antlr.symtab.Symbol;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.misc.Utils;
+import smalltalk.compiler.ast.ASTCache;
+import smalltalk.compiler.misc.MappedCharStream;
 import smalltalk.compiler.symbols.STClass;
 import smalltalk.compiler.symbols.STSymbolTable;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /** Smalltalk compiler.
  *
@@ -30,58 +55,325 @@ public class STC {
 	public static void main(String[] args) throws Exception {
 		int fi = 0;
 		boolean dbg = false;
-		boolean dis = false; // disassemble
+		boolean strip = false; // debug info only in .stdbg sidecar files
+		boolean dis = false; // disassemble each class to its own file
+		boolean disOneFile = false; // disassemble all classes into one file
+		boolean checkPrimitives = false;
+		boolean stats = false;
+		boolean stream = false; // compile and write one class at a time
+		boolean interfaces = false; // write .sti interface files too
+		List<String> interfaceDirs = new ArrayList<>(); // preload .sti files from these
+		String astCacheDir = null; // reuse ASTs of unchanged classes
+		String profileFile = null; // write opcode and operand counts here
+		String sizeFile = null; // write object code sizes per class and method here
 		String outputDir = ".";
 		String stFileName = null;
+		List<String> stFileNames = new ArrayList<>();
 
 		while (fi<args.length) {
 			switch ( args[fi] ) {
 				case "-dbg" :
 					dbg = true;
 					break;
+				case "-strip" :
+					strip = true;
+					break;
 				case "-dis" :
 					dis = true;
 					break;
+				case "-disone" :
+					disOneFile = true;
+					break;
+				case "-checkprims" :
+					checkPrimitives = true;
+					break;
+				case "-stats" :
+					stats = true;
+					break;
+				case "-stream" :
+					stream = true;
+					break;
+				case "-interfaces" :
+					interfaces = true;
+					break;
+				case "-I" :
+					fi++;
+					interfaceDirs.add(args[fi]);
+					break;
+				case "-astcache" :
+					fi++;
+					astCacheDir = args[fi];
+					break;
+				case "-profile-static" :
+					fi++;
+					profileFile = args[fi];
+					break;
+				case "-size-report" :
+					fi++;
+					sizeFile = args[fi];
+					break;
 				case "-o" :
 					fi++;
 					outputDir = args[fi];
 					break;
 				default :
 					stFileName = args[fi];
+					stFileNames.add(stFileName);
 					break;
 			}
 			fi++;
 		}
 
 		if ( stFileName==null ) {
-			System.err.println("$ java smalltalk.compiler.STC [-dis] [-o outputdir] file.st");
+			System.err.println("$ java smalltalk.compiler.STC [-dbg [-strip]] [-dis] [-disone] [-checkprims] [-stats] [-stream] [-interfaces] [-I interfacedir] [-astcache dir] [-profile-static file.csv|file.json] [-size-report file.csv|file.json] [-o outputdir] file.st...");
+			System.exit(1);
+		}
+		if ( stFileNames.size()>1 && (stream || disOneFile || astCacheDir!=null) ) {
+			System.err.println("-stream, -disone, and -astcache work with one file.st only");
+			System.exit(1);
+		}
+		if ( dbg && astCacheDir!=null ) {
+			System.err.println("-astcache can't be used with -dbg; cached ASTs have no source positions");
 			System.exit(1);
 		}
-		STSymbolTable symtab = compile(stFileName, dbg);
-		writeObjectFiles(outputDir, stFileName, symtab);
+		STSymbolTable preloaded = new STSymbolTable();
+		for (String dir : interfaceDirs) {
+			preloaded.preloadInterfaces(Paths.get(dir));
+		}
+		STSymbolTable symtab;
+		List<Compiler> compilers;
+		if ( stFileNames.size()>1 ) {
+			final boolean genDbg = dbg, checkPrims = checkPrimitives;
+			compilers = compileAll(preloaded, stFileNames, c -> {
+				c.genDbg = genDbg;
+				c.checkPrimitives = checkPrims;
+			});
+			symtab = preloaded;
+			writeObjectFiles(outputDir, stFileName, symtab, strip);
+		}
+		else {
+			Compiler c = new Compiler(preloaded);
+			c.genDbg = dbg;
+			c.checkPrimitives = checkPrimitives;
+			if ( astCacheDir!=null ) {
+				c.astCache = new ASTCache(Paths.get(astCacheDir));
+			}
+			if ( stream ) {
+				symtab = compileStreaming(c, stFileName, outputDir, strip);
+			}
+			else {
+				symtab = compile(c, stFileName);
+				writeObjectFiles(outputDir, stFileName, symtab, strip);
+			}
+			compilers = Collections.singletonList(c);
+		}
+		if ( stats ) {
+			for (Compiler c : compilers) {
+				if ( compilers.size()>1 ) System.err.println(c.getFileName()+":");
+				System.err.print(c.stats);
+			}
+		}
 		if ( dis ) {
+			disassembleOutput(outputDir, symtab);
+		}
+		if ( disOneFile ) {
 			disassembleOutput(outputDir, stFileName, symtab);
 		}
+		if ( interfaces ) {
+			writeInterfaceFiles(outputDir, symtab);
+		}
+		if ( profileFile!=null ) {
+			writeStaticProfile(profileFile, symtab);
+		}
+		if ( sizeFile!=null ) {
+			writeSizeReport(sizeFile, symtab, strip);
+		}
+	}
+
+	/** Write a {@link SizeReport} of the classes compiled into symtab, as
+	 *  written with strip, to fileName as CSV if it ends in .csv else as JSON.
+	 */
+	public static void writeSizeReport(String fileName, STSymbolTable symtab, boolean strip) throws IOException {
+		SizeReport report = new SizeReport(strip);
+		for (STClass cl : getCompiledClasses(symtab)) {
+			report.add(cl);
+		}
+		try (Writer out = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+			if ( fileName.endsWith(".csv") ) {
+				report.writeCSV(out);
+			}
+			else {
+				out.write(report.toJSON().toString());
+			}
+		}
 	}
 
+	/** Write a {@link StaticProfile} of the classes compiled into symtab
+	 *  to fileName as CSV if it ends in .csv else as JSON.
+	 */
+	public static void writeStaticProfile(String fileName, STSymbolTable symtab) throws IOException {
+		StaticProfile profile = new StaticProfile();
+		for (STClass cl : getCompiledClasses(symtab)) {
+			profile.add(cl);
+		}
+		try (Writer out = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+			if ( fileName.endsWith(".csv") ) {
+				profile.writeCSV(out);
+			}
+			else {
+				out.write(profile.toJSON().toString());
+			}
+		}
+	}
+
+	/** Disassemble each compiled class to dir/ClassName-teststring.txt.
+	 *  Classes are done in parallel, each streamed by a {@link Disassembler}
+	 *  through a buffered writer on its own file channel.
+	 */
+	public static void disassembleOutput(String dir, STSymbolTable symtab) throws IOException {
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (STClass cl : getCompiledClasses(symtab)) {
+			Path f = Paths.get(dir, cl.getName()+"-teststring.txt");
+			tasks.add(() -> {
+				try (Writer out = newWriter(FileChannel.open(f, CREATE, TRUNCATE_EXISTING, WRITE))) {
+					new Disassembler(out).disassemble(cl);
+				}
+				return null;
+			});
+		}
+		runInParallel(tasks);
+	}
+
+	/** Disassemble all compiled classes, in definition order, into the one
+	 *  file dir/stFileName-teststring.txt. Classes are disassembled in
+	 *  parallel then appended to the file in order.
+	 */
 	public static void disassembleOutput(String dir, String stFileName, STSymbolTable symtab) throws IOException {
+		List<Callable<ByteBuffer>> tasks = new ArrayList<>();
+		for (STClass cl : getCompiledClasses(symtab)) {
+			tasks.add(() -> StandardCharsets.UTF_8.encode(CharBuffer.wrap(cl.toTestString())));
+		}
+		Path f = Paths.get(dir, stFileName+"-teststring.txt");
+		try (FileChannel out = FileChannel.open(f, CREATE, TRUNCATE_EXISTING, WRITE)) {
+			for (ByteBuffer classText : runInParallel(tasks)) {
+				while ( classText.hasRemaining() ) out.write(classText);
+			}
+		}
+	}
+
+	/** Classes in symtab that were compiled, not preloaded, in definition order */
+	public static List<STClass> getCompiledClasses(STSymbolTable symtab) {
+		List<STClass> classes = new ArrayList<>();
 		for (Symbol s : symtab.GLOBALS.getSymbols()) {
-			if ( s instanceof ClassSymbol ) {
-				String obj = ((STClass) s).toTestString();
-				Files.write(Paths.get(dir, stFileName+"-teststring.txt"), obj.getBytes());
+			if ( s instanceof STClass && !((STClass) s).fromInterface ) {
+				classes.add((STClass) s);
 			}
 		}
+		return classes;
+	}
+
+	/** A buffered UTF-8 writer on channel, which it closes */
+	protected static Writer newWriter(FileChannel channel) {
+		return new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1));
+	}
+
+	protected static <T> List<T> runInParallel(List<Callable<T>> tasks) throws IOException {
+		int nThreads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			return Compiler.invokeAll(pool, tasks);
+		}
+		finally {
+			pool.shutdown();
+		}
 	}
 
 	public static void writeObjectFiles(String dir, String stFileName, STSymbolTable symtab) throws IOException {
+		writeObjectFiles(dir, stFileName, symtab, false);
+	}
+
+	public static void writeObjectFiles(String dir, String stFileName, STSymbolTable symtab, boolean strip)
+		throws IOException
+	{
 		for (Symbol s : symtab.GLOBALS.getSymbols()) {
-			if ( s instanceof ClassSymbol ) {
-				String obj = ((STClass) s).serialize().toString();
-				Files.write(Paths.get(dir, s.getName()+".sto"), obj.getBytes());
+			if ( s instanceof ClassSymbol && !((STClass) s).fromInterface ) {
+				writeObjectFile(dir, (STClass) s, strip);
 			}
 		}
 	}
 
+	/** Write a .sti interface file for each class compiled (not preloaded) */
+	public static void writeInterfaceFiles(String dir, STSymbolTable symtab) throws IOException {
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( s instanceof STClass && !((STClass) s).fromInterface ) {
+				String sti = ((STClass) s).serializeInterface().toString();
+				Files.write(Paths.get(dir, s.getName()+".sti"), sti.getBytes());
+			}
+		}
+	}
+
+	/** Write cl's .sto file and, if it was compiled with -dbg, its .stdbg
+	 *  debug sidecar. If strip, the .sto file has no debug info. Without
+	 *  -dbg, delete any .stdbg left from an earlier compile.
+	 */
+	public static void writeObjectFile(String dir, STClass cl, boolean strip) throws IOException {
+		String obj = cl.serialize(strip).toString();
+		Files.write(Paths.get(dir, cl.getName()+".sto"), obj.getBytes());
+		Path dbgFile = Paths.get(dir, cl.getName()+".stdbg");
+		if ( cl.sourceFile!=null ) {
+			String dbg = cl.serializeDebug().toString();
+			Files.write(dbgFile, dbg.getBytes());
+		}
+		else {
+			Files.deleteIfExists(dbgFile);
+		}
+	}
+
+	/** Compile fileName one class at a time, writing each .sto file as soon
+	 *  as its class is generated; see {@link Compiler#compileStreaming}.
+	 *  As in a batch compile, there's no output if there are compile
+	 *  errors: once an error is reported no more files are written, and
+	 *  those already written by this compile are deleted before throwing.
+	 */
+	public static STSymbolTable compileStreaming(Compiler c, String fileName, String outputDir, boolean strip) {
+		URL imageURL = getFileURL(fileName);
+		STSymbolTable symtab;
+		List<String> written = new ArrayList<>();
+		try {
+			CharStream input;
+			if ( imageURL.getProtocol().equals("file") ) {
+				input = MappedCharStream.fromPath(Paths.get(imageURL.toURI()));
+			}
+			else { // e.g., in a jar
+				input = CharStreams.fromString(new String(Utils.readFile(imageURL.getFile())), fileName);
+			}
+			fileName = Paths.get(fileName).getFileName().toString();
+			symtab = c.compileStreaming(fileName, input, cl -> {
+				if ( c.errors.size()>0 ) return;
+				try {
+					written.add(cl.getName());
+					writeObjectFile(outputDir, cl, strip);
+				}
+				catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			});
+			if ( c.errors.size()>0 ) {
+				for (String name : written) {
+					Files.deleteIfExists(Paths.get(outputDir, name+".sto"));
+					Files.deleteIfExists(Paths.get(outputDir, name+".stdbg"));
+				}
+			}
+		}
+		catch (IOException | UncheckedIOException | URISyntaxException e ) {
+			throw new RuntimeException("can't compile "+imageURL, e);
+		}
+		if ( c.errors.size()>0 ) {
+			throw new RuntimeException("compile errors: "+c.errors.toString(),null);
+		}
+		return symtab;
+	}
+
 	public static STSymbolTable compile(String fileName, boolean genDbg) {
 		STSymbolTable symtab = new STSymbolTable();
 		compile(symtab, fileName, genDbg);
@@ -97,14 +389,24 @@ public class STC {
 			c = new Compiler();
 		}
 		c.genDbg = genDbg;
+		return compile(c, fileName);
+	}
 
+	/** Compile fileName with an already configured compiler */
+	public static STSymbolTable compile(Compiler c, String fileName) {
+		STSymbolTable symtab;
 		URL imageURL = getFileURL(fileName);
 		try {
-			fileName = Paths.get(fileName).getFileName().toString();
-			symtab = c.compile(fileName, new String(Utils.readFile(imageURL.getFile())));
+			if ( imageURL.getProtocol().equals("file") ) {
+				symtab = c.compile(Paths.get(imageURL.toURI()));
+			}
+			else { // e.g., in a jar
+				fileName = Paths.get(fileName).getFileName().toString();
+				symtab = c.compile(fileName, new String(Utils.readFile(imageURL.getFile())));
+			}
 			// TODO: semantic checks for unknown vars/fields
 		}
-		catch (IOException e ) {
+		catch (IOException | URISyntaxException e ) {
 			throw new RuntimeException("can't load "+imageURL, e);
 		}
 		if ( c.errors.size()>0 ) {
@@ -113,6 +415,41 @@ public class STC {
 		return symtab;
 	}
 
+	/** Compile files in parallel into symtab and return their compilers;
+	 *  see {@link Compiler#compileAll}. Files are found as
+	 *  {@link #getFileURL} finds them but must be actual files.
+	 */
+	public static List<Compiler> compileAll(STSymbolTable symtab, List<String> fileNames,
+	                                        Consumer<Compiler> configure)
+		throws IOException
+	{
+		List<Path> files = new ArrayList<>();
+		for (String fileName : fileNames) {
+			URL url = getFileURL(fileName);
+			if ( !url.getProtocol().equals("file") ) {
+				throw new IllegalArgumentException("can't compile "+url+" with other files; it's not a file");
+			}
+			try {
+				files.add(Paths.get(url.toURI()));
+			}
+			catch (URISyntaxException e) {
+				throw new IllegalArgumentException("bad filename: "+fileName, e);
+			}
+		}
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		List<String> errors = new ArrayList<>();
+		List<Compiler> compilers = Compiler.compileAll(symtab, files, nThreads, configure);
+		for (Compiler c : compilers) {
+			for (String e : c.errors) {
+				errors.add(c.getFileName()+": "+e);
+			}
+		}
+		if ( errors.size()>0 ) {
+			throw new RuntimeException("compile errors: "+errors.toString(),null);
+		}
+		return compilers;
+	}
+
 	public static URL getFileURL(String fileName) {
 		URL url;
 		File dir = new File(fileName);
@@ -0,0 +1,224 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.FieldSymbol;
+import org.antlr.symtab.MethodSymbol;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/** How big the object code of each class and method is, so we can see
+ *  what dominates image size and track it over time. Per class and per
+ *  method, with each method's nested blocks included in its row:
+ *
+ *  - bytecodeBytes: instructions
+ *  - literalBytes: UTF-8 bytes of the literals; for a method, just the
+ *    distinct literals its code refers to
+ *  - blocks: number of nested blocks
+ *  - debugBytes: size of the debug info in the .stdbg sidecar, or 0
+ *    without -dbg
+ *  - jsonBytes: size of the JSON in the .sto file
+ *  - binaryBytes: size of the same content in a plain binary encoding,
+ *    with 2-byte counts and lengths, length-prefixed UTF-8 strings, and
+ *    byte arrays as is. There's no binary object format; this shows what
+ *    JSON costs.
+ *
+ *  Classes come first, then methods, each from biggest to smallest .sto
+ *  size.
+ *
+ *  $ java smalltalk.compiler.STC -size-report sizes.csv file.st...
+ *
+ *  writes the report as CSV or, for any other file extension, JSON.
+ */
+public class SizeReport {
+	public static class Entry {
+		public final String kind; // "class" or "method"
+		public final String className;
+		public final String name; // class name or method qualified name
+		public long bytecodeBytes;
+		public long literalBytes;
+		public int blocks;
+		public long debugBytes;
+		public long jsonBytes;
+		public long binaryBytes;
+
+		public Entry(String kind, String className, String name) {
+			this.kind = kind;
+			this.className = className;
+			this.name = name;
+		}
+	}
+
+	public static final String[] COLUMNS = {
+		"kind", "class", "name", "bytecodeBytes", "literalBytes", "blocks",
+		"debugBytes", "jsonBytes", "binaryBytes"
+	};
+
+	/** Size as {@link STClass#serialize(boolean)} with this strip flag does */
+	public final boolean strip;
+
+	public final List<Entry> classes = new ArrayList<>();
+	public final List<Entry> methods = new ArrayList<>();
+
+	public SizeReport(boolean strip) {
+		this.strip = strip;
+	}
+
+	public void add(STClass cl) {
+		Entry c = new Entry("class", cl.getName(), cl.getName());
+		String[] literals = cl.stringTable.toArray();
+		for (String lit : literals) {
+			c.literalBytes += utf8Length(lit);
+		}
+		c.jsonBytes = jsonLength(cl.serialize(strip));
+		if ( cl.sourceFile!=null ) c.debugBytes = jsonLength(cl.serializeDebug());
+
+		// name, superclass, source file, literals, fields, methods
+		c.binaryBytes = stringSize(cl.getName()) + stringSize(cl.getSuperClassName()) +
+		                (strip ? stringSize(null) : stringSize(cl.sourceFile));
+		c.binaryBytes += 2;
+		for (String lit : literals) c.binaryBytes += stringSize(lit);
+		c.binaryBytes += 2;
+		for (FieldSymbol f : cl.getDefinedFields()) c.binaryBytes += stringSize(f.getName());
+		c.binaryBytes += 2;
+
+		for (MethodSymbol ms : cl.getDefinedMethods()) {
+			STCompiledBlock method = ((STMethod)ms).compiledBlock;
+			if ( method==null ) continue;
+			Entry m = new Entry("method", cl.getName(), method.qualifiedName);
+			BitSet referenced = new BitSet(literals.length);
+			addBlock(m, method, referenced);
+			if ( method.blocks!=null ) {
+				m.blocks = method.blocks.length;
+				for (STCompiledBlock blk : method.blocks) {
+					addBlock(m, blk, referenced);
+				}
+			}
+			for (int i = referenced.nextSetBit(0); i>=0; i = referenced.nextSetBit(i+1)) {
+				m.literalBytes += utf8Length(literals[i]);
+			}
+			m.jsonBytes = jsonLength(method.serialize(strip));
+			if ( cl.sourceFile!=null ) m.debugBytes = jsonLength(method.serializeDebug());
+			methods.add(m);
+			c.bytecodeBytes += m.bytecodeBytes;
+			c.blocks += m.blocks;
+			c.binaryBytes += m.binaryBytes;
+		}
+		classes.add(c);
+	}
+
+	/** Add the bytecode and binary size of blk, not its nested blocks, to
+	 *  m and mark the literals it refers to.
+	 */
+	protected void addBlock(Entry m, STCompiledBlock blk, BitSet referenced) {
+		byte[] code = blk.bytecode!=null ? blk.bytecode : new byte[0];
+		m.bytecodeBytes += code.length;
+		// name, qualified name, primitive name, home method, then isClassMethod
+		// and the three escape flags in a byte, then nargs, nlocals, maxStack,
+		// homeDepth, bytecode, line table, and number of blocks
+		m.binaryBytes += stringSize(blk.name) + stringSize(blk.qualifiedName) +
+		                 stringSize(blk.primitiveName) + stringSize(blk.homeMethod);
+		m.binaryBytes += 1 + 4*2 + 2 + code.length + 2 + 2;
+		if ( blk.lineTable!=null && !strip ) m.binaryBytes += blk.lineTable.length;
+
+		int ip = 0;
+		while ( ip<code.length ) {
+			Bytecode.Instruction I = Bytecode.instructions[code[ip]];
+			int opnd = ip+1;
+			for (int i=0; i<I.getNumberOfOperands(); i++) {
+				Bytecode.OperandType type = I.getOperandType(i);
+				if ( type==Bytecode.OperandType.LITERAL ) {
+					referenced.set(Bytecode.getShort(code, opnd));
+				}
+				opnd += type.sizeInBytes;
+			}
+			ip += I.size();
+		}
+	}
+
+	/** Header line then one line per entry with {@link #COLUMNS} */
+	public void writeCSV(Appendable out) throws IOException {
+		out.append(String.join(",", COLUMNS)).append('\n');
+		for (Entry e : getEntries()) {
+			out.append(e.kind).append(',');
+			out.append(csvField(e.className)).append(',');
+			out.append(csvField(e.name)).append(',');
+			out.append(String.valueOf(e.bytecodeBytes)).append(',');
+			out.append(String.valueOf(e.literalBytes)).append(',');
+			out.append(String.valueOf(e.blocks)).append(',');
+			out.append(String.valueOf(e.debugBytes)).append(',');
+			out.append(String.valueOf(e.jsonBytes)).append(',');
+			out.append(String.valueOf(e.binaryBytes)).append('\n');
+		}
+	}
+
+	/** {"classes":[...], "methods":[...]} with an object per entry whose
+	 *  keys are {@link #COLUMNS} other than kind.
+	 */
+	public JsonObject toJSON() {
+		return Json.createObjectBuilder()
+			.add("classes", toJSON(sorted(classes)))
+			.add("methods", toJSON(sorted(methods)))
+			.build();
+	}
+
+	protected static JsonArrayBuilder toJSON(List<Entry> entries) {
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (Entry e : entries) {
+			array.add(Json.createObjectBuilder()
+				.add("class", e.className)
+				.add("name", e.name)
+				.add("bytecodeBytes", e.bytecodeBytes)
+				.add("literalBytes", e.literalBytes)
+				.add("blocks", e.blocks)
+				.add("debugBytes", e.debugBytes)
+				.add("jsonBytes", e.jsonBytes)
+				.add("binaryBytes", e.binaryBytes));
+		}
+		return array;
+	}
+
+	/** Classes then methods, each from biggest to smallest .sto size */
+	public List<Entry> getEntries() {
+		List<Entry> entries = sorted(classes);
+		entries.addAll(sorted(methods));
+		return entries;
+	}
+
+	protected static List<Entry> sorted(List<Entry> entries) {
+		List<Entry> sorted = new ArrayList<>(entries);
+		sorted.sort((a, b) -> {
+			int c = Long.compare(b.jsonBytes, a.jsonBytes);
+			return c!=0 ? c : a.name.compareTo(b.name);
+		});
+		return sorted;
+	}
+
+	protected static String csvField(String s) {
+		if ( s.indexOf(',')>=0 || s.indexOf('"')>=0 || s.indexOf('\n')>=0 ) {
+			return '"'+s.replace("\"", "\"\"")+'"';
+		}
+		return s;
+	}
+
+	/** A 2-byte length then UTF-8 bytes; null is just the length */
+	protected static long stringSize(String s) {
+		return 2 + (s!=null ? utf8Length(s) : 0);
+	}
+
+	protected static long utf8Length(String s) {
+		return s.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	protected static long jsonLength(JsonObject json) {
+		return utf8Length(json.toString());
+	}
+}
@@ -0,0 +1,324 @@
+package smalltalk.compiler;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A hand-written lexer that produces exactly the tokens {@link SmalltalkLexer}
+ *  does: same types, channels, char indexes, lines, and char positions.
+ *
+ *  The generated lexer can't cache DFA states for input that reaches the
+ *  semantic predicate in KEYWORD, {getInputStream().LA(1)!='='}?, which is
+ *  every identifier since ID and KEYWORD share a prefix. So every ID runs
+ *  through the much slower ATN simulator. Here, x: is a KEYWORD unless
+ *  the next char is '=', as in x:=, checked with one char of lookahead.
+ *
+ *  Errors are reported to the error listeners as the generated lexer does,
+ *  "token recognition error at: ...", skipping through the char that
+ *  failed and carrying on.
+ *
+ *  TestSmalltalkTokenSource checks that the token streams are identical;
+ *  keep this in sync with Smalltalk.g4. Set {@link Compiler#antlrLexer}
+ *  to use the generated lexer instead.
+ */
+public class SmalltalkTokenSource implements TokenSource {
+	protected static final int CLASS = tokenType("'class'");
+	protected static final int COLON = tokenType("':'");
+	protected static final int ASSIGN = tokenType("':='");
+	protected static final int MINUS = tokenType("'-'");
+	protected static final int PRIMITIVE = tokenType("'primitive:'");
+
+	/** Token type of each single-char literal token indexed by char, or 0 */
+	protected static final int[] punctuation = new int[128];
+	static {
+		Vocabulary vocab = SmalltalkLexer.VOCABULARY;
+		for (int t=1; t<=vocab.getMaxTokenType(); t++) {
+			String lit = vocab.getLiteralName(t);
+			if ( lit!=null && lit.length()==3 ) punctuation[lit.charAt(1)] = t;
+		}
+	}
+
+	protected final CharStream input;
+	protected final Pair<TokenSource, CharStream> sourcePair;
+	protected TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+	protected final List<ANTLRErrorListener> listeners = new ArrayList<>();
+
+	/** Line (from 1) and char position in line (from 0) of LA(1) */
+	protected int line = 1;
+	protected int charPositionInLine = 0;
+
+	// Where the current token started
+	protected int start;
+	protected int startLine;
+	protected int startCharPositionInLine;
+
+	public SmalltalkTokenSource(CharStream input) {
+		this.input = input;
+		this.sourcePair = new Pair<>(this, input);
+		listeners.add(ConsoleErrorListener.INSTANCE);
+	}
+
+	@Override
+	public Token nextToken() {
+		while ( true ) {
+			start = input.index();
+			startLine = line;
+			startCharPositionInLine = charPositionInLine;
+			int c = input.LA(1);
+			if ( c==IntStream.EOF ) {
+				return factory.create(sourcePair, Token.EOF, null, Token.DEFAULT_CHANNEL,
+				                      start, start-1, line, charPositionInLine);
+			}
+			int type = matchToken(c);
+			if ( type!=Token.INVALID_TYPE ) {
+				int channel = type==SmalltalkLexer.WS || type==SmalltalkLexer.COMMENT ?
+					Lexer.HIDDEN : Token.DEFAULT_CHANNEL;
+				return factory.create(sourcePair, type, null, channel, start, input.index()-1,
+				                      startLine, startCharPositionInLine);
+			}
+			// As Lexer.nextToken() does: report the text from the start of
+			// the token through the char that failed, skip that char too, retry.
+			String text = input.getText(Interval.of(start, input.index()));
+			reportError("token recognition error at: '"+escape(text)+"'");
+			if ( input.LA(1)!=IntStream.EOF ) consume();
+		}
+	}
+
+	/** Consume the longest token starting with c and return its type or,
+	 *  leaving input at the char that failed, {@link Token#INVALID_TYPE}.
+	 */
+	protected int matchToken(int c) {
+		if ( isIDStart(c) ) return matchIDOrKeyword();
+		if ( c>='0' && c<='9' ) return matchNumber();
+		switch ( c ) {
+			case ' ' :
+			case '\t' :
+			case '\n' :
+				while ( isWS(input.LA(1)) ) consume();
+				return SmalltalkLexer.WS;
+			case '"' :
+				return matchQuoted('"', SmalltalkLexer.COMMENT);
+			case '\'' :
+				return matchQuoted('\'', SmalltalkLexer.STRING);
+			case '$' :
+				consume();
+				int ch = input.LA(1);
+				if ( ch==IntStream.EOF || ch=='@' || ch=='\n' || ch=='\t' || ch==' ' ) {
+					return Token.INVALID_TYPE;
+				}
+				consume();
+				return SmalltalkLexer.CHAR;
+			case '#' :
+				consume();
+				if ( !isIDStart(input.LA(1)) ) return Token.INVALID_TYPE;
+				while ( isIDChar(input.LA(1)) ) consume();
+				return SmalltalkLexer.SYMBOL;
+			case ':' :
+				consume();
+				if ( input.LA(1)=='=' ) {
+					consume();
+					return ASSIGN;
+				}
+				return COLON;
+			case '-' :
+				return matchMinus();
+		}
+		if ( c<punctuation.length && punctuation[c]!=0 ) {
+			consume();
+			return punctuation[c];
+		}
+		return Token.INVALID_TYPE;
+	}
+
+	/** ID, KEYWORD, or a literal like 'self' or 'primitive:' */
+	protected int matchIDOrKeyword() {
+		int idStart = input.index();
+		while ( isIDChar(input.LA(1)) ) consume();
+		int type = SmalltalkLexer.ID;
+		if ( input.LA(1)==':' ) {
+			// 'primitive:' is a literal so it matches even before an '='
+			if ( input.index()-idStart==9 && text(idStart).equals("primitive") ) {
+				consume();
+				return PRIMITIVE;
+			}
+			if ( input.LA(2)!='=' ) {
+				consume();
+				return SmalltalkLexer.KEYWORD;
+			}
+		}
+		int n = input.index() - idStart;
+		if ( n>=3 && n<=5 ) { // literals take precedence over ID
+			switch ( text(idStart) ) {
+				case "class" : type = CLASS; break;
+				case "self" : type = SmalltalkLexer.SELF; break;
+				case "super" : type = SmalltalkLexer.SUPER; break;
+				case "nil" : type = SmalltalkLexer.NIL; break;
+				case "true" : type = SmalltalkLexer.TRUE; break;
+				case "false" : type = SmalltalkLexer.FALSE; break;
+			}
+		}
+		return type;
+	}
+
+	/** [0-9]+ or [0-9]+ '.' [0-9]+; no digits after '.' means '.' is not ours */
+	protected int matchNumber() {
+		while ( isDigit(input.LA(1)) ) consume();
+		if ( input.LA(1)=='.' && isDigit(input.LA(2)) ) {
+			consume();
+			while ( isDigit(input.LA(1)) ) consume();
+		}
+		return SmalltalkLexer.NUMBER;
+	}
+
+	/** NUMBER : '-' NUMBER | ... so any number of '-' then digits is a
+	 *  NUMBER; otherwise the first '-' by itself is the operator.
+	 */
+	protected int matchMinus() {
+		int i = 1;
+		while ( input.LA(i)=='-' ) i++;
+		if ( !isDigit(input.LA(i)) ) {
+			consume();
+			return MINUS;
+		}
+		for (int j=1; j<i; j++) consume();
+		return matchNumber();
+	}
+
+	/** '"' ('""' | ~'"')* '"' for comments and likewise for strings.
+	 *  Every closing quote ends a valid token, even one that turns out to
+	 *  be the first of a doubled quote. If EOF comes before the end, back
+	 *  up to the last such quote and return the token through it, as the
+	 *  generated lexer falls back to its last accept state; the rest
+	 *  is then a new, unterminated token.
+	 */
+	protected int matchQuoted(char quote, int type) {
+		consume();
+		int acceptIndex = -1, acceptLine = 0, acceptCharPositionInLine = 0;
+		while ( true ) {
+			int c = input.LA(1);
+			if ( c==IntStream.EOF ) {
+				if ( acceptIndex<0 ) return Token.INVALID_TYPE;
+				input.seek(acceptIndex);
+				line = acceptLine;
+				charPositionInLine = acceptCharPositionInLine;
+				return type;
+			}
+			consume();
+			if ( c==quote ) {
+				if ( input.LA(1)!=quote ) return type;
+				acceptIndex = input.index();
+				acceptLine = line;
+				acceptCharPositionInLine = charPositionInLine;
+				consume();
+			}
+		}
+	}
+
+	protected void consume() {
+		if ( input.LA(1)=='\n' ) {
+			line++;
+			charPositionInLine = 0;
+		}
+		else {
+			charPositionInLine++;
+		}
+		input.consume();
+	}
+
+	protected String text(int from) {
+		return input.getText(Interval.of(from, input.index()-1));
+	}
+
+	protected void reportError(String msg) {
+		for (ANTLRErrorListener listener : listeners) {
+			listener.syntaxError(null, null, startLine, startCharPositionInLine, msg, null);
+		}
+	}
+
+	public void removeErrorListeners() {
+		listeners.clear();
+	}
+
+	public void addErrorListener(ANTLRErrorListener listener) {
+		listeners.add(listener);
+	}
+
+	/** As Lexer.getErrorDisplay() */
+	protected static String escape(String s) {
+		return s.replace("\n", "\\n").replace("\t", "\\t").replace("\r", "\\r");
+	}
+
+	protected static boolean isIDStart(int c) {
+		return (c>='a' && c<='z') || (c>='A' && c<='Z') || c=='_';
+	}
+
+	protected static boolean isIDChar(int c) {
+		return isIDStart(c) || isDigit(c);
+	}
+
+	protected static boolean isDigit(int c) {
+		return c>='0' && c<='9';
+	}
+
+	protected static boolean isWS(int c) {
+		return c==' ' || c=='\t' || c=='\n';
+	}
+
+	protected static int tokenType(String literal) {
+		Vocabulary vocab = SmalltalkLexer.VOCABULARY;
+		for (int t=0; t<=vocab.getMaxTokenType(); t++) {
+			if ( literal.equals(vocab.getLiteralName(t)) ) return t;
+		}
+		throw new IllegalArgumentException("no token for "+literal);
+	}
+
+	public void setLine(int line) {
+		this.line = line;
+	}
+
+	public void setCharPositionInLine(int charPositionInLine) {
+		this.charPositionInLine = charPositionInLine;
+	}
+
+	@Override
+	public int getLine() {
+		return line;
+	}
+
+	@Override
+	public int getCharPositionInLine() {
+		return charPositionInLine;
+	}
+
+	@Override
+	public CharStream getInputStream() {
+		return input;
+	}
+
+	@Override
+	public String getSourceName() {
+		return input.getSourceName();
+	}
+
+	@Override
+	public void setTokenFactory(TokenFactory<?> factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public TokenFactory<?> getTokenFactory() {
+		return factory;
+	}
+}
@@ -0,0 +1,240 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.MethodSymbol;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Static counts over the compiled code of a set of classes, for choosing
+ *  superinstructions and operand encodings: how often each opcode, pair,
+ *  and triple of consecutive opcodes appears, which operand values each
+ *  instruction operand takes, how big literal tables are, and how many
+ *  blocks methods have. Instructions are decoded with the
+ *  {@link Bytecode#instructions} metadata so new instructions are
+ *  profiled without changes here.
+ *
+ *  Pairs and triples don't span blocks. LITERAL operands are counted by
+ *  the literal, not its index, since indexes are per class. Everything
+ *  the code generator emits is counted, including the dead code after ^expr.
+ *
+ *  $ java smalltalk.compiler.STC -profile-static profile.csv file.st...
+ *
+ *  writes the counts as CSV or, for any other file extension, JSON.
+ */
+public class StaticProfile {
+	public int numClasses;
+	public int numMethods; // including primitives
+	public int numBlocks;
+	public int numInstructions;
+	public int numBytecodeBytes;
+
+	/** Counts by opcode name */
+	public final Map<String,Integer> opcodes = new HashMap<>();
+
+	/** Counts of opcode sequences by names separated by a space */
+	public final Map<String,Integer> pairs = new HashMap<>();
+	public final Map<String,Integer> triples = new HashMap<>();
+
+	/** Counts by value of each operand, keyed by opcode name and operand
+	 *  number such as "send[0]"; values are operand text as disassembled.
+	 */
+	public final Map<String,Map<String,Integer>> operands = new HashMap<>();
+
+	/** Number of classes by literal table size */
+	public final Map<Integer,Integer> literalTableSizes = new HashMap<>();
+
+	/** Number of non-primitive methods by number of nested blocks */
+	public final Map<Integer,Integer> blocksPerMethod = new HashMap<>();
+
+	public void add(STClass cl) {
+		numClasses++;
+		String[] literals = cl.stringTable.toArray();
+		increment(literalTableSizes, literals.length);
+		for (MethodSymbol m : cl.getDefinedMethods()) {
+			STCompiledBlock method = ((STMethod)m).compiledBlock;
+			if ( method==null ) continue;
+			numMethods++;
+			if ( method.primitiveName!=null ) continue;
+			add(method.bytecode, literals);
+			int n = method.blocks!=null ? method.blocks.length : 0;
+			increment(blocksPerMethod, n);
+			for (int i=0; i<n; i++) {
+				numBlocks++;
+				add(method.blocks[i].bytecode, literals);
+			}
+		}
+	}
+
+	protected void add(byte[] code, String[] literals) {
+		if ( code==null ) return;
+		numBytecodeBytes += code.length;
+		String prev = null, prevprev = null;
+		int ip = 0;
+		while ( ip<code.length ) {
+			Bytecode.Instruction I = Bytecode.instructions[code[ip]];
+			String name = I.getName();
+			numInstructions++;
+			increment(opcodes, name);
+			if ( prev!=null ) increment(pairs, prev+" "+name);
+			if ( prevprev!=null ) increment(triples, prevprev+" "+prev+" "+name);
+			int opnd = ip+1;
+			for (int i=0; i<I.getNumberOfOperands(); i++) {
+				Bytecode.OperandType type = I.getOperandType(i);
+				String value = operandText(type, code, opnd, literals);
+				if ( value!=null ) {
+					increment(operands.computeIfAbsent(name+"["+i+"]", k -> new HashMap<>()), value);
+				}
+				opnd += type.sizeInBytes;
+			}
+			prevprev = prev;
+			prev = name;
+			ip += I.size();
+		}
+	}
+
+	/** The operand at opnd as {@link Disassembler} shows it; null for dbg locations */
+	protected static String operandText(Bytecode.OperandType type, byte[] code, int opnd, String[] literals) {
+		switch ( type ) {
+			case BYTE :
+				return String.valueOf(code[opnd]);
+			case CHAR :
+			case SHORT :
+				return String.valueOf(Bytecode.getShort(code, opnd));
+			case LITERAL :
+				return "'"+literals[Bytecode.getShort(code, opnd)]+"'";
+			case ADDR :
+			case INT :
+				return String.valueOf(Bytecode.getInt(code, opnd));
+			case FLOAT :
+				return String.valueOf(Float.intBitsToFloat(Bytecode.getInt(code, opnd)));
+			default :
+				return null;
+		}
+	}
+
+	/** Write one "section,key,count" line per count, after a header line.
+	 *  Sections are opcode, pair, triple, operand, literals, and blocks;
+	 *  operand keys are like "send[0]=1". Within a section, counts go
+	 *  from most to least frequent. Totals come first, in section total.
+	 */
+	public void writeCSV(Appendable out) throws IOException {
+		out.append("section,key,count\n");
+		for (Map.Entry<String,Integer> e : totals().entrySet()) {
+			writeCSVLine(out, "total", e.getKey(), e.getValue());
+		}
+		writeCSV(out, "opcode", opcodes);
+		writeCSV(out, "pair", pairs);
+		writeCSV(out, "triple", triples);
+		for (Map.Entry<String,Integer> e : sorted(operandCounts())) {
+			writeCSVLine(out, "operand", e.getKey(), e.getValue());
+		}
+		writeCSV(out, "literals", literalTableSizes);
+		writeCSV(out, "blocks", blocksPerMethod);
+	}
+
+	protected static <K> void writeCSV(Appendable out, String section, Map<K,Integer> counts) throws IOException {
+		for (Map.Entry<K,Integer> e : sorted(counts)) {
+			writeCSVLine(out, section, String.valueOf(e.getKey()), e.getValue());
+		}
+	}
+
+	protected static void writeCSVLine(Appendable out, String section, String key, int count) throws IOException {
+		out.append(section).append(',');
+		if ( key.indexOf(',')>=0 || key.indexOf('"')>=0 || key.indexOf('\n')>=0 ) {
+			key = '"'+key.replace("\"", "\"\"")+'"';
+		}
+		out.append(key).append(',').append(String.valueOf(count)).append('\n');
+	}
+
+	/** Return {"total":{...}, "opcode":{...}, ..., "operand":{"send[0]":{...}, ...},
+	 *  "literals":{...}, "blocks":{...}} with the same sections as
+	 *  {@link #writeCSV}; keys within each are from most to least frequent.
+	 */
+	public JsonObject toJSON() {
+		JsonObjectBuilder operandsJSON = Json.createObjectBuilder();
+		for (Map.Entry<String,Map<String,Integer>> e : sortedByTotal(operands)) {
+			operandsJSON.add(e.getKey(), toJSON(e.getValue()));
+		}
+		JsonObjectBuilder totalsJSON = Json.createObjectBuilder();
+		for (Map.Entry<String,Integer> e : totals().entrySet()) {
+			totalsJSON.add(e.getKey(), e.getValue());
+		}
+		return Json.createObjectBuilder()
+			.add("total", totalsJSON)
+			.add("opcode", toJSON(opcodes))
+			.add("pair", toJSON(pairs))
+			.add("triple", toJSON(triples))
+			.add("operand", operandsJSON)
+			.add("literals", toJSON(literalTableSizes))
+			.add("blocks", toJSON(blocksPerMethod))
+			.build();
+	}
+
+	protected static <K> JsonObjectBuilder toJSON(Map<K,Integer> counts) {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		for (Map.Entry<K,Integer> e : sorted(counts)) {
+			builder.add(String.valueOf(e.getKey()), e.getValue());
+		}
+		return builder;
+	}
+
+	protected Map<String,Integer> totals() {
+		Map<String,Integer> totals = new LinkedHashMap<>();
+		totals.put("classes", numClasses);
+		totals.put("methods", numMethods);
+		totals.put("blocks", numBlocks);
+		totals.put("instructions", numInstructions);
+		totals.put("bytes", numBytecodeBytes);
+		return totals;
+	}
+
+	/** Operand counts flattened to "send[0]=1" keys */
+	protected Map<String,Integer> operandCounts() {
+		Map<String,Integer> counts = new HashMap<>();
+		for (Map.Entry<String,Map<String,Integer>> e : operands.entrySet()) {
+			for (Map.Entry<String,Integer> v : e.getValue().entrySet()) {
+				counts.put(e.getKey()+"="+v.getKey(), v.getValue());
+			}
+		}
+		return counts;
+	}
+
+	/** Entries from most to least frequent, ties by key so output is stable */
+	protected static <K> List<Map.Entry<K,Integer>> sorted(Map<K,Integer> counts) {
+		List<Map.Entry<K,Integer>> entries = new ArrayList<>(counts.entrySet());
+		entries.sort((a, b) -> {
+			int c = Integer.compare(b.getValue(), a.getValue());
+			return c!=0 ? c : String.valueOf(a.getKey()).compareTo(String.valueOf(b.getKey()));
+		});
+		return entries;
+	}
+
+	protected static List<Map.Entry<String,Map<String,Integer>>> sortedByTotal(Map<String,Map<String,Integer>> m) {
+		Map<String,Integer> totals = new HashMap<>();
+		for (Map.Entry<String,Map<String,Integer>> e : m.entrySet()) {
+			int sum = 0;
+			for (int count : e.getValue().values()) sum += count;
+			totals.put(e.getKey(), sum);
+		}
+		List<Map.Entry<String,Map<String,Integer>>> entries = new ArrayList<>();
+		for (Map.Entry<String,Integer> e : sorted(totals)) {
+			entries.add(new AbstractMap.SimpleEntry<>(e.getKey(), m.get(e.getKey())));
+		}
+		return entries;
+	}
+
+	protected static <K> void increment(Map<K,Integer> counts, K key) {
+		counts.merge(key, 1, Integer::sum);
+	}
+}
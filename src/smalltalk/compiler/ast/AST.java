@@ -0,0 +1,453 @@
+package smalltalk.compiler.ast;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A compact, immutable abstract syntax tree for one class or for the main
+ *  code of a file. Unlike ANTLR parse trees, these nodes hold no tokens,
+ *  parent pointers, or punctuation, only what code generation needs, so
+ *  they are small and can be written to and read from disk quickly. See
+ *  {@link ASTCache} and {@link smalltalk.compiler.ASTCodeGenerator}.
+ *
+ *  Parentheses and pass-through rules leave no node; a chain of binary
+ *  operators is a left-nested {@link BinarySend}.
+ */
+public abstract class AST {
+	/** Bump whenever the node layout or the code generated for it changes
+	 *  so that stale cache entries are ignored.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	// Node tags in the serialized form
+	protected static final int CLASS_DEF = 1;
+	protected static final int MAIN = 2;
+	protected static final int METHOD = 3;
+	protected static final int BODY = 4;
+	protected static final int ASSIGN = 5;
+	protected static final int RETURN = 6;
+	protected static final int EXPR_STAT = 7;
+	protected static final int KEYWORD_SEND = 8;
+	protected static final int SUPER_KEYWORD_SEND = 9;
+	protected static final int BINARY_SEND = 10;
+	protected static final int UNARY_SEND = 11;
+	protected static final int UNARY_SUPER_SEND = 12;
+	protected static final int LITERAL = 13;
+	protected static final int ID = 14;
+	protected static final int ARRAY = 15;
+	protected static final int BLOCK = 16;
+
+	public abstract void write(DataOutputStream out) throws IOException;
+
+	/** A class definition or main; the unit of caching */
+	public static abstract class Unit extends AST { }
+
+	public static abstract class Stat extends AST { }
+
+	public static abstract class Expr extends AST { }
+
+	public static class ClassDef extends Unit {
+		public final String name;
+		/** Null if the class does not name a superclass */
+		public final String superClassName;
+		public final List<String> fields;
+		/** Class methods and then instance methods, in source order */
+		public final List<Method> methods;
+
+		public ClassDef(String name, String superClassName, List<String> fields, List<Method> methods) {
+			this.name = name;
+			this.superClassName = superClassName;
+			this.fields = Collections.unmodifiableList(fields);
+			this.methods = Collections.unmodifiableList(methods);
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(CLASS_DEF);
+			out.writeUTF(name);
+			writeNullable(out, superClassName);
+			writeStrings(out, fields);
+			writeNodes(out, methods);
+		}
+	}
+
+	public static class Main extends Unit {
+		public final Body body;
+
+		public Main(Body body) {
+			this.body = body;
+		}
+
+		/** No locals and no statements; there is no MainClass */
+		public boolean isEmpty() {
+			return body.locals.isEmpty() && body.stats.isEmpty();
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(MAIN);
+			body.write(out);
+		}
+	}
+
+	public static class Method extends AST {
+		public final String selector;
+		public final List<String> args;
+		public final boolean isClassMethod;
+		/** Non-null for foo <primitive:#Class_NAME>; then body is null */
+		public final String primitiveName;
+		public final Body body;
+
+		public Method(String selector, List<String> args, boolean isClassMethod,
+		              String primitiveName, Body body)
+		{
+			this.selector = selector;
+			this.args = Collections.unmodifiableList(args);
+			this.isClassMethod = isClassMethod;
+			this.primitiveName = primitiveName;
+			this.body = body;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(METHOD);
+			out.writeUTF(selector);
+			writeStrings(out, args);
+			out.writeBoolean(isClassMethod);
+			writeNullable(out, primitiveName);
+			if ( primitiveName==null ) body.write(out);
+		}
+	}
+
+	/** Statements are empty for the grammar's EmptyBody alternative */
+	public static class Body extends AST {
+		public final List<String> locals;
+		public final List<Stat> stats;
+
+		public Body(List<String> locals, List<Stat> stats) {
+			this.locals = Collections.unmodifiableList(locals);
+			this.stats = Collections.unmodifiableList(stats);
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(BODY);
+			writeStrings(out, locals);
+			writeNodes(out, stats);
+		}
+	}
+
+	public static class Assign extends Stat {
+		public final String name;
+		public final Expr value;
+
+		public Assign(String name, Expr value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(ASSIGN);
+			out.writeUTF(name);
+			value.write(out);
+		}
+	}
+
+	public static class Return extends Stat {
+		public final Expr value;
+
+		public Return(Expr value) {
+			this.value = value;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(RETURN);
+			value.write(out);
+		}
+	}
+
+	public static class ExprStat extends Stat {
+		public final Expr expr;
+
+		public ExprStat(Expr expr) {
+			this.expr = expr;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(EXPR_STAT);
+			expr.write(out);
+		}
+	}
+
+	public static class KeywordSend extends Expr {
+		public final Expr receiver;
+		/** All keywords joined, e.g., at:put: */
+		public final String selector;
+		public final List<Expr> args;
+
+		public KeywordSend(Expr receiver, String selector, List<Expr> args) {
+			this.receiver = receiver;
+			this.selector = selector;
+			this.args = Collections.unmodifiableList(args);
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(KEYWORD_SEND);
+			receiver.write(out);
+			out.writeUTF(selector);
+			writeNodes(out, args);
+		}
+	}
+
+	public static class SuperKeywordSend extends Expr {
+		public final String selector;
+		public final List<Expr> args;
+
+		public SuperKeywordSend(String selector, List<Expr> args) {
+			this.selector = selector;
+			this.args = Collections.unmodifiableList(args);
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(SUPER_KEYWORD_SEND);
+			out.writeUTF(selector);
+			writeNodes(out, args);
+		}
+	}
+
+	public static class BinarySend extends Expr {
+		public final Expr receiver;
+		public final String operator;
+		public final Expr arg;
+
+		public BinarySend(Expr receiver, String operator, Expr arg) {
+			this.receiver = receiver;
+			this.operator = operator;
+			this.arg = arg;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(BINARY_SEND);
+			receiver.write(out);
+			out.writeUTF(operator);
+			arg.write(out);
+		}
+	}
+
+	public static class UnarySend extends Expr {
+		public final Expr receiver;
+		public final String selector;
+
+		public UnarySend(Expr receiver, String selector) {
+			this.receiver = receiver;
+			this.selector = selector;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(UNARY_SEND);
+			receiver.write(out);
+			out.writeUTF(selector);
+		}
+	}
+
+	public static class UnarySuperSend extends Expr {
+		public final String selector;
+
+		public UnarySuperSend(String selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(UNARY_SUPER_SEND);
+			out.writeUTF(selector);
+		}
+	}
+
+	public static class Literal extends Expr {
+		public enum Kind { NUMBER, CHAR, STRING, KEYWORD }
+
+		public final Kind kind;
+		/** Source text, e.g., 3.14, $a, 'it''s', or nil */
+		public final String text;
+
+		public Literal(Kind kind, String text) {
+			this.kind = kind;
+			this.text = text;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(LITERAL);
+			out.writeByte(kind.ordinal());
+			out.writeUTF(text);
+		}
+	}
+
+	public static class Id extends Expr {
+		public final String name;
+
+		public Id(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(ID);
+			out.writeUTF(name);
+		}
+	}
+
+	/** {a. b. c} */
+	public static class Array extends Expr {
+		public final List<Expr> elements;
+
+		public Array(List<Expr> elements) {
+			this.elements = Collections.unmodifiableList(elements);
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(ARRAY);
+			writeNodes(out, elements);
+		}
+	}
+
+	public static class Block extends Expr {
+		public final List<String> args;
+		public final Body body;
+
+		public Block(List<String> args, Body body) {
+			this.args = Collections.unmodifiableList(args);
+			this.body = body;
+		}
+
+		@Override
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(BLOCK);
+			writeStrings(out, args);
+			body.write(out);
+		}
+	}
+
+	// Serialization support
+
+	public static AST read(DataInputStream in) throws IOException {
+		int tag = in.readByte();
+		switch ( tag ) {
+			case CLASS_DEF : {
+				String name = in.readUTF();
+				String superClassName = readNullable(in);
+				List<String> fields = readStrings(in);
+				return new ClassDef(name, superClassName, fields, readNodes(in, Method.class));
+			}
+			case MAIN :
+				return new Main(read(in, Body.class));
+			case METHOD : {
+				String selector = in.readUTF();
+				List<String> args = readStrings(in);
+				boolean isClassMethod = in.readBoolean();
+				String primitiveName = readNullable(in);
+				Body body = primitiveName==null ? read(in, Body.class) : null;
+				return new Method(selector, args, isClassMethod, primitiveName, body);
+			}
+			case BODY : {
+				List<String> locals = readStrings(in);
+				return new Body(locals, readNodes(in, Stat.class));
+			}
+			case ASSIGN : {
+				String name = in.readUTF();
+				return new Assign(name, read(in, Expr.class));
+			}
+			case RETURN :
+				return new Return(read(in, Expr.class));
+			case EXPR_STAT :
+				return new ExprStat(read(in, Expr.class));
+			case KEYWORD_SEND : {
+				Expr receiver = read(in, Expr.class);
+				String selector = in.readUTF();
+				return new KeywordSend(receiver, selector, readNodes(in, Expr.class));
+			}
+			case SUPER_KEYWORD_SEND : {
+				String selector = in.readUTF();
+				return new SuperKeywordSend(selector, readNodes(in, Expr.class));
+			}
+			case BINARY_SEND : {
+				Expr receiver = read(in, Expr.class);
+				String operator = in.readUTF();
+				return new BinarySend(receiver, operator, read(in, Expr.class));
+			}
+			case UNARY_SEND : {
+				Expr receiver = read(in, Expr.class);
+				return new UnarySend(receiver, in.readUTF());
+			}
+			case UNARY_SUPER_SEND :
+				return new UnarySuperSend(in.readUTF());
+			case LITERAL : {
+				Literal.Kind kind = Literal.Kind.values()[in.readByte()];
+				return new Literal(kind, in.readUTF());
+			}
+			case ID :
+				return new Id(in.readUTF());
+			case ARRAY :
+				return new Array(readNodes(in, Expr.class));
+			case BLOCK : {
+				List<String> args = readStrings(in);
+				return new Block(args, read(in, Body.class));
+			}
+			default :
+				throw new IOException("bad AST node tag "+tag);
+		}
+	}
+
+	protected static <T extends AST> T read(DataInputStream in, Class<T> type) throws IOException {
+		AST t = read(in);
+		if ( !type.isInstance(t) ) {
+			throw new IOException("expecting "+type.getSimpleName()+" not "+t.getClass().getSimpleName());
+		}
+		return type.cast(t);
+	}
+
+	protected static <T extends AST> List<T> readNodes(DataInputStream in, Class<T> type) throws IOException {
+		int n = in.readInt();
+		List<T> nodes = new ArrayList<>(n);
+		for (int i=0; i<n; i++) nodes.add(read(in, type));
+		return nodes;
+	}
+
+	protected static void writeNodes(DataOutputStream out, List<? extends AST> nodes) throws IOException {
+		out.writeInt(nodes.size());
+		for (AST t : nodes) t.write(out);
+	}
+
+	protected static List<String> readStrings(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		List<String> strings = new ArrayList<>(n);
+		for (int i=0; i<n; i++) strings.add(in.readUTF());
+		return strings;
+	}
+
+	protected static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) out.writeUTF(s);
+	}
+
+	protected static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	protected static void writeNullable(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s!=null);
+		if ( s!=null ) out.writeUTF(s);
+	}
+}
@@ -0,0 +1,83 @@
+package smalltalk.compiler.ast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** An on-disk cache of {@link AST.Unit}s, one file per class or main
+ *  chunk, named by the SHA-256 hash of the chunk's source text. An
+ *  unchanged class therefore hits no matter which file it is in or where,
+ *  and an edited one simply misses; entries are never invalidated, only
+ *  orphaned. The hash includes {@link AST#FORMAT_VERSION}.
+ *
+ *  Writes go to a temporary file that is then renamed, so concurrent
+ *  compilers sharing a directory never see a partial entry. An entry
+ *  that cannot be read is treated as a miss.
+ */
+public class ASTCache {
+	public static final String SUFFIX = ".sta";
+
+	public final Path dir;
+
+	public ASTCache(Path dir) throws IOException {
+		this.dir = dir;
+		Files.createDirectories(dir);
+	}
+
+	/** The hash of source text, in hex, under which its AST is stored */
+	public static String key(String source) {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae); // every JVM has SHA-256
+		}
+		sha.update((byte)AST.FORMAT_VERSION);
+		byte[] hash = sha.digest(source.getBytes(StandardCharsets.UTF_8));
+		StringBuilder buf = new StringBuilder(hash.length*2);
+		for (byte b : hash) {
+			buf.append(Character.forDigit((b>>4)&0xF, 16));
+			buf.append(Character.forDigit(b&0xF, 16));
+		}
+		return buf.toString();
+	}
+
+	/** Return the AST stored under key or null if there is none */
+	public AST.Unit get(String key) {
+		Path f = dir.resolve(key+SUFFIX);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(f)))) {
+			AST t = AST.read(in);
+			return t instanceof AST.Unit ? (AST.Unit)t : null;
+		}
+		catch (NoSuchFileException nsfe) {
+			return null;
+		}
+		catch (IOException | RuntimeException e) {
+			return null; // truncated or from some other version
+		}
+	}
+
+	public void put(String key, AST.Unit t) throws IOException {
+		Path tmp = Files.createTempFile(dir, key, ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				t.write(out);
+			}
+			Files.move(tmp, dir.resolve(key+SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package smalltalk.compiler.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Split a source file into the text of each classDef and the trailing
+ *  main code without running the lexer or parser. We only track enough
+ *  lexical structure, strings, comments, and $c chars, to match square
+ *  brackets; a class runs from its 'class' keyword to the ']' that
+ *  closes its body, exactly the text ANTLR's classDef would span.
+ *
+ *  This lets {@link ASTCache} look up each class by its hash before
+ *  deciding whether anything needs parsing.
+ */
+public class SourceChunks {
+	public static class Chunk {
+		public final String text;
+		public final boolean isClass;
+		/** Line (from 1) and char position in line (from 0) of text's start */
+		public final int line;
+		public final int charPositionInLine;
+
+		public Chunk(String text, boolean isClass, int line, int charPositionInLine) {
+			this.text = text;
+			this.isClass = isClass;
+			this.line = line;
+			this.charPositionInLine = charPositionInLine;
+		}
+	}
+
+	protected final String src;
+	protected int p = 0;
+	protected int line = 1;
+	protected int lineStart = 0;
+
+	protected SourceChunks(String src) {
+		this.src = src;
+	}
+
+	/** Return the class chunks in order followed by one main chunk
+	 *  or null if src isn't a sequence of well-bracketed classes followed
+	 *  by main code; let the parser report the problem.
+	 */
+	public static List<Chunk> split(String src) {
+		return new SourceChunks(src).split();
+	}
+
+	protected List<Chunk> split() {
+		List<Chunk> chunks = new ArrayList<>();
+		// main is everything after the last class
+		int mainStart = 0, mainLine = 1, mainCol = 0;
+		while ( true ) {
+			skipWhitespaceAndComments();
+			if ( !atClassKeyword() ) break;
+			int start = p;
+			int startLine = line;
+			int startCol = p - lineStart;
+			if ( !skipClass() ) return null;
+			chunks.add(new Chunk(src.substring(start, p), true, startLine, startCol));
+			mainStart = p;
+			mainLine = line;
+			mainCol = p - lineStart;
+		}
+		chunks.add(new Chunk(src.substring(mainStart), false, mainLine, mainCol));
+		return chunks;
+	}
+
+	protected boolean atClassKeyword() {
+		if ( !src.startsWith("class", p) ) return false;
+		int end = p + "class".length();
+		return end==src.length() || !isIDChar(src.charAt(end));
+	}
+
+	/** Skip 'class' ... '[' ... ']'; return false if there's no balanced body */
+	protected boolean skipClass() {
+		int depth = 0;
+		while ( p<src.length() ) {
+			char c = src.charAt(p);
+			switch ( c ) {
+				case '"' :
+				case '\'' :
+					if ( !skipQuoted(c) ) return false;
+					continue;
+				case '$' :
+					consume(); // the char after $ is the literal, even if ] or '
+					break;
+				case '[' :
+					depth++;
+					break;
+				case ']' :
+					if ( depth==0 ) return false;
+					depth--;
+					if ( depth==0 ) {
+						consume();
+						return true;
+					}
+					break;
+			}
+			consume();
+		}
+		return false;
+	}
+
+	/** Skip a comment or string; a doubled quote char is an escaped quote */
+	protected boolean skipQuoted(char quote) {
+		consume();
+		while ( p<src.length() ) {
+			char c = src.charAt(p);
+			consume();
+			if ( c==quote ) {
+				if ( p<src.length() && src.charAt(p)==quote ) {
+					consume();
+					continue;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected void skipWhitespaceAndComments() {
+		while ( p<src.length() ) {
+			char c = src.charAt(p);
+			if ( c==' ' || c=='\t' || c=='\n' || c=='\r' ) consume();
+			else if ( c=='"' ) {
+				if ( !skipQuoted('"') ) return;
+			}
+			else return;
+		}
+	}
+
+	protected void consume() {
+		if ( p<src.length() && src.charAt(p)=='\n' ) {
+			line++;
+			lineStart = p+1;
+		}
+		p++;
+	}
+
+	protected static boolean isIDChar(char c) {
+		return Character.isLetterOrDigit(c) || c=='_';
+	}
+}
@@ -0,0 +1,46 @@
+package smalltalk.compiler.misc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+
+/** A token source that passes along only default-channel tokens.
+ *  CommonTokenStream skips whitespace and comments for the parser but
+ *  UnbufferedTokenStream does not, so streaming compiles wrap the lexer
+ *  in one of these.
+ */
+public class DefaultChannelTokenSource implements TokenSource {
+	protected final TokenSource source;
+
+	public DefaultChannelTokenSource(TokenSource source) {
+		this.source = source;
+	}
+
+	@Override
+	public Token nextToken() {
+		Token t = source.nextToken();
+		while ( t.getChannel()!=Token.DEFAULT_CHANNEL ) {
+			t = source.nextToken();
+		}
+		return t;
+	}
+
+	@Override
+	public int getLine() { return source.getLine(); }
+
+	@Override
+	public int getCharPositionInLine() { return source.getCharPositionInLine(); }
+
+	@Override
+	public CharStream getInputStream() { return source.getInputStream(); }
+
+	@Override
+	public String getSourceName() { return source.getSourceName(); }
+
+	@Override
+	public void setTokenFactory(TokenFactory<?> factory) { source.setTokenFactory(factory); }
+
+	@Override
+	public TokenFactory<?> getTokenFactory() { return source.getTokenFactory(); }
+}
@@ -0,0 +1,118 @@
+package smalltalk.compiler.misc;
+
+/** Maps bytecode offsets to the line:charPos in the source file of the
+ *  construct that generated the instruction there: the selector of a send,
+ *  the '^' of a return, the variable of a store, and the ']' or end of
+ *  main for the final return. This replaces inline dbg instructions so that
+ *  bytecode is identical with and without -dbg and costs nothing to run.
+ *
+ *  Entries are kept in offset order. {@link #encode} packs them as a
+ *  byte stream with, per entry, the offset delta as an unsigned varint,
+ *  the line delta as a zigzag varint, and the charPos as an unsigned
+ *  varint. Most entries therefore take 3 bytes versus 7 for dbg.
+ */
+public class LineTable {
+	/** offset, line, charPos triples */
+	protected int[] entries = new int[3*4];
+	protected int n = 0;
+
+	public void add(int offset, int line, int charPos) {
+		if ( 3*(n+1)>entries.length ) {
+			int[] bigger = new int[entries.length*2];
+			System.arraycopy(entries, 0, bigger, 0, 3*n);
+			entries = bigger;
+		}
+		entries[3*n] = offset;
+		entries[3*n+1] = line;
+		entries[3*n+2] = charPos;
+		n++;
+	}
+
+	/** Append the entries of other, which describe code that was appended
+	 *  at offset shift.
+	 */
+	public void addAll(LineTable other, int shift) {
+		for (int i=0; i<other.n; i++) {
+			add(other.getOffset(i)+shift, other.getLine(i), other.getCharPos(i));
+		}
+	}
+
+	public int size() { return n; }
+
+	public int getOffset(int i) { return entries[3*i]; }
+
+	public int getLine(int i) { return entries[3*i+1]; }
+
+	public int getCharPos(int i) { return entries[3*i+2]; }
+
+	/** Return the index of the entry for the instruction at or containing
+	 *  offset pc, the last entry at or before pc, or -1 if there is none.
+	 */
+	public int find(int pc) {
+		int lo = 0, hi = n-1, found = -1;
+		while ( lo<=hi ) {
+			int mid = (lo+hi) >>> 1;
+			if ( getOffset(mid)<=pc ) {
+				found = mid;
+				lo = mid+1;
+			}
+			else {
+				hi = mid-1;
+			}
+		}
+		return found;
+	}
+
+	/** Return "line:charPos" for the instruction at pc or null */
+	public String getLocation(int pc) {
+		int i = find(pc);
+		if ( i<0 ) return null;
+		return getLine(i)+":"+getCharPos(i);
+	}
+
+	public byte[] encode() {
+		ByteList bytes = new ByteList(3*n);
+		int offset = 0, line = 0;
+		for (int i=0; i<n; i++) {
+			writeVarint(bytes, getOffset(i)-offset);
+			int dline = getLine(i)-line;
+			writeVarint(bytes, (dline << 1) ^ (dline >> 31));
+			writeVarint(bytes, getCharPos(i));
+			offset = getOffset(i);
+			line = getLine(i);
+		}
+		return bytes.bytes();
+	}
+
+	public static LineTable decode(byte[] encoded) {
+		LineTable table = new LineTable();
+		int offset = 0, line = 0;
+		int[] p = {0};
+		while ( p[0]<encoded.length ) {
+			offset += readVarint(encoded, p);
+			int zigzag = readVarint(encoded, p);
+			line += (zigzag >>> 1) ^ -(zigzag & 1);
+			int charPos = readVarint(encoded, p);
+			table.add(offset, line, charPos);
+		}
+		return table;
+	}
+
+	protected static void writeVarint(ByteList bytes, int v) {
+		while ( (v & ~0x7F)!=0 ) {
+			bytes.add((short)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		bytes.add((short)v);
+	}
+
+	/** Read the varint at p[0] and advance p[0] past it */
+	protected static int readVarint(byte[] bytes, int[] p) {
+		int v = 0;
+		for (int shift=0; ; shift+=7) {
+			byte b = bytes[p[0]++];
+			v |= (b & 0x7F) << shift;
+			if ( (b & 0x80)==0 ) return v;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package smalltalk.compiler.misc;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A CharStream over a memory-mapped source file. If the file is pure
+ *  ASCII, which is the norm for Smalltalk source, the lexer reads chars
+ *  straight out of the mapped bytes; nothing is copied except the text
+ *  of tokens as they are requested. Otherwise the file is decoded once as
+ *  UTF-8 into code points.
+ */
+public class MappedCharStream implements CharStream {
+	protected final String sourceName;
+
+	/** The mapped file if all bytes are ASCII; else null */
+	protected final ByteBuffer ascii;
+
+	/** Decoded code points if the file is not pure ASCII; else null */
+	protected final int[] codePoints;
+
+	protected final int size;
+
+	/** Index of the current char (the one LA(1) returns) */
+	protected int p = 0;
+
+	protected MappedCharStream(ByteBuffer bytes, String sourceName) {
+		this.sourceName = sourceName;
+		if ( isASCII(bytes) ) {
+			ascii = bytes;
+			codePoints = null;
+			size = bytes.limit();
+		}
+		else {
+			CharBuffer chars = StandardCharsets.UTF_8.decode(bytes.duplicate());
+			ascii = null;
+			codePoints = chars.codePoints().toArray();
+			size = codePoints.length;
+		}
+	}
+
+	public static MappedCharStream fromPath(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long n = channel.size();
+			if ( n>Integer.MAX_VALUE ) {
+				throw new IOException("source file too large: "+path);
+			}
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, n);
+			return new MappedCharStream(bytes, path.toString());
+		}
+	}
+
+	protected static boolean isASCII(ByteBuffer bytes) {
+		for (int i=0; i<bytes.limit(); i++) {
+			if ( bytes.get(i)<0 ) return false; // high bit set
+		}
+		return true;
+	}
+
+	@Override
+	public int LA(int i) {
+		if ( i==0 ) return 0; // undefined
+		if ( i<0 ) i++; // e.g., translate LA(-1) to use offset i=0; then data[p+0-1]
+		int index = p + i - 1;
+		if ( index<0 || index>=size ) return IntStream.EOF;
+		return ascii!=null ? ascii.get(index) & 0x7F : codePoints[index];
+	}
+
+	@Override
+	public void consume() {
+		if ( p>=size ) {
+			throw new IllegalStateException("cannot consume EOF");
+		}
+		p++;
+	}
+
+	@Override
+	public String getText(Interval interval) {
+		int start = interval.a;
+		int stop = Math.min(interval.b, size-1);
+		if ( start<0 || stop<start ) return "";
+		int n = stop - start + 1;
+		if ( ascii!=null ) {
+			char[] chars = new char[n];
+			for (int i=0; i<n; i++) {
+				chars[i] = (char)ascii.get(start+i);
+			}
+			return new String(chars);
+		}
+		return new String(codePoints, start, n);
+	}
+
+	/** Random access so no need to mark */
+	@Override
+	public int mark() { return -1; }
+
+	@Override
+	public void release(int marker) { }
+
+	@Override
+	public int index() { return p; }
+
+	@Override
+	public void seek(int index) {
+		p = Math.min(index, size);
+	}
+
+	@Override
+	public int size() { return size; }
+
+	@Override
+	public String getSourceName() { return sourceName; }
+
+	@Override
+	public String toString() {
+		return getText(Interval.of(0, size-1));
+	}
+}
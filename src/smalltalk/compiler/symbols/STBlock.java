@@ -1,9 +1,20 @@
 package smalltalk.compiler.symbols;
 
 import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.ParameterSymbol;
 import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
+import org.antlr.symtab.VariableSymbol;
 import org.antlr.v4.runtime.ParserRuleContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /** A block is an anonymous method defined within a method or another block.
  *  Ala gnu impl., blocks aren't stored en masse inline.
  *
@@ -29,6 +40,11 @@ import org.antlr.v4.runtime.ParserRuleContext;
  *
  *  Weird, right? Now, STBlock pretty much has all fields and I view a
  *  method as a block with a name.
+ *
+ *  Most blocks and methods define only a few args, locals, and nested
+ *  blocks, so instead of the LinkedHashMap that symtab's BaseScope uses,
+ *  we keep symbols in a small array in definition order and look names up
+ *  linearly. Insertion order numbers are array indexes, as before.
  */
 public class STBlock extends MethodSymbol {
 	/** The block number within the surrounding method or block.
@@ -42,11 +58,34 @@ public class STBlock extends MethodSymbol {
 
 	public STCompiledBlock compiledBlock;
 
+	/** Set by the code generator if this block, or a block nested within it,
+	 *  reads or writes an argument or local of an enclosing block or method.
+	 */
+	public boolean refsOuterLocals;
+
+	/** Set by the code generator if this block, or a block nested within it,
+	 *  refers to self, super, or a field of self.
+	 */
+	public boolean refsSelf;
+
+	/** Set by the code generator if this block, or a block nested within it,
+	 *  contains a ^expr that must return from the home method.
+	 */
+	public boolean hasNonLocalReturn;
+
+	/** Args, locals, and nested blocks in definition order; replaces
+	 *  BaseScope.symbols. Null until the first define.
+	 */
+	protected Symbol[] definedSymbols;
+
+	protected int numSymbols;
+
 	/** Used by subclass STMethod */
 	protected STBlock(String name, ParserRuleContext tree) {
 		super(name);
 		setDefNode(tree);
 		index = -1;
+		releaseBaseScopeStorage();
 	}
 
 	/** Create a block object within a specific method */
@@ -54,14 +93,165 @@ public class STBlock extends MethodSymbol {
 		super(method.getName() + "-block" + method.numNestedBlocks);
 		setDefNode(tree);
 		index = method.numNestedBlocks++;
+		releaseBaseScopeStorage();
+	}
+
+	/** BaseScope allocates a map we never use and a list we seldom use */
+	private void releaseBaseScopeStorage() {
+		symbols = null;
+		nestedScopesNotSymbols = null;
+	}
+
+	@Override
+	public void define(Symbol sym) throws IllegalArgumentException {
+		if ( getSymbol(sym.getName())!=null ) {
+			throw new IllegalArgumentException("duplicate symbol "+sym.getName());
+		}
+		if ( definedSymbols==null ) {
+			definedSymbols = new Symbol[2];
+		}
+		else if ( numSymbols==definedSymbols.length ) {
+			definedSymbols = Arrays.copyOf(definedSymbols, numSymbols*2);
+		}
+		sym.setScope(this);
+		sym.setInsertionOrderNumber(numSymbols);
+		definedSymbols[numSymbols++] = sym;
+	}
+
+	@Override
+	public Symbol getSymbol(String name) {
+		for (int i=0; i<numSymbols; i++) {
+			if ( definedSymbols[i].getName().equals(name) ) return definedSymbols[i];
+		}
+		return null;
+	}
+
+	@Override
+	public Symbol resolve(String name) {
+		Symbol s = getSymbol(name);
+		if ( s!=null ) return s;
+		Scope enclosing = getEnclosingScope();
+		return enclosing!=null ? enclosing.resolve(name) : null;
+	}
+
+	@Override
+	public List<? extends Symbol> getSymbols() {
+		if ( numSymbols==0 ) return Collections.emptyList();
+		return Collections.unmodifiableList(Arrays.asList(definedSymbols).subList(0, numSymbols));
+	}
+
+	@Override
+	public List<? extends Symbol> getAllSymbols() {
+		List<Symbol> all = new ArrayList<>(getSymbols());
+		for (int i=0; i<numSymbols; i++) {
+			if ( definedSymbols[i] instanceof Scope ) {
+				all.addAll(((Scope)definedSymbols[i]).getAllSymbols());
+			}
+		}
+		return all;
+	}
+
+	@Override
+	public Map<String, ? extends Symbol> getMembers() {
+		Map<String,Symbol> members = new LinkedHashMap<>();
+		for (int i=0; i<numSymbols; i++) {
+			members.put(definedSymbols[i].getName(), definedSymbols[i]);
+		}
+		return members;
+	}
+
+	@Override
+	public Set<String> getSymbolNames() {
+		return getMembers().keySet();
+	}
+
+	@Override
+	public int getNumberOfSymbols() { return numSymbols; }
+
+	@Override
+	public int getNumberOfVariables() {
+		int n = 0;
+		for (int i=0; i<numSymbols; i++) {
+			if ( definedSymbols[i] instanceof VariableSymbol ) n++;
+		}
+		return n;
+	}
+
+	@Override
+	public int getNumberOfParameters() {
+		int n = 0;
+		for (int i=0; i<numSymbols; i++) {
+			if ( definedSymbols[i] instanceof ParameterSymbol ) n++;
+		}
+		return n;
+	}
+
+	/** Same as FunctionSymbol.toString, which reads BaseScope.symbols */
+	@Override
+	public String toString() {
+		return name+":"+getSymbolNames();
+	}
+
+	/** Nested blocks are defined as symbols so we rarely nest a bare scope;
+	 *  only then allocate the list for them.
+	 */
+	@Override
+	public void nest(Scope scope) throws IllegalArgumentException {
+		if ( nestedScopesNotSymbols==null ) nestedScopesNotSymbols = new ArrayList<>(1);
+		super.nest(scope);
+	}
+
+	@Override
+	public List<Scope> getNestedScopes() {
+		if ( nestedScopesNotSymbols==null ) return getNestedScopedSymbols();
+		return super.getNestedScopes();
 	}
 
 	public boolean isMethod() { return false; }
 
+	/** A clean block captures nothing from its lexical context so a VM can
+	 *  create it once, as a constant, rather than as a closure per evaluation.
+	 */
+	public boolean isClean() {
+		return !refsOuterLocals && !refsSelf && !hasNonLocalReturn;
+	}
+
 	public int nargs() { return this.getNumberOfParameters(); } // fill in
 
 	public int nlocals() { return (this.getNumberOfVariables() - this.getNumberOfParameters()); } // fill in
 
+	/** Return the method that lexically contains this block; a method is
+	 *  its own home.
+	 */
+	public STMethod getHomeMethod() {
+		Scope scope = this;
+		while ( !(scope instanceof STMethod) ) {
+			scope = scope.getEnclosingScope();
+		}
+		return (STMethod)scope;
+	}
+
+	/** How many scopes we must walk outwards to reach the home method */
+	public int getHomeDepth() {
+		int depth = 0;
+		Scope scope = this;
+		while ( !(scope instanceof STMethod) ) {
+			scope = scope.getEnclosingScope();
+			depth++;
+		}
+		return depth;
+	}
+
+	/** Names of the arguments then locals, indexed as {@link #getLocalIndex} */
+	public String[] getLocalNames() {
+		String[] names = new String[nargs()+nlocals()];
+		for (int i=0; i<numSymbols; i++) {
+			Symbol sym = definedSymbols[i];
+			if ( sym instanceof VariableSymbol ) names[sym.getInsertionOrderNumber()] = sym.getName();
+		}
+		return names;
+	}
+
 	/** Given the name of a local variable or argument, return the index from 0.
 	 *  The arguments come first and then the locals. For example,
 	 *  at: x put: y [|a| ...]
@@ -5,14 +5,16 @@ import org.antlr.symtab.FieldSymbol;
 import org.antlr.symtab.MethodSymbol;
 import org.antlr.symtab.StringTable;
 import org.antlr.symtab.Symbol;
-import org.stringtemplate.v4.ST;
+import smalltalk.compiler.Disassembler;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
-import java.util.ArrayList;
-import java.util.List;
+import javax.json.JsonString;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /** Represents a compile-time Smalltalk class in a Smalltalk program; it
  *  corresponds to STMetaClassObject in the VM.
@@ -25,6 +27,17 @@ public class STClass extends ClassSymbol {
 	 */
 	public StringTable stringTable = new StringTable();
 
+	/** Set if this class was preloaded from an interface file rather than
+	 *  compiled; it has fields and method symbols but no code.
+	 *  See {@link #serializeInterface()}.
+	 */
+	public boolean fromInterface;
+
+	/** The file this class was compiled from when generating line tables
+	 *  (see {@link STCompiledBlock#lineTable}); otherwise null.
+	 */
+	public String sourceFile;
+
 	public STClass(String name, String superClassName) {
 		super(name);
 		setSuperClass(superClassName);
@@ -49,11 +62,52 @@ public class STClass extends ClassSymbol {
 	 *  The VM loads such JSON to execute code.
 	 */
 	public JsonObject serialize() {
+		return serialize(false);
+	}
+
+	/** Serialize as {@link #serialize()} but, if strip, leave out debug
+	 *  info: the source file and line tables. Those are then only in the
+	 *  {@link #serializeDebug()} sidecar. If there is debug info, the
+	 *  {@link #getCodeHash()} is included, stripped or not.
+	 */
+	public JsonObject serialize(boolean strip) {
+		JsonObjectBuilder builder = serializeCode(strip);
+		if ( sourceFile!=null ) {
+			builder.add("codeHash", getCodeHash());
+		}
+		return builder.build();
+	}
+
+	/** A hash of the class's stripped serialized code, in hex. The .sto
+	 *  file and the .stdbg sidecar both record it so the VM can tell a
+	 *  sidecar left over from some other compile of the class and ignore it.
+	 */
+	public String getCodeHash() {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae); // every JVM has SHA-256
+		}
+		byte[] hash = sha.digest(serializeCode(true).build().toString().getBytes(StandardCharsets.UTF_8));
+		StringBuilder buf = new StringBuilder(hash.length*2);
+		for (byte b : hash) {
+			buf.append(Character.forDigit((b>>4)&0xF, 16));
+			buf.append(Character.forDigit(b&0xF, 16));
+		}
+		return buf.toString();
+	}
+
+	protected JsonObjectBuilder serializeCode(boolean strip) {
 		JsonObjectBuilder builder =  Json.createObjectBuilder();
 		builder.add("name", name);
 		if ( superClassName!=null ) {
 			builder.add("superClassName", superClassName);
 		}
+		if ( sourceFile!=null && !strip ) {
+			builder.add("sourceFile", sourceFile);
+		}
 		JsonArrayBuilder litArray = Json.createArrayBuilder();
 		if ( stringTable!=null ) {
 			for (String literal : stringTable.toArray()) {
@@ -68,42 +122,86 @@ public class STClass extends ClassSymbol {
 		builder.add("fields", fieldArray);
 		JsonArrayBuilder methodArray = Json.createArrayBuilder();
 		for(MethodSymbol m : getDefinedMethods()) {
-			methodArray.add(((STMethod) m).compiledBlock.serialize());
+			methodArray.add(((STMethod) m).compiledBlock.serialize(strip));
 		}
 		builder.add("methods", methodArray);
-		return builder.build();
+		return builder;
 	}
 
-	public String toTestString() { return getAsString(); }
+	/** Return the debug info for a class compiled with -dbg: source file
+	 *  and, per method and block, line table, local names, and source span.
+	 *  STC writes this to a .stdbg file next to the .sto file; the VM
+	 *  reads it only when it needs to map code back to source. Methods
+	 *  appear in the same order as in {@link #serialize()}. It has the
+	 *  same {@link #getCodeHash()} as the .sto file.
+	 */
+	public JsonObject serializeDebug() {
+		JsonObjectBuilder builder =  Json.createObjectBuilder();
+		builder.add("name", name);
+		builder.add("codeHash", getCodeHash());
+		if ( sourceFile!=null ) {
+			builder.add("sourceFile", sourceFile);
+		}
+		JsonArrayBuilder methodArray = Json.createArrayBuilder();
+		for(MethodSymbol m : getDefinedMethods()) {
+			methodArray.add(((STMethod) m).compiledBlock.serializeDebug());
+		}
+		builder.add("methods", methodArray);
+		return builder.build();
+	}
 
-	public String getAsString() {
-		ST template = new ST(
-			"name: <name>\n" +
-			"superClass: <superClassName>\n" +
-			"fields: <fields; separator={,}>\n" +
-			"literals: <literals:{s|'<s>'}; separator={,}>\n"+
-			"methods:\n" +
-			"    <methods; separator={<\\n>}>"
-		);
-		template.impl.nativeGroup.setListener(STCompiledBlock.templateErrorListener);
-		template.add("name", name);
-		if ( !superClassName.equals("Object") ) {
-			template.add("superClassName", superClassName);
-		}
-		else {
-			template.add("superClassName", null);
-		}
-		List<String> fields = new ArrayList<>();
+	/** Return just what another compile needs to subclass or send to this
+	 *  class without its source: name, superclass, fields in order, and
+	 *  the selector and number of arguments of each method. STC writes
+	 *  this to a .sti file; {@link STSymbolTable#preloadInterface} reads it.
+	 */
+	public JsonObject serializeInterface() {
+		JsonObjectBuilder builder =  Json.createObjectBuilder();
+		builder.add("name", name);
+		if ( superClassName!=null ) {
+			builder.add("superClassName", superClassName);
+		}
+		JsonArrayBuilder fieldArray = Json.createArrayBuilder();
 		for (FieldSymbol f : getDefinedFields()) {
-			fields.add(f.getName());
+			fieldArray.add(f.getName());
 		}
-		template.add("fields", fields);
-		List<String> methods = new ArrayList<>();
-		for(MethodSymbol m : getDefinedMethods()) {
-			methods.add(((STMethod) m).compiledBlock.toTestString());
+		builder.add("fields", fieldArray);
+		JsonArrayBuilder methodArray = Json.createArrayBuilder();
+		for (MethodSymbol m : getDefinedMethods()) {
+			STMethod stm = (STMethod)m;
+			JsonObjectBuilder mb = Json.createObjectBuilder();
+			mb.add("name", stm.getName());
+			mb.add("nargs", stm.nargs());
+			if ( stm.isClassMethod ) {
+				mb.add("isClassMethod", true);
+			}
+			methodArray.add(mb);
 		}
-		template.add("literals", stringTable.toArray());
-		template.add("methods", methods);
-		return template.render();
+		builder.add("methods", methodArray);
+		return builder.build();
+	}
+
+	/** Create a class from the JSON produced by {@link #serializeInterface()} */
+	public static STClass fromInterface(JsonObject json) {
+		STClass cl = new STClass(json.getString("name"), json.getString("superClassName", null));
+		cl.fromInterface = true;
+		for (JsonString f : json.getJsonArray("fields").getValuesAs(JsonString.class)) {
+			cl.define(new STField(f.getString()));
+		}
+		for (JsonObject m : json.getJsonArray("methods").getValuesAs(JsonObject.class)) {
+			STMethod method = new STMethod(m.getString("name"), null);
+			method.isClassMethod = m.getBoolean("isClassMethod", false);
+			cl.define(method);
+			for (int i=0; i<m.getInt("nargs"); i++) {
+				method.define(new STArg("arg"+i));
+			}
+		}
+		return cl;
+	}
+
+	public String toTestString() { return getAsString(); }
+
+	public String getAsString() {
+		return Disassembler.toString(this);
 	}
 }
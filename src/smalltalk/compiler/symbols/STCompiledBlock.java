@@ -1,10 +1,6 @@
 package smalltalk.compiler.symbols;
 
-import org.antlr.symtab.Utils;
-import org.stringtemplate.v4.ST;
-import org.stringtemplate.v4.misc.ErrorBuffer;
-import org.stringtemplate.v4.misc.STMessage;
-import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.Disassembler;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -31,30 +27,6 @@ import javax.json.JsonObjectBuilder;
  *  During VM execution, they are stored in STMetaClassObject's literals field.
  */
 public class STCompiledBlock {
-	// Used to trap stringtemplate errors (e.g., can set breakpoint in these methods).
-	public static final ErrorBuffer templateErrorListener = new ErrorBuffer() {
-		@Override
-		public void compileTimeError(STMessage stMessage) {
-			super.compileTimeError(stMessage);
-		}
-
-		@Override
-		public void runTimeError(STMessage stMessage) {
-			super.runTimeError(stMessage);
-		}
-	};
-
-	public static final String testStringTemplate =
-		"name: <if(isClassMethod)>static <endif><name>\n" +
-		"qualifiedName: <qualifiedName>\n" +
-		"nargs: <nargs>\n" +
-		"nlocals: <nlocals>\n"+
-		"<assembly>"+
-		"<if(blocks)>" +
-		"blocks:\n"+
-		"    <blocks; separator={<\\n>}>" +
-		"<endif>";
-
 	/** This method or block is part of which class? */
 	public final STClass enclosingClass;
 
@@ -67,6 +39,26 @@ public class STCompiledBlock {
 	/** The byte code instructions for this specific block, if not primitive. */
 	public byte[] bytecode;
 
+	/** Source locations of the instructions in {@link #bytecode} encoded
+	 *  by {@link LineTable#encode}, or null if not compiled with -dbg.
+	 *  The file is {@link STClass#sourceFile}.
+	 */
+	public byte[] lineTable;
+
+	/** With -dbg, the names of the arguments then locals by local index */
+	public String[] localNames;
+
+	/** With -dbg, where this method or block is in the source file: start
+	 *  line, char position in line, then the same for its last char.
+	 */
+	public int[] sourceSpan;
+
+	/** The most operands this block's code has on the stack at once, as
+	 *  tracked by the code generator; a context for this block needs a
+	 *  stack of exactly this size.
+	 */
+	public int maxStack;
+
 	/** If this is a compiled method, not just a block, this is the list
 	 *  of all nested blocks within the method. The BLOCK instruction refers to
 	 *  them by unique integer and finds them by indexing into this array.
@@ -90,6 +82,25 @@ public class STCompiledBlock {
 	/** True if method was defined as a class method in Smalltalk code */
 	public final boolean isClassMethod;
 
+	/** Escape info for [...] blocks computed by the code generator; see
+	 *  {@link STBlock#isClean()}. Always false for methods.
+	 */
+	public final boolean refsOuterLocals;
+	public final boolean refsSelf;
+	public final boolean hasNonLocalReturn;
+
+	/** For [...] blocks, the qualified name of the method that lexically
+	 *  contains the block; a ^expr in the block returns from that method.
+	 *  Null for methods.
+	 */
+	public final String homeMethod;
+
+	/** For [...] blocks, how many scopes out the home method is: 1 for a block
+	 *  directly within a method, 2 for a block within that block, etc.
+	 *  0 for methods.
+	 */
+	public final int homeDepth;
+
 	public STCompiledBlock(STClass enclosingClass, STBlock blk) {
 		this.enclosingClass = enclosingClass;
 		this.name = blk.getName();
@@ -103,6 +114,16 @@ public class STCompiledBlock {
 			primitiveName = null;
 		}
 		isClassMethod = blk instanceof STMethod && ((STMethod) blk).isClassMethod;
+		refsOuterLocals = blk.refsOuterLocals;
+		refsSelf = blk.refsSelf;
+		hasNonLocalReturn = blk.hasNonLocalReturn;
+		STMethod home = blk.getHomeMethod();
+		homeMethod = home!=blk ? home.getQualifiedName(">>") : null;
+		homeDepth = blk.getHomeDepth();
+	}
+
+	public boolean isClean() {
+		return !refsOuterLocals && !refsSelf && !hasNonLocalReturn;
 	}
 
 	public String toTestString() { return getAsString(); }
@@ -112,6 +133,13 @@ public class STCompiledBlock {
 	 *  The VM loads such JSON to execute code.
 	 */
 	public JsonObject serialize() {
+		return serialize(false);
+	}
+
+	/** Serialize as {@link #serialize()} but, if strip, leave out the line
+	 *  table; it's then only in the {@link #serializeDebug()} sidecar.
+	 */
+	public JsonObject serialize(boolean strip) {
 		JsonObjectBuilder builder = Json.createObjectBuilder();
 		builder.add("name", name);
 		builder.add("isClassMethod", isClassMethod);
@@ -121,6 +149,14 @@ public class STCompiledBlock {
 		}
 		builder.add("nargs", nargs);
 		builder.add("nlocals", nlocals);
+		builder.add("maxStack", maxStack);
+		builder.add("refsOuterLocals", refsOuterLocals);
+		builder.add("refsSelf", refsSelf);
+		builder.add("hasNonLocalReturn", hasNonLocalReturn);
+		if ( homeMethod!=null ) {
+			builder.add("homeMethod", homeMethod);
+			builder.add("homeDepth", homeDepth);
+		}
 		JsonArrayBuilder codeArray = Json.createArrayBuilder();
 		if ( bytecode!=null ) {
 			for (byte b : bytecode) {
@@ -128,29 +164,63 @@ public class STCompiledBlock {
 			}
 		}
 		builder.add("bytecode", codeArray);
+		if ( lineTable!=null && !strip ) {
+			builder.add("lineTable", toJSON(lineTable));
+		}
+		JsonArrayBuilder blockArray = Json.createArrayBuilder();
+		if ( blocks!=null ) {
+			for (STCompiledBlock block : blocks) {
+				blockArray.add(block.serialize(strip));
+			}
+		}
+		builder.add("blocks", blockArray);
+		return builder.build();
+	}
+
+	/** Return the debug info for this block and its nested blocks, which
+	 *  {@link STClass#serializeDebug()} writes to a sidecar file. Blocks
+	 *  appear in the same order as in {@link #serialize()}.
+	 */
+	public JsonObject serializeDebug() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		builder.add("qualifiedName", qualifiedName);
+		if ( lineTable!=null ) {
+			builder.add("lineTable", toJSON(lineTable));
+		}
+		if ( localNames!=null ) {
+			JsonArrayBuilder namesArray = Json.createArrayBuilder();
+			for (String local : localNames) {
+				namesArray.add(local);
+			}
+			builder.add("locals", namesArray);
+		}
+		if ( sourceSpan!=null ) {
+			JsonArrayBuilder spanArray = Json.createArrayBuilder();
+			for (int i : sourceSpan) {
+				spanArray.add(i);
+			}
+			builder.add("span", spanArray);
+		}
 		JsonArrayBuilder blockArray = Json.createArrayBuilder();
 		if ( blocks!=null ) {
 			for (STCompiledBlock block : blocks) {
-				blockArray.add(block.serialize());
+				blockArray.add(block.serializeDebug());
 			}
 		}
 		builder.add("blocks", blockArray);
 		return builder.build();
 	}
 
+	protected static JsonArrayBuilder toJSON(byte[] bytes) {
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (byte b : bytes) {
+			array.add(b);
+		}
+		return array;
+	}
+
 	public String getAsString() {
-		ST template = new ST(testStringTemplate);
-		template.impl.nativeGroup.setListener(templateErrorListener);
-		template.add("name", name);
-		template.add("isClassMethod", isClassMethod);
-		template.add("qualifiedName", qualifiedName);
-		template.add("nargs", nargs);
-		template.add("nlocals", nlocals);
-		template.add("bytecode", bytecode);
-		template.add("assembly", Bytecode.disassemble(this.name, this.bytecode, enclosingClass.stringTable.toArray(), 0));
-		template.add("nblocks", blocks!=null ? blocks.length : 0);
-        template.add("blocks", Utils.map(blocks, STCompiledBlock::toTestString));
-		return template.render();
+		return Disassembler.toString(this);
 	}
 
 	@Override
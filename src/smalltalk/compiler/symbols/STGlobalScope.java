@@ -0,0 +1,166 @@
+package smalltalk.compiler.symbols;
+
+import org.antlr.symtab.GlobalScope;
+import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A global scope that many compilers can define and resolve classes in at
+ *  once, such as when compiling the files of a build in parallel or in a
+ *  long-lived compile server.
+ *
+ *  Each definition comes from a compilation unit, a number the caller
+ *  assigns to each file; see {@link smalltalk.compiler.Compiler#unit}.
+ *  Symbols are ordered by unit and then by definition order within the
+ *  unit, so {@link #getSymbols()} returns the same list no matter how the
+ *  threads interleave. If two units define the same name, the lower unit
+ *  wins even if it defines the name second; the loser is recorded in
+ *  {@link #getRedefinitions()} so the caller can report it once all units
+ *  are defined. A name defined twice in the same unit is rejected right
+ *  away, just as a plain GlobalScope would.
+ */
+public class STGlobalScope extends GlobalScope {
+	public enum DefineResult { DEFINED, DUPLICATE_IN_UNIT, REDEFINED_IN_OTHER_UNIT }
+
+	public static class Definition {
+		public final Symbol sym;
+		public final int unit;
+		public final long seq;
+
+		public Definition(Symbol sym, int unit, long seq) {
+			this.sym = sym;
+			this.unit = unit;
+			this.seq = seq;
+		}
+	}
+
+	protected static final Comparator<Definition> definitionOrder =
+		Comparator.<Definition>comparingInt(d -> d.unit).thenComparingLong(d -> d.seq);
+
+	protected final Map<String,Definition> definitions = new ConcurrentHashMap<>();
+
+	/** Definitions that lost to a lower unit, in whatever order they lost */
+	protected final ConcurrentLinkedQueue<Definition> redefinitions = new ConcurrentLinkedQueue<>();
+
+	protected final AtomicLong nextSeq = new AtomicLong();
+
+	public STGlobalScope() {
+		super(null);
+		symbols = null; // BaseScope's map is replaced by definitions
+	}
+
+	/** Define sym in unit 0; throw IllegalArgumentException if it exists */
+	@Override
+	public void define(Symbol sym) throws IllegalArgumentException {
+		if ( define(sym, 0)!=DefineResult.DEFINED ) {
+			throw new IllegalArgumentException("duplicate symbol "+sym.getName());
+		}
+	}
+
+	/** Atomically define sym on behalf of unit, replacing a definition from a
+	 *  higher unit if there is one.
+	 */
+	public DefineResult define(Symbol sym, int unit) {
+		Definition mine = new Definition(sym, unit, nextSeq.getAndIncrement());
+		Definition[] loser = new Definition[1];
+		Definition winner = definitions.compute(sym.getName(), (name, old) -> {
+			loser[0] = null;
+			if ( old==null ) return mine;
+			if ( old.unit==unit ) return old; // duplicate; nobody loses
+			if ( unit<old.unit ) {
+				loser[0] = old;
+				return mine;
+			}
+			loser[0] = mine;
+			return old;
+		});
+		if ( loser[0]!=null ) {
+			redefinitions.add(loser[0]);
+		}
+		if ( winner==mine ) {
+			sym.setScope(this);
+			sym.setInsertionOrderNumber((int)mine.seq);
+			return DefineResult.DEFINED;
+		}
+		return loser[0]==mine ? DefineResult.REDEFINED_IN_OTHER_UNIT : DefineResult.DUPLICATE_IN_UNIT;
+	}
+
+	/** Definitions that lost to a lower unit, ordered by unit and then by
+	 *  definition order. Only stable once all units are defined.
+	 */
+	public List<Definition> getRedefinitions() {
+		List<Definition> defs = new ArrayList<>(redefinitions);
+		defs.sort(definitionOrder);
+		return defs;
+	}
+
+	@Override
+	public Symbol getSymbol(String name) {
+		Definition d = definitions.get(name);
+		return d!=null ? d.sym : null;
+	}
+
+	@Override
+	public Symbol resolve(String name) {
+		return getSymbol(name); // no enclosing scope
+	}
+
+	@Override
+	public List<? extends Symbol> getSymbols() {
+		List<Definition> defs = new ArrayList<>(definitions.values());
+		defs.sort(definitionOrder);
+		List<Symbol> syms = new ArrayList<>(defs.size());
+		for (Definition d : defs) syms.add(d.sym);
+		return syms;
+	}
+
+	@Override
+	public List<? extends Symbol> getAllSymbols() {
+		List<? extends Symbol> syms = getSymbols();
+		List<Symbol> all = new ArrayList<>(syms);
+		for (Symbol s : syms) {
+			if ( s instanceof Scope ) {
+				all.addAll(((Scope)s).getAllSymbols());
+			}
+		}
+		return all;
+	}
+
+	@Override
+	public Map<String, ? extends Symbol> getMembers() {
+		Map<String,Symbol> members = new LinkedHashMap<>();
+		for (Symbol s : getSymbols()) {
+			members.put(s.getName(), s);
+		}
+		return members;
+	}
+
+	@Override
+	public Set<String> getSymbolNames() {
+		return getMembers().keySet();
+	}
+
+	@Override
+	public int getNumberOfSymbols() {
+		return definitions.size();
+	}
+
+	@Override
+	public synchronized void nest(Scope scope) throws IllegalArgumentException {
+		super.nest(scope);
+	}
+
+	@Override
+	public String toString() {
+		return getSymbolNames().toString();
+	}
+}
@@ -1,11 +1,85 @@
 package smalltalk.compiler.symbols;
 
-import org.antlr.symtab.GlobalScope;
+import org.antlr.symtab.DataAggregateSymbol;
+import org.antlr.symtab.FunctionSymbol;
+import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class STSymbolTable {
-	public final GlobalScope GLOBALS;
+	/** Safe to share among compilers running in parallel */
+	public final STGlobalScope GLOBALS;
 
 	public STSymbolTable() {
-		this.GLOBALS = new GlobalScope(null);
+		this.GLOBALS = new STGlobalScope();
+	}
+
+	/** Define the class described by an interface file's JSON, as if we had
+	 *  compiled its source; throw IllegalArgumentException if it's already
+	 *  defined. See {@link STClass#serializeInterface()}.
+	 */
+	public STClass preloadInterface(JsonObject json) {
+		STClass cl = STClass.fromInterface(json);
+		GLOBALS.define(cl);
+		return cl;
+	}
+
+	public STClass preloadInterface(Path stiFile) throws IOException {
+		try (Reader r = Files.newBufferedReader(stiFile, StandardCharsets.UTF_8);
+			 JsonReader json = Json.createReader(r))
+		{
+			return preloadInterface(json.readObject());
+		}
+	}
+
+	/** Preload all .sti files in dir, in file name order */
+	public List<STClass> preloadInterfaces(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stiFiles = Files.newDirectoryStream(dir, "*.sti")) {
+			stiFiles.forEach(files::add);
+		}
+		Collections.sort(files);
+		List<STClass> classes = new ArrayList<>();
+		for (Path f : files) {
+			classes.add(preloadInterface(f));
+		}
+		return classes;
+	}
+
+	/** Classes, methods, and blocks point at the parse tree node that
+	 *  defined them. Clear all of those pointers so the trees can be
+	 *  garbage collected; see {@link smalltalk.compiler.Compiler#releaseParseState}.
+	 */
+	public void releaseDefNodes() {
+		releaseDefNodes(GLOBALS);
+	}
+
+	/** Release the def nodes of scope's symbols, recursively, but not of
+	 *  scope itself.
+	 */
+	public static void releaseDefNodes(Scope scope) {
+		for (Symbol s : scope.getSymbols()) {
+			if ( s instanceof FunctionSymbol ) {
+				((FunctionSymbol)s).setDefNode(null);
+			}
+			else if ( s instanceof DataAggregateSymbol ) {
+				((DataAggregateSymbol)s).setDefNode(null);
+			}
+			if ( s instanceof Scope ) {
+				releaseDefNodes((Scope)s);
+			}
+		}
 	}
 }
@@ -0,0 +1,84 @@
+package smalltalk.vm;
+
+/** An activation record for a method or block. Contexts form two chains:
+ *  the dynamic chain through {@link #caller} and the lexical chain through
+ *  {@link #enclosingContext}. Every context also points directly at its
+ *  {@link #homeContext}, the context of the method that lexically contains
+ *  it; a method context is its own home.
+ *
+ *  The {@link #returned} flag is the frame marker used to implement ^expr
+ *  inside blocks without Java exceptions. When a context finishes, normally
+ *  or because a non-local return unwound through it, the flag is set.
+ *  A ^expr in a block then simply transfers control to homeContext.caller,
+ *  after checking that the home context is still live.
+ */
+public class BlockContext {
+	public final VMCompiledBlock compiledBlock;
+
+	/** Who invoked us? Null for the outermost context started by the VM. */
+	public final BlockContext caller;
+
+	/** The context in which our block was created; null for methods. */
+	public final BlockContext enclosingContext;
+
+	/** The context of the method that lexically contains us. */
+	public final BlockContext homeContext;
+
+	public final Object receiver;
+
+	public final Object[] locals;
+
+	/** Exactly {@link VMCompiledBlock#maxStack} slots; never grows */
+	public final Object[] stack;
+
+	/** Index of top of operand stack; -1 when empty */
+	public int sp = -1;
+
+	/** Index of next instruction to execute in compiledBlock.bytecode */
+	public int ip = 0;
+
+	/** Set once this context can no longer be returned into */
+	public boolean returned;
+
+	/** Create a method context */
+	public BlockContext(VMCompiledBlock method, BlockContext caller, Object receiver) {
+		this.compiledBlock = method;
+		this.caller = caller;
+		this.enclosingContext = null;
+		this.homeContext = this;
+		this.receiver = receiver;
+		this.locals = new Object[method.nargs+method.nlocals];
+		this.stack = new Object[compiledBlock.maxStack];
+	}
+
+	/** Create a context to evaluate a block */
+	public BlockContext(BlockDescriptor blk, BlockContext caller) {
+		this.compiledBlock = blk.blockFunction;
+		this.caller = caller;
+		this.enclosingContext = blk.enclosingContext;
+		this.homeContext = blk.enclosingContext.homeContext;
+		this.receiver = homeContext.receiver;
+		this.locals = new Object[compiledBlock.nargs+compiledBlock.nlocals];
+		this.stack = new Object[compiledBlock.maxStack];
+	}
+
+	public boolean isBlockContext() { return enclosingContext!=null; }
+
+	/** The loader verified that code never pushes past maxStack */
+	public void push(Object o) {
+		stack[++sp] = o;
+	}
+
+	public Object pop() {
+		Object o = stack[sp];
+		stack[sp--] = null;
+		return o;
+	}
+
+	public Object top() { return stack[sp]; }
+
+	@Override
+	public String toString() {
+		return compiledBlock.qualifiedName+"@"+ip;
+	}
+}
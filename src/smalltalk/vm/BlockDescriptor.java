@@ -0,0 +1,26 @@
+package smalltalk.vm;
+
+/** A block value created by the BLOCK instruction. It pairs the compiled
+ *  code with the context that was active when the block was created so
+ *  the block can reach outer locals, self, and its home method.
+ */
+public class BlockDescriptor {
+	public final VMCompiledBlock blockFunction;
+
+	/** The context in which this block was created; it's the lexically
+	 *  enclosing context when the block is evaluated.
+	 */
+	public final BlockContext enclosingContext;
+
+	public BlockDescriptor(VMCompiledBlock blockFunction, BlockContext enclosingContext) {
+		this.blockFunction = blockFunction;
+		this.enclosingContext = enclosingContext;
+	}
+
+	public int numArgs() { return blockFunction.nargs; }
+
+	@Override
+	public String toString() {
+		return "a BlockDescriptor("+blockFunction.qualifiedName+")";
+	}
+}
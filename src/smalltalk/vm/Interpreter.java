@@ -0,0 +1,285 @@
+package smalltalk.vm;
+
+import org.antlr.symtab.Symbol;
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import static smalltalk.compiler.Bytecode.getInt;
+import static smalltalk.compiler.Bytecode.getShort;
+
+/** A small bytecode interpreter that executes classes loaded by
+ *  {@link STOLoader}. It exists to exercise the instruction set and, in
+ *  particular, non-local returns. Because the loader rewrote all literal
+ *  operands to {@link SelectorTable} IDs, sends look up methods by int
+ *  in each class's {@link MethodTable}.
+ *
+ *  All sends, including block evaluation, push a new {@link BlockContext}
+ *  and continue in the same loop rather than recursing on the Java stack.
+ *  A ^expr inside a block therefore unwinds by marking the contexts between
+ *  the block and its home method as returned and resuming the home's
+ *  caller. No Java exception is thrown, so a deep non-local return costs
+ *  about the same as returning normally through the same frames.
+ *
+ *  Primitive methods call their {@link Primitive}, bound at load time.
+ *  Messages not implemented in Smalltalk code, such as arithmetic on
+ *  integers or evaluating blocks, fall back on primitives as well;
+ *  see {@link #sendBuiltin}.
+ */
+public class Interpreter {
+	public final STOLoader loader;
+
+	public final SelectorTable selectors;
+
+	public Interpreter(STOLoader loader) {
+		this.loader = loader;
+		this.selectors = loader.selectors;
+	}
+
+	/** Load the classes of a freshly compiled symbol table just as if they
+	 *  had been written to and read back from .sto files. Classes preloaded
+	 *  from interface files have no code; load their .sto files separately.
+	 */
+	public Interpreter(STSymbolTable symtab) {
+		this(new STOLoader());
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( s instanceof STClass && !((STClass)s).fromInterface ) {
+				loader.load(((STClass)s).serialize());
+			}
+		}
+	}
+
+	/** Execute MainClass>>main and return its value, which is always self */
+	public Object runMain() {
+		STMetaClassObject mainClass = loader.classes.get("MainClass");
+		if ( mainClass==null ) return null;
+		return send(new STObject(mainClass), "main");
+	}
+
+	public STObject newInstance(String className) {
+		STMetaClassObject cl = loader.classes.get(className);
+		if ( cl==null ) {
+			throw new VMException("unknown class "+className);
+		}
+		return new STObject(cl);
+	}
+
+	/** Send a message from Java and run until it returns */
+	public Object send(Object receiver, String selector, Object... args) {
+		int id = selectors.lookup(selector);
+		VMCompiledBlock method = id>=0 ? lookupMethod(receiver, id) : null;
+		if ( method==null || method.primitiveName!=null ) {
+			throw new VMException(receiver+" doesNotUnderstand: #"+selector);
+		}
+		BlockContext ctx = new BlockContext(method, null, receiver);
+		System.arraycopy(args, 0, ctx.locals, 0, args.length);
+		return execute(ctx);
+	}
+
+	/** Run ctx and everything it calls until ctx returns or a ^expr
+	 *  unwinds past it; return the value returned.
+	 */
+	public Object execute(BlockContext ctx) {
+		while ( true ) {
+			byte[] code = ctx.compiledBlock.bytecode;
+			int op = code[ctx.ip++];
+			switch ( op ) {
+				case Bytecode.NIL :
+					ctx.push(null);
+					break;
+				case Bytecode.SELF :
+					ctx.push(ctx.receiver);
+					break;
+				case Bytecode.TRUE :
+					ctx.push(true);
+					break;
+				case Bytecode.FALSE :
+					ctx.push(false);
+					break;
+				case Bytecode.PUSH_CHAR :
+					ctx.push((char)getShort(code, ctx.ip));
+					ctx.ip += 2;
+					break;
+				case Bytecode.PUSH_INT :
+					ctx.push(getInt(code, ctx.ip));
+					ctx.ip += 4;
+					break;
+				case Bytecode.PUSH_FLOAT :
+					ctx.push(Float.intBitsToFloat(getInt(code, ctx.ip)));
+					ctx.ip += 4;
+					break;
+				case Bytecode.PUSH_FIELD :
+					ctx.push(((STObject)ctx.receiver).fields[getShort(code, ctx.ip)]);
+					ctx.ip += 2;
+					break;
+				case Bytecode.PUSH_LOCAL : {
+					BlockContext target = lexicalContext(ctx, getShort(code, ctx.ip));
+					ctx.push(target.locals[getShort(code, ctx.ip+2)]);
+					ctx.ip += 4;
+					break;
+				}
+				case Bytecode.PUSH_LITERAL :
+					ctx.push(literal(getShort(code, ctx.ip)));
+					ctx.ip += 2;
+					break;
+				case Bytecode.PUSH_GLOBAL :
+					ctx.push(global(literal(getShort(code, ctx.ip))));
+					ctx.ip += 2;
+					break;
+				case Bytecode.STORE_FIELD :
+					((STObject)ctx.receiver).fields[getShort(code, ctx.ip)] = ctx.top();
+					ctx.ip += 2;
+					break;
+				case Bytecode.STORE_LOCAL : {
+					BlockContext target = lexicalContext(ctx, getShort(code, ctx.ip));
+					target.locals[getShort(code, ctx.ip+2)] = ctx.top();
+					ctx.ip += 4;
+					break;
+				}
+				case Bytecode.POP :
+					ctx.pop();
+					break;
+				case Bytecode.SEND :
+				case Bytecode.SEND_SUPER : {
+					int nargs = getShort(code, ctx.ip);
+					int selector = getShort(code, ctx.ip+2);
+					ctx.ip += 4;
+					Object[] args = new Object[nargs];
+					for (int i=nargs-1; i>=0; i--) args[i] = ctx.pop();
+					Object receiver = ctx.pop();
+					ctx = send(ctx, receiver, selector, args, op==Bytecode.SEND_SUPER);
+					break;
+				}
+				case Bytecode.BLOCK : {
+					VMCompiledBlock method = ctx.homeContext.compiledBlock;
+					ctx.push(new BlockDescriptor(method.blocks[getShort(code, ctx.ip)], ctx));
+					ctx.ip += 2;
+					break;
+				}
+				case Bytecode.BLOCK_RETURN : {
+					Object result = ctx.pop();
+					ctx.returned = true;
+					if ( ctx.caller==null ) return result;
+					ctx = ctx.caller;
+					ctx.push(result);
+					break;
+				}
+				case Bytecode.RETURN : {
+					Object result = ctx.pop();
+					BlockContext home = ctx.homeContext;
+					if ( home.returned ) {
+						throw new VMException(ctx.compiledBlock.getSourceLocation(ctx.ip-1)+
+											  " cannotReturn: "+result);
+					}
+					// Mark every context between here and home, including
+					// home, as dead. For a method return, this is just ctx.
+					for (BlockContext c = ctx; c!=home; c = c.caller) {
+						c.returned = true;
+					}
+					home.returned = true;
+					if ( home.caller==null ) return result;
+					ctx = home.caller;
+					ctx.push(result);
+					break;
+				}
+				case Bytecode.DBG :
+					ctx.ip += 6;
+					break;
+				default :
+					throw new VMException("invalid bytecode "+op+" at "+(ctx.ip-1)+
+										  " in "+ctx.compiledBlock.qualifiedName);
+			}
+		}
+	}
+
+	/** Send selector to receiver, returning the context that should execute next */
+	protected BlockContext send(BlockContext ctx, Object receiver, int selector,
+	                            Object[] args, boolean toSuper)
+	{
+		VMCompiledBlock method;
+		if ( toSuper ) {
+			VMCompiledBlock home = ctx.homeContext.compiledBlock;
+			STMetaClassObject superClass = home.enclosingClass.superClass;
+			if ( superClass==null ) {
+				method = null;
+			}
+			else if ( home.isClassMethod ) {
+				method = superClass.resolveClassMethod(selector);
+			}
+			else {
+				method = superClass.resolveMethod(selector);
+			}
+		}
+		else {
+			method = lookupMethod(receiver, selector);
+		}
+		if ( method==null ) {
+			return sendBuiltin(ctx, receiver, selectors.get(selector), args);
+		}
+		if ( method.primitive!=null ) {
+			return method.primitive.perform(this, ctx, receiver, args);
+		}
+		BlockContext callee = new BlockContext(method, ctx, receiver);
+		System.arraycopy(args, 0, callee.locals, 0, args.length);
+		return callee;
+	}
+
+	public VMCompiledBlock lookupMethod(Object receiver, int selector) {
+		if ( receiver instanceof STObject ) {
+			return ((STObject)receiver).metaclass.resolveMethod(selector);
+		}
+		if ( receiver instanceof STMetaClassObject ) {
+			return ((STMetaClassObject)receiver).resolveClassMethod(selector);
+		}
+		return null;
+	}
+
+	/** Messages with no Smalltalk method, such as 3+4 or [...] value,
+	 *  are implemented by primitives; see {@link Primitive#forMessage}.
+	 */
+	protected BlockContext sendBuiltin(BlockContext ctx, Object receiver, String selector, Object[] args) {
+		Primitive p = Primitive.forMessage(receiver, selector);
+		if ( p==null || p.nargs!=args.length ) {
+			throw new VMException(receiver+" doesNotUnderstand: #"+selector);
+		}
+		return p.perform(this, ctx, receiver, args);
+	}
+
+	protected BlockContext evalBlock(BlockContext ctx, Object blk) {
+		if ( !(blk instanceof BlockDescriptor) ) { // e.g., x ifTrue: 3
+			ctx.push(blk);
+			return ctx;
+		}
+		return invokeBlock(ctx, (BlockDescriptor)blk, new Object[0]);
+	}
+
+	protected BlockContext invokeBlock(BlockContext ctx, BlockDescriptor blk, Object[] args) {
+		if ( blk.numArgs()!=args.length ) {
+			throw new VMException(blk+" wrong number of arguments: "+args.length);
+		}
+		BlockContext callee = new BlockContext(blk, ctx);
+		System.arraycopy(args, 0, callee.locals, 0, args.length);
+		return callee;
+	}
+
+	protected static BlockContext lexicalContext(BlockContext ctx, int delta) {
+		while ( delta>0 ) {
+			ctx = ctx.enclosingContext;
+			delta--;
+		}
+		return ctx;
+	}
+
+	/** Literal operands are global IDs; see {@link STOLoader#rewriteLiterals} */
+	protected String literal(int id) {
+		return selectors.get(id);
+	}
+
+	protected Object global(String name) {
+		STMetaClassObject cl = loader.classes.get(name);
+		if ( cl==null ) {
+			throw new VMException("unknown global "+name);
+		}
+		return cl;
+	}
+}
@@ -0,0 +1,63 @@
+package smalltalk.vm;
+
+import java.util.Arrays;
+
+/** A method dictionary mapping selector IDs from {@link SelectorTable} to
+ *  compiled methods. Keys and values live in two parallel flat arrays
+ *  searched with linear probing, so a lookup touches one or two adjacent
+ *  ints rather than chasing hash map entries and comparing Strings.
+ *
+ *  The table is built once when a class is loaded and never changes. Its
+ *  capacity is the smallest power of two at least twice the number of
+ *  methods, which keeps the load factor at or under 1/2.
+ */
+public class MethodTable {
+	public static final int EMPTY = -1;
+
+	protected final int[] keys;
+	protected final VMCompiledBlock[] values;
+	protected final int mask;
+	protected int size = 0;
+
+	public MethodTable(int numMethods) {
+		int capacity = Integer.highestOneBit(Math.max(numMethods, 1) * 2 - 1) << 1;
+		keys = new int[capacity];
+		values = new VMCompiledBlock[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/** Return the method for selectorID or null if not in this table */
+	public VMCompiledBlock get(int selectorID) {
+		int i = hash(selectorID) & mask;
+		while ( true ) {
+			int k = keys[i];
+			if ( k==selectorID ) return values[i];
+			if ( k==EMPTY ) return null;
+			i = (i + 1) & mask;
+		}
+	}
+
+	public void put(int selectorID, VMCompiledBlock method) {
+		if ( size*2 >= keys.length ) {
+			throw new IllegalStateException("method table full");
+		}
+		int i = hash(selectorID) & mask;
+		while ( keys[i]!=EMPTY && keys[i]!=selectorID ) {
+			i = (i + 1) & mask;
+		}
+		if ( keys[i]==EMPTY ) size++;
+		keys[i] = selectorID;
+		values[i] = method;
+	}
+
+	public int size() { return size; }
+
+	public int capacity() { return keys.length; }
+
+	/** IDs are dense so spread them with a Fibonacci multiply */
+	static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
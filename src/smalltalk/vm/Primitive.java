@@ -0,0 +1,256 @@
+package smalltalk.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** The registry of primitives known to the VM. A method declared as
+ *  foo <primitive:#Class_NAME> names one of these constants; the constant's
+ *  ordinal is its primitive number. {@link STOLoader} binds each primitive
+ *  method to its Primitive when the class is loaded, so invoking a primitive
+ *  is a direct call through {@link VMCompiledBlock#primitive} and unknown
+ *  names are reported at load time, not at first call. The compiler can
+ *  check names against the same registry; see
+ *  {@link smalltalk.compiler.Compiler#checkPrimitives}.
+ *
+ *  The interpreter also uses these to implement messages sent to integers,
+ *  floats, booleans, nil, and blocks, for which there are no classes.
+ */
+public enum Primitive {
+	Object_EQ(1, (interp, ctx, self, args) -> push(ctx, identical(self, args[0]))),
+	Object_NEQ(1, (interp, ctx, self, args) -> push(ctx, !identical(self, args[0]))),
+	Object_ISNIL(0, (interp, ctx, self, args) -> push(ctx, self==null)),
+	Object_NOTNIL(0, (interp, ctx, self, args) -> push(ctx, self!=null)),
+	Object_print(0, (interp, ctx, self, args) -> {
+		System.out.println(self);
+		return push(ctx, self);
+	}),
+	Object_Class_NEW(0, (interp, ctx, self, args) -> push(ctx, new STObject((STMetaClassObject)self))),
+
+	Boolean_NOT(0, (interp, ctx, self, args) -> push(ctx, !bool(self))),
+	Boolean_IFTRUE(1, (interp, ctx, self, args) ->
+		bool(self) ? interp.evalBlock(ctx, args[0]) : push(ctx, null)),
+	Boolean_IFFALSE(1, (interp, ctx, self, args) ->
+		!bool(self) ? interp.evalBlock(ctx, args[0]) : push(ctx, null)),
+	Boolean_IFTRUE_IFFALSE(2, (interp, ctx, self, args) ->
+		interp.evalBlock(ctx, bool(self) ? args[0] : args[1])),
+	Boolean_IFFALSE_IFTRUE(2, (interp, ctx, self, args) ->
+		interp.evalBlock(ctx, bool(self) ? args[1] : args[0])),
+
+	Integer_ADD(1,  (interp, ctx, self, args) -> push(ctx, arith('+', self, args[0]))),
+	Integer_SUB(1,  (interp, ctx, self, args) -> push(ctx, arith('-', self, args[0]))),
+	Integer_MULT(1, (interp, ctx, self, args) -> push(ctx, arith('*', self, args[0]))),
+	Integer_DIV(1,  (interp, ctx, self, args) -> push(ctx, arith('/', self, args[0]))),
+	Integer_MOD(1,  (interp, ctx, self, args) -> push(ctx, arith('%', self, args[0]))),
+	Integer_LT(1,   (interp, ctx, self, args) -> push(ctx, compare(self, args[0]) < 0)),
+	Integer_LE(1,   (interp, ctx, self, args) -> push(ctx, compare(self, args[0]) <= 0)),
+	Integer_GT(1,   (interp, ctx, self, args) -> push(ctx, compare(self, args[0]) > 0)),
+	Integer_GE(1,   (interp, ctx, self, args) -> push(ctx, compare(self, args[0]) >= 0)),
+	Integer_EQ(1,   (interp, ctx, self, args) -> push(ctx, numEquals(self, args[0]))),
+	Integer_NE(1,   (interp, ctx, self, args) -> push(ctx, !numEquals(self, args[0]))),
+	Integer_ASFLOAT(0, (interp, ctx, self, args) -> push(ctx, num(self).floatValue())),
+
+	Float_ADD(1,  Integer_ADD.handler),
+	Float_SUB(1,  Integer_SUB.handler),
+	Float_MULT(1, Integer_MULT.handler),
+	Float_DIV(1,  Integer_DIV.handler),
+	Float_LT(1,   Integer_LT.handler),
+	Float_LE(1,   Integer_LE.handler),
+	Float_GT(1,   Integer_GT.handler),
+	Float_GE(1,   Integer_GE.handler),
+	Float_EQ(1,   Integer_EQ.handler),
+	Float_NE(1,   Integer_NE.handler),
+	Float_ASINTEGER(0, (interp, ctx, self, args) -> push(ctx, (int)num(self).floatValue())),
+
+	String_CAT(1, (interp, ctx, self, args) -> push(ctx, str(self) + String.valueOf(args[0]))),
+	String_EQ(1, (interp, ctx, self, args) -> push(ctx, str(self).equals(args[0]))),
+	String_SIZE(0, (interp, ctx, self, args) -> push(ctx, str(self).length())),
+	String_ASARRAY(0, (interp, ctx, self, args) -> {
+		String s = str(self);
+		Object[] chars = new Object[s.length()];
+		for (int i=0; i<chars.length; i++) chars[i] = s.charAt(i);
+		return push(ctx, chars);
+	}),
+
+	BlockDescriptor_VALUE(0, Primitive::value),
+	BlockDescriptor_VALUE_1_ARG(1, Primitive::value),
+	BlockDescriptor_VALUE_2_ARGS(2, Primitive::value),
+	BlockDescriptor_VALUE_3_ARGS(3, Primitive::value),
+	BlockDescriptor_NUMARGS(0, (interp, ctx, self, args) -> push(ctx, ((BlockDescriptor)self).numArgs()));
+
+	/** Primitives get receiver and args already popped off ctx's stack.
+	 *  They must push a result onto ctx and return it, or return a new
+	 *  context to run, such as when evaluating a block.
+	 */
+	public interface Handler {
+		BlockContext perform(Interpreter interp, BlockContext ctx, Object receiver, Object[] args);
+	}
+
+	/** Number of arguments, not counting the receiver */
+	public final int nargs;
+
+	public final Handler handler;
+
+	Primitive(int nargs, Handler handler) {
+		this.nargs = nargs;
+		this.handler = handler;
+	}
+
+	public BlockContext perform(Interpreter interp, BlockContext ctx, Object receiver, Object[] args) {
+		return handler.perform(interp, ctx, receiver, args);
+	}
+
+	private static final Map<String,Primitive> byName = new HashMap<>();
+	static {
+		for (Primitive p : values()) byName.put(p.name(), p);
+	}
+
+	/** Return the primitive with this name or null if there is no such primitive */
+	public static Primitive lookup(String name) {
+		return byName.get(name);
+	}
+
+	/** Primitives that implement messages sent to objects without classes */
+	private static final Map<String,Primitive> booleanMessages = new HashMap<>();
+	private static final Map<String,Primitive> numberMessages = new HashMap<>();
+	private static final Map<String,Primitive> stringMessages = new HashMap<>();
+	private static final Map<String,Primitive> blockMessages = new HashMap<>();
+	private static final Map<String,Primitive> objectMessages = new HashMap<>();
+	private static final Map<String,Primitive> classMessages = new HashMap<>();
+	static {
+		objectMessages.put("==", Object_EQ);
+		objectMessages.put("~~", Object_NEQ);
+		objectMessages.put("isNil", Object_ISNIL);
+		objectMessages.put("notNil", Object_NOTNIL);
+		objectMessages.put("print", Object_print);
+
+		classMessages.put("new", Object_Class_NEW);
+		classMessages.put("basicNew", Object_Class_NEW);
+
+		booleanMessages.put("not", Boolean_NOT);
+		booleanMessages.put("ifTrue:", Boolean_IFTRUE);
+		booleanMessages.put("ifFalse:", Boolean_IFFALSE);
+		booleanMessages.put("ifTrue:ifFalse:", Boolean_IFTRUE_IFFALSE);
+		booleanMessages.put("ifFalse:ifTrue:", Boolean_IFFALSE_IFTRUE);
+
+		numberMessages.put("+", Integer_ADD);
+		numberMessages.put("-", Integer_SUB);
+		numberMessages.put("*", Integer_MULT);
+		numberMessages.put("/", Integer_DIV);
+		numberMessages.put("\\\\", Integer_MOD);
+		numberMessages.put("<", Integer_LT);
+		numberMessages.put("<=", Integer_LE);
+		numberMessages.put(">", Integer_GT);
+		numberMessages.put(">=", Integer_GE);
+		numberMessages.put("=", Integer_EQ);
+		numberMessages.put("~=", Integer_NE);
+		numberMessages.put("asFloat", Integer_ASFLOAT);
+		numberMessages.put("asInteger", Float_ASINTEGER);
+
+		stringMessages.put(",", String_CAT);
+		stringMessages.put("=", String_EQ);
+		stringMessages.put("size", String_SIZE);
+		stringMessages.put("asArray", String_ASARRAY);
+
+		blockMessages.put("value", BlockDescriptor_VALUE);
+		blockMessages.put("value:", BlockDescriptor_VALUE_1_ARG);
+		blockMessages.put("value:value:", BlockDescriptor_VALUE_2_ARGS);
+		blockMessages.put("value:value:value:", BlockDescriptor_VALUE_3_ARGS);
+		blockMessages.put("numArgs", BlockDescriptor_NUMARGS);
+	}
+
+	/** Which primitive implements selector for a receiver that has no
+	 *  method for it? Return null if none.
+	 */
+	public static Primitive forMessage(Object receiver, String selector) {
+		Primitive p = null;
+		if ( receiver instanceof Boolean ) p = booleanMessages.get(selector);
+		else if ( receiver instanceof Number ) p = numberMessages.get(selector);
+		else if ( receiver instanceof String ) p = stringMessages.get(selector);
+		else if ( receiver instanceof BlockDescriptor ) p = blockMessages.get(selector);
+		else if ( receiver instanceof STMetaClassObject ) p = classMessages.get(selector);
+		if ( p==null ) p = objectMessages.get(selector);
+		return p;
+	}
+
+	static BlockContext push(BlockContext ctx, Object result) {
+		ctx.push(result);
+		return ctx;
+	}
+
+	static BlockContext value(Interpreter interp, BlockContext ctx, Object self, Object[] args) {
+		if ( !(self instanceof BlockDescriptor) ) {
+			throw new VMException(self+" is not a block");
+		}
+		return interp.invokeBlock(ctx, (BlockDescriptor)self, args);
+	}
+
+	static boolean identical(Object a, Object b) {
+		if ( a==b ) return true;
+		if ( a instanceof Number || a instanceof Character || a instanceof Boolean ) {
+			return a.equals(b);
+		}
+		return false;
+	}
+
+	static boolean bool(Object o) {
+		if ( !(o instanceof Boolean) ) throw new VMException(o+" is not a boolean");
+		return (Boolean)o;
+	}
+
+	static Number num(Object o) {
+		if ( !(o instanceof Number) ) throw new VMException(o+" is not a number");
+		return (Number)o;
+	}
+
+	static String str(Object o) {
+		if ( !(o instanceof String) ) throw new VMException(o+" is not a string");
+		return (String)o;
+	}
+
+	/** Integer op integer is an integer; anything involving a float is a float */
+	static Object arith(char op, Object a, Object b) {
+		Number x = num(a);
+		Number y = num(b);
+		if ( x instanceof Integer && y instanceof Integer ) {
+			int i = x.intValue();
+			int j = y.intValue();
+			switch ( op ) {
+				case '+' : return i + j;
+				case '-' : return i - j;
+				case '*' : return i * j;
+				case '/' : return i / divisor(i, "/", j);
+				default  : return i % divisor(i, "\\\\", j);
+			}
+		}
+		float f = x.floatValue();
+		float g = y.floatValue();
+		switch ( op ) {
+			case '+' : return f + g;
+			case '-' : return f - g;
+			case '*' : return f * g;
+			case '/' : return f / g;
+			default  : return f % g;
+		}
+	}
+
+	/** Return j unless it's 0, which Java would throw ArithmeticException for */
+	static int divisor(int i, String op, int j) {
+		if ( j==0 ) throw new VMException("division by zero: "+i+" "+op+" "+j);
+		return j;
+	}
+
+	/** A number is never equal to a non-number */
+	static boolean numEquals(Object a, Object b) {
+		num(a);
+		return b instanceof Number && compare(a, b)==0;
+	}
+
+	static int compare(Object a, Object b) {
+		Number x = num(a);
+		Number y = num(b);
+		if ( x instanceof Integer && y instanceof Integer ) {
+			return Integer.compare(x.intValue(), y.intValue());
+		}
+		return Float.compare(x.floatValue(), y.floatValue());
+	}
+}
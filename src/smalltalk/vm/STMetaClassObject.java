@@ -0,0 +1,113 @@
+package smalltalk.vm;
+
+import java.nio.file.Path;
+
+/** The VM's representation of a class loaded from a .sto file; it
+ *  corresponds to {@link smalltalk.compiler.symbols.STClass} in the
+ *  compiler. Literal references in all bytecode of this class have been
+ *  rewritten to global {@link SelectorTable} IDs.
+ *
+ *  Methods are found by selector ID through {@link MethodTable}s, one for
+ *  instance methods and one for class methods, rather than through the
+ *  compiler's symbol table scopes.
+ */
+public class STMetaClassObject {
+	public final String name;
+
+	/** Null for Object */
+	public final String superClassName;
+
+	/** Set by {@link STOLoader} once the superclass has been loaded */
+	public STMetaClassObject superClass;
+
+	/** Fields defined in this class, not including inherited fields */
+	public final String[] fields;
+
+	/** The literals array from the .sto file, mapped to global IDs.
+	 *  literalIDs[i] is the ID of the class's ith literal.
+	 */
+	public final int[] literalIDs;
+
+	public final VMCompiledBlock[] methods;
+
+	public final MethodTable methodTable;
+
+	public final MethodTable classMethodTable;
+
+	/** File the class was compiled from if compiled with -dbg, else null */
+	public String sourceFile;
+
+	/** Hash of the class's code if compiled with -dbg, else null; debug
+	 *  info is only loaded from a sidecar with the same hash.
+	 */
+	public String codeHash;
+
+	/** Where the .stdbg debug sidecar would be if this class came from a
+	 *  .sto file; read only by {@link #loadDebugInfo}.
+	 */
+	public Path debugFile;
+
+	protected boolean debugInfoLoaded;
+
+	public STMetaClassObject(String name, String superClassName, String[] fields,
+	                         int[] literalIDs, VMCompiledBlock[] methods,
+	                         int[] selectorIDs)
+	{
+		this.name = name;
+		this.superClassName = superClassName;
+		this.fields = fields;
+		this.literalIDs = literalIDs;
+		this.methods = methods;
+		int numClassMethods = 0;
+		for (VMCompiledBlock m : methods) {
+			if ( m.isClassMethod ) numClassMethods++;
+		}
+		methodTable = new MethodTable(methods.length - numClassMethods);
+		classMethodTable = new MethodTable(numClassMethods);
+		for (int i=0; i<methods.length; i++) {
+			VMCompiledBlock m = methods[i];
+			m.enclosingClass = this;
+			for (VMCompiledBlock b : m.blocks) b.enclosingClass = this;
+			(m.isClassMethod ? classMethodTable : methodTable).put(selectorIDs[i], m);
+		}
+	}
+
+	/** Load debug info from {@link #debugFile} the first time it's
+	 *  needed, e.g., to map an instruction to its source location.
+	 */
+	public void loadDebugInfo() {
+		if ( debugInfoLoaded ) return;
+		debugInfoLoaded = true;
+		STOLoader.loadDebugInfo(this);
+	}
+
+	/** Find an instance method in this class or a superclass */
+	public VMCompiledBlock resolveMethod(int selectorID) {
+		for (STMetaClassObject c = this; c!=null; c = c.superClass) {
+			VMCompiledBlock m = c.methodTable.get(selectorID);
+			if ( m!=null ) return m;
+		}
+		return null;
+	}
+
+	/** Find a class method in this class or a superclass */
+	public VMCompiledBlock resolveClassMethod(int selectorID) {
+		for (STMetaClassObject c = this; c!=null; c = c.superClass) {
+			VMCompiledBlock m = c.classMethodTable.get(selectorID);
+			if ( m!=null ) return m;
+		}
+		return null;
+	}
+
+	/** Number of fields including inherited fields */
+	public int getNumberOfFields() {
+		int n = fields.length;
+		if ( superClass!=null ) n += superClass.getNumberOfFields();
+		return n;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,395 @@
+package smalltalk.vm;
+
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.BytecodeVerifier;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Load .sto object files written by {@link smalltalk.compiler.STC} into
+ *  {@link STMetaClassObject}s. Every literal of every class is interned
+ *  into a single {@link SelectorTable} and the LITERAL operands of all
+ *  bytecode are rewritten to the global IDs as the code is loaded.
+ *  Before that, the code of each method is checked by a
+ *  {@link BytecodeVerifier}, which also computes the max stack depths
+ *  the interpreter uses to size frames.
+ *
+ *  $ java smalltalk.vm.STOLoader dir-or-file.sto...
+ *
+ *  prints the interning memory report for the given object files.
+ */
+public class STOLoader {
+	/** Debug sidecar files, written by STC with -dbg, end with this */
+	public static final String DEBUG_SUFFIX = ".stdbg";
+
+	public final SelectorTable selectors;
+
+	/** Verify all loaded code and compute max stack depths. If false,
+	 *  trust the maxStack in the object file, if there is one; only turn
+	 *  this off for object files STC just wrote, as it verifies before
+	 *  writing. Contexts have stacks of exactly maxStack slots so wrong
+	 *  code or a wrong maxStack would overflow them.
+	 */
+	public boolean verify = true;
+
+	/** All classes loaded so far in load order */
+	public final Map<String,STMetaClassObject> classes = new LinkedHashMap<>();
+
+	/** Classes whose superclass hasn't been loaded yet, by superclass name */
+	protected final Map<String,List<STMetaClassObject>> waitingForSuperclass = new HashMap<>();
+
+	/** Sum of literals array sizes over all loaded classes */
+	protected int numLiteralRefs = 0;
+
+	/** Estimated heap for literals if each class kept its own String[] */
+	protected long perClassLiteralBytes = 0;
+
+	public STOLoader() {
+		this(new SelectorTable());
+	}
+
+	public STOLoader(SelectorTable selectors) {
+		this.selectors = selectors;
+	}
+
+	public static void main(String[] args) throws IOException {
+		STOLoader loader = new STOLoader();
+		for (String arg : args) {
+			Path p = Paths.get(arg);
+			if ( Files.isDirectory(p) ) {
+				loader.loadDirectory(p);
+			}
+			else {
+				loader.load(p);
+			}
+		}
+		System.out.print(loader.getInternReport());
+	}
+
+	/** Load all .sto files in dir */
+	public List<STMetaClassObject> loadDirectory(Path dir) throws IOException {
+		List<STMetaClassObject> loaded = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.sto")) {
+			for (Path f : files) {
+				loaded.add(load(f));
+			}
+		}
+		return loaded;
+	}
+
+	public STMetaClassObject load(Path stoFile) throws IOException {
+		try (Reader r = Files.newBufferedReader(stoFile, StandardCharsets.UTF_8);
+			 JsonReader json = Json.createReader(r))
+		{
+			STMetaClassObject cl = load(json.readObject());
+			cl.debugFile = stoFile.resolveSibling(cl.name+DEBUG_SUFFIX);
+			return cl;
+		}
+	}
+
+	/** Read cl's {@link STMetaClassObject#debugFile}, if it exists, and
+	 *  fill in the debug info of its methods and blocks. Return false if
+	 *  there's no sidecar, it can't be read, or it's stale; debug info is
+	 *  optional so that's not an error.
+	 */
+	public static boolean loadDebugInfo(STMetaClassObject cl) {
+		if ( cl.debugFile==null || !Files.exists(cl.debugFile) ) return false;
+		try (Reader r = Files.newBufferedReader(cl.debugFile, StandardCharsets.UTF_8);
+			 JsonReader json = Json.createReader(r))
+		{
+			return attachDebugInfo(cl, json.readObject());
+		}
+		catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/** Attach the JSON produced by {@link smalltalk.compiler.symbols.STClass#serializeDebug()}
+	 *  unless its code hash differs from cl's; such a sidecar is from
+	 *  some other compile of the class and its line tables would be wrong.
+	 *  Return whether it was attached.
+	 */
+	public static boolean attachDebugInfo(STMetaClassObject cl, JsonObject debugJSON) {
+		if ( cl.codeHash==null || !cl.codeHash.equals(debugJSON.getString("codeHash", null)) ) {
+			return false;
+		}
+		if ( cl.sourceFile==null ) cl.sourceFile = debugJSON.getString("sourceFile", null);
+		JsonArray methodsJSON = debugJSON.getJsonArray("methods");
+		for (int i=0; i<cl.methods.length && i<methodsJSON.size(); i++) {
+			attachDebugInfo(cl.methods[i], methodsJSON.getJsonObject(i));
+		}
+		return true;
+	}
+
+	protected static void attachDebugInfo(VMCompiledBlock blk, JsonObject blockJSON) {
+		if ( !blk.qualifiedName.equals(blockJSON.getString("qualifiedName")) ) {
+			return; // sidecar is from some other compile
+		}
+		if ( blk.lineTable==null ) blk.lineTable = toBytes(blockJSON.getJsonArray("lineTable"));
+		JsonArray localsJSON = blockJSON.getJsonArray("locals");
+		if ( localsJSON!=null ) {
+			blk.localNames = new String[localsJSON.size()];
+			for (int i=0; i<blk.localNames.length; i++) {
+				blk.localNames[i] = localsJSON.getString(i);
+			}
+		}
+		JsonArray spanJSON = blockJSON.getJsonArray("span");
+		if ( spanJSON!=null ) {
+			blk.sourceSpan = new int[spanJSON.size()];
+			for (int i=0; i<blk.sourceSpan.length; i++) {
+				blk.sourceSpan[i] = spanJSON.getInt(i);
+			}
+		}
+		JsonArray blocksJSON = blockJSON.getJsonArray("blocks");
+		for (int i=0; i<blk.blocks.length && i<blocksJSON.size(); i++) {
+			attachDebugInfo(blk.blocks[i], blocksJSON.getJsonObject(i));
+		}
+	}
+
+	/** Return the bytes in a JSON array of bytes or null if array is null */
+	protected static byte[] toBytes(JsonArray array) {
+		if ( array==null ) return null;
+		byte[] bytes = new byte[array.size()];
+		for (int i=0; i<bytes.length; i++) {
+			bytes[i] = (byte)array.getInt(i);
+		}
+		return bytes;
+	}
+
+	/** Load the JSON object produced by {@link smalltalk.compiler.symbols.STClass#serialize()} */
+	public STMetaClassObject load(JsonObject classJSON) {
+		String name = classJSON.getString("name");
+		String superClassName = classJSON.getString("superClassName", null);
+
+		JsonArray literals = classJSON.getJsonArray("literals");
+		int[] literalIDs = new int[literals.size()];
+		for (int i=0; i<literalIDs.length; i++) {
+			String lit = literals.getString(i);
+			literalIDs[i] = selectors.intern(lit);
+			perClassLiteralBytes += estimateStringBytes(lit);
+		}
+		numLiteralRefs += literalIDs.length;
+
+		JsonArray fieldsJSON = classJSON.getJsonArray("fields");
+		String[] fields = new String[fieldsJSON.size()];
+		for (int i=0; i<fields.length; i++) {
+			fields[i] = fieldsJSON.getString(i);
+		}
+
+		JsonArray methodsJSON = classJSON.getJsonArray("methods");
+		VMCompiledBlock[] methods = new VMCompiledBlock[methodsJSON.size()];
+		int[] selectorIDs = new int[methods.length];
+		for (int i=0; i<methods.length; i++) {
+			methods[i] = loadBlock(methodsJSON.getJsonObject(i));
+			if ( verify || !hasMaxStack(methods[i]) ) {
+				verify(name, methods[i], literalIDs.length);
+			}
+			rewriteLiterals(methods[i], literalIDs);
+			selectorIDs[i] = selectors.intern(methods[i].name);
+		}
+
+		STMetaClassObject cl =
+			new STMetaClassObject(name, superClassName, fields, literalIDs, methods, selectorIDs);
+		cl.sourceFile = classJSON.getString("sourceFile", null);
+		cl.codeHash = classJSON.getString("codeHash", null);
+		classes.put(name, cl);
+		linkSuperclass(cl);
+		return cl;
+	}
+
+	/** Hook cl to its superclass, or wait for the superclass to be loaded;
+	 *  also hook up any classes that were waiting for cl.
+	 */
+	protected void linkSuperclass(STMetaClassObject cl) {
+		if ( cl.superClassName!=null ) {
+			STMetaClassObject superClass = classes.get(cl.superClassName);
+			if ( superClass!=null ) {
+				cl.superClass = superClass;
+			}
+			else {
+				waitingForSuperclass.computeIfAbsent(cl.superClassName, k -> new ArrayList<>()).add(cl);
+			}
+		}
+		List<STMetaClassObject> subclasses = waitingForSuperclass.remove(cl.name);
+		if ( subclasses!=null ) {
+			for (STMetaClassObject sub : subclasses) {
+				sub.superClass = cl;
+			}
+		}
+	}
+
+	protected VMCompiledBlock loadBlock(JsonObject blockJSON) {
+		JsonArray codeJSON = blockJSON.getJsonArray("bytecode");
+		byte[] bytecode = new byte[codeJSON.size()];
+		for (int i=0; i<bytecode.length; i++) {
+			bytecode[i] = (byte)codeJSON.getInt(i);
+		}
+
+		JsonArray blocksJSON = blockJSON.getJsonArray("blocks");
+		VMCompiledBlock[] blocks = new VMCompiledBlock[blocksJSON.size()];
+		for (int i=0; i<blocks.length; i++) {
+			blocks[i] = loadBlock(blocksJSON.getJsonObject(i));
+		}
+
+		VMCompiledBlock blk = new VMCompiledBlock(blockJSON.getString("name"),
+		                                                 blockJSON.getString("qualifiedName"),
+		                                                 blockJSON.getBoolean("isClassMethod", false),
+		                                                 blockJSON.getInt("nargs"),
+		                                                 blockJSON.getInt("nlocals"),
+		                                                 blockJSON.getString("primitiveName", null),
+		                                                 bytecode,
+		                                                 blocks,
+		                                                 blockJSON.getBoolean("refsOuterLocals", true),
+		                                                 blockJSON.getBoolean("refsSelf", true),
+		                                                 blockJSON.getBoolean("hasNonLocalReturn", true),
+		                                                 blockJSON.getString("homeMethod", null));
+		blk.lineTable = toBytes(blockJSON.getJsonArray("lineTable"));
+		blk.maxStack = blockJSON.getInt("maxStack", -1);
+		return blk;
+	}
+
+	/** Verify the code of method, whose class className has numLiterals
+	 *  literals, and set the maxStack of it and its blocks. Bad code is
+	 *  not loaded so the interpreter never sees it.
+	 */
+	protected void verify(String className, VMCompiledBlock method, int numLiterals) {
+		int n = method.blocks.length+1;
+		String[] names = new String[n];
+		byte[][] code = new byte[n][];
+		int[] numLocals = new int[n];
+		for (int i=0; i<n; i++) {
+			VMCompiledBlock blk = i==0 ? method : method.blocks[i-1];
+			names[i] = blk.qualifiedName;
+			code[i] = blk.bytecode;
+			numLocals[i] = blk.nargs+blk.nlocals;
+		}
+		BytecodeVerifier verifier = new BytecodeVerifier(numLiterals);
+		int[] maxStack = verifier.verify(names, code, numLocals);
+		if ( !verifier.errors.isEmpty() ) {
+			throw new VMException("bad bytecode in class "+className+": "+
+			                      String.join("; ", verifier.errors));
+		}
+		for (int i=0; i<n; i++) {
+			(i==0 ? method : method.blocks[i-1]).maxStack = maxStack[i];
+		}
+	}
+
+	/** Does method and all of its blocks have a maxStack from the object file? */
+	protected static boolean hasMaxStack(VMCompiledBlock method) {
+		if ( method.maxStack<0 ) return false;
+		for (VMCompiledBlock blk : method.blocks) {
+			if ( blk.maxStack<0 ) return false;
+		}
+		return true;
+	}
+
+	/** Rewrite the literals of method and its blocks */
+	protected static void rewriteLiterals(VMCompiledBlock method, int[] literalIDs) {
+		rewriteLiterals(method.bytecode, literalIDs);
+		for (VMCompiledBlock blk : method.blocks) {
+			rewriteLiterals(blk.bytecode, literalIDs);
+		}
+	}
+
+	/** Replace each LITERAL operand, an index into the class's literals,
+	 *  with the global ID of that literal.
+	 */
+	public static void rewriteLiterals(byte[] bytecode, int[] literalIDs) {
+		int ip = 0;
+		while ( ip<bytecode.length ) {
+			int opcode = bytecode[ip];
+			Bytecode.Instruction I = opcode>0 && opcode<Bytecode.instructions.length ?
+				Bytecode.instructions[opcode] : null;
+			if ( I==null ) {
+				throw new VMException("no such instruction "+opcode+" at address "+ip);
+			}
+			int opnd = ip+1;
+			for (int i=0; i<I.getNumberOfOperands(); i++) {
+				Bytecode.OperandType type = I.getOperandType(i);
+				if ( type==Bytecode.OperandType.LITERAL ) {
+					int id = literalIDs[Bytecode.getShort(bytecode, opnd)];
+					bytecode[opnd] = (byte)((id >> 8) & 0xFF);
+					bytecode[opnd+1] = (byte)(id & 0xFF);
+				}
+				opnd += type.sizeInBytes;
+			}
+			ip += I.size();
+		}
+	}
+
+	public Collection<STMetaClassObject> getClasses() {
+		return classes.values();
+	}
+
+	public InternReport getInternReport() {
+		long internedBytes = 0;
+		for (int i=0; i<selectors.size(); i++) {
+			internedBytes += estimateStringBytes(selectors.get(i));
+		}
+		return new InternReport(classes.size(), numLiteralRefs, selectors.size(),
+		                        perClassLiteralBytes, internedBytes);
+	}
+
+	/** Rough heap size of a String: object header plus fields (24 bytes),
+	 *  char[] header (16 bytes) and two bytes per char, padded to 8.
+	 */
+	public static long estimateStringBytes(String s) {
+		return 24 + align8(16 + 2L * s.length());
+	}
+
+	static long align8(long n) { return (n + 7) & ~7L; }
+
+	/** What did interning literals across classes save? */
+	public static class InternReport {
+		public final int numClasses;
+		/** Literal table entries summed over all classes */
+		public final int numLiteralRefs;
+		/** Distinct literals after interning */
+		public final int numUniqueLiterals;
+		/** Estimated bytes for the Strings if every class held its own copies */
+		public final long perClassBytes;
+		/** Estimated bytes for the Strings in the global table */
+		public final long internedBytes;
+
+		public InternReport(int numClasses, int numLiteralRefs, int numUniqueLiterals,
+		                    long perClassBytes, long internedBytes)
+		{
+			this.numClasses = numClasses;
+			this.numLiteralRefs = numLiteralRefs;
+			this.numUniqueLiterals = numUniqueLiterals;
+			this.perClassBytes = perClassBytes;
+			this.internedBytes = internedBytes;
+		}
+
+		public long getSavedBytes() { return perClassBytes - internedBytes; }
+
+		@Override
+		public String toString() {
+			return String.format(
+				"classes: %d\n"+
+				"literal refs: %d\n"+
+				"unique literals: %d\n"+
+				"per-class string bytes: %d\n"+
+				"interned string bytes: %d\n"+
+				"saved bytes: %d (%.1f%%)\n",
+				numClasses, numLiteralRefs, numUniqueLiterals,
+				perClassBytes, internedBytes, getSavedBytes(),
+				perClassBytes>0 ? 100.0 * getSavedBytes() / perClassBytes : 0.0);
+		}
+	}
+}
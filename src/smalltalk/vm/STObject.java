@@ -0,0 +1,20 @@
+package smalltalk.vm;
+
+/** An instance of a Smalltalk class defined in compiled code. Integers,
+ *  floats, characters, strings, and booleans are represented by the
+ *  equivalent Java objects; nil is null.
+ */
+public class STObject {
+	public final STMetaClassObject metaclass;
+	public final Object[] fields;
+
+	public STObject(STMetaClassObject metaclass) {
+		this.metaclass = metaclass;
+		this.fields = new Object[metaclass.getNumberOfFields()];
+	}
+
+	@Override
+	public String toString() {
+		return "a "+metaclass.name;
+	}
+}
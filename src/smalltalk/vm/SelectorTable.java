@@ -0,0 +1,52 @@
+package smalltalk.vm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A VM-wide table that interns every selector, symbol, and string literal
+ *  referenced by loaded classes and gives each a dense integer ID starting
+ *  at 0. The loader rewrites literal operands in bytecode to these IDs so
+ *  two selectors are equal iff their IDs are equal; dispatch compares
+ *  ints rather than hashing Strings.
+ *
+ *  IDs must fit in the 2-byte literal operand of the instruction set.
+ */
+public class SelectorTable {
+	public static final int MAX_ID = 0xFFFF;
+
+	protected final Map<String,Integer> ids = new HashMap<>();
+	protected final List<String> names = new ArrayList<>();
+
+	public int intern(String s) {
+		Integer id = ids.get(s);
+		if ( id==null ) {
+			id = names.size();
+			if ( id>MAX_ID ) {
+				throw new VMException("too many distinct literals; can't intern "+s);
+			}
+			ids.put(s, id);
+			names.add(s);
+		}
+		return id;
+	}
+
+	/** Return the ID of s or -1 if s was never interned */
+	public int lookup(String s) {
+		Integer id = ids.get(s);
+		return id!=null ? id : -1;
+	}
+
+	public String get(int id) {
+		return names.get(id);
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public String[] toArray() {
+		return names.toArray(new String[names.size()]);
+	}
+}
@@ -0,0 +1,116 @@
+package smalltalk.vm;
+
+import smalltalk.compiler.misc.LineTable;
+
+/** The VM's counterpart of {@link smalltalk.compiler.symbols.STCompiledBlock}
+ *  for a method or block loaded from a .sto file. The LITERAL operands of
+ *  {@link #bytecode} are global {@link SelectorTable} IDs, not indexes into
+ *  the class's literals.
+ */
+public class VMCompiledBlock {
+	public final String name;
+	public final String qualifiedName;
+	public final boolean isClassMethod;
+	public final int nargs;
+	public final int nlocals;
+
+	/** Non-null if this is a primitive method */
+	public final String primitiveName;
+
+	/** The primitive named by primitiveName, bound when loaded */
+	public final Primitive primitive;
+
+	public final byte[] bytecode;
+
+	/** Nested blocks if this is a method; empty for blocks */
+	public final VMCompiledBlock[] blocks;
+
+	public final boolean refsOuterLocals;
+	public final boolean refsSelf;
+	public final boolean hasNonLocalReturn;
+
+	/** Qualified name of the home method for blocks; null for methods */
+	public final String homeMethod;
+
+	/** The most operands this block's code has on the stack at once;
+	 *  {@link BlockContext} allocates a stack of exactly this size. Set
+	 *  by {@link STOLoader}, which computes it when it verifies the code;
+	 *  -1 until then.
+	 */
+	public int maxStack = -1;
+
+	/** The class containing this method or block; set when the class is created */
+	public STMetaClassObject enclosingClass;
+
+	/** Encoded {@link LineTable} if compiled with -dbg, else null. The
+	 *  interpreter never looks at it; it's decoded only on demand by
+	 *  {@link #getSourceLocation}. If the .sto file was stripped, it's
+	 *  loaded from the class's debug sidecar on demand.
+	 */
+	public byte[] lineTable;
+
+	/** Names of args then locals and the source span, as in
+	 *  {@link smalltalk.compiler.symbols.STCompiledBlock}; only loaded
+	 *  from the debug sidecar, so null until {@link #loadDebugInfo}.
+	 */
+	public String[] localNames;
+	public int[] sourceSpan;
+
+	public VMCompiledBlock(String name, String qualifiedName, boolean isClassMethod,
+	                       int nargs, int nlocals, String primitiveName,
+	                       byte[] bytecode, VMCompiledBlock[] blocks,
+	                       boolean refsOuterLocals, boolean refsSelf,
+	                       boolean hasNonLocalReturn, String homeMethod)
+	{
+		this.name = name;
+		this.qualifiedName = qualifiedName;
+		this.isClassMethod = isClassMethod;
+		this.nargs = nargs;
+		this.nlocals = nlocals;
+		this.primitiveName = primitiveName;
+		if ( primitiveName!=null ) {
+			primitive = Primitive.lookup(primitiveName);
+			if ( primitive==null ) {
+				throw new VMException("unknown primitive "+primitiveName+" in "+qualifiedName);
+			}
+			if ( primitive.nargs!=nargs ) {
+				throw new VMException("primitive "+primitiveName+" takes "+primitive.nargs+
+				                      " args but "+qualifiedName+" takes "+nargs);
+			}
+		}
+		else {
+			primitive = null;
+		}
+		this.bytecode = bytecode;
+		this.blocks = blocks;
+		this.refsOuterLocals = refsOuterLocals;
+		this.refsSelf = refsSelf;
+		this.hasNonLocalReturn = hasNonLocalReturn;
+		this.homeMethod = homeMethod;
+	}
+
+	/** Return file:line:charPos of the instruction at pc, or just
+	 *  qualifiedName if there's no line table.
+	 */
+	public String getSourceLocation(int pc) {
+		if ( lineTable==null ) loadDebugInfo();
+		String location = lineTable!=null ? LineTable.decode(lineTable).getLocation(pc) : null;
+		if ( location==null ) return qualifiedName;
+		String file = enclosingClass!=null ? enclosingClass.sourceFile : null;
+		return qualifiedName+" ("+(file!=null ? file+":" : "")+location+")";
+	}
+
+	/** Make sure anything in the class's debug sidecar has been loaded */
+	public void loadDebugInfo() {
+		if ( enclosingClass!=null ) enclosingClass.loadDebugInfo();
+	}
+
+	public boolean isClean() {
+		return !refsOuterLocals && !refsSelf && !hasNonLocalReturn;
+	}
+
+	@Override
+	public String toString() {
+		return qualifiedName;
+	}
+}
@@ -0,0 +1,13 @@
+package smalltalk.vm;
+
+/** A runtime error such as a message not understood. These abort
+ *  execution; they are never used for normal control flow such as
+ *  non-local returns.
+ */
+public class VMException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public VMException(String message) {
+		super(message);
+	}
+}
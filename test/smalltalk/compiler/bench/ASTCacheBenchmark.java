@@ -0,0 +1,82 @@
+package smalltalk.compiler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.ast.ASTCache;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Compile the synthetic corpus from scratch vs with every class already
+ *  in the {@link ASTCache}, so that nothing is lexed or parsed. Both
+ *  include symbol definition and code generation.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.ASTCacheBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ASTCacheBenchmark {
+	@Param({"50", "500"})
+	public int numClasses;
+
+	String source;
+	Path cacheDir;
+	ASTCache cache;
+
+	@Setup(Level.Trial)
+	public void fillCache() throws IOException {
+		source = Corpus.generate(numClasses);
+		cacheDir = Files.createTempDirectory("astcache");
+		cache = new ASTCache(cacheDir);
+		Compiler c = new Compiler();
+		c.astCache = cache;
+		c.compile("corpus.st", source);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteCache() throws IOException {
+		Files.list(cacheDir).forEach(f -> f.toFile().delete());
+		Files.delete(cacheDir);
+	}
+
+	@Benchmark
+	public STSymbolTable coldParse() {
+		return new Compiler().compile("corpus.st", source);
+	}
+
+	@Benchmark
+	public STSymbolTable cacheHit() {
+		Compiler c = new Compiler();
+		c.astCache = cache;
+		return c.compile("corpus.st", source);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(ASTCacheBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
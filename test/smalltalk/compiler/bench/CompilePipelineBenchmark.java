@@ -0,0 +1,93 @@
+package smalltalk.compiler.bench;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.CodeGenerator;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.FusedCodeGenerator;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.concurrent.TimeUnit;
+
+/** Compile the synthetic corpus after parsing with the separate define,
+ *  resolve, and codegen passes vs the header pre-pass plus one fused walk.
+ *  Parsing is done once per invocation in setup since it is the same for
+ *  both; {@link #compileSeparate} and {@link #compileFused} include it for
+ *  end-to-end numbers.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.CompilePipelineBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilePipelineBenchmark {
+	@Param({"50", "500"})
+	public int numClasses;
+
+	String source;
+
+	/** Each invocation needs a fresh tree since passes store scopes in it */
+	Compiler compiler;
+	ParserRuleContext tree;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		source = Corpus.generate(numClasses);
+	}
+
+	@Setup(Level.Invocation)
+	public void parse() {
+		compiler = new Compiler();
+		tree = compiler.parseClasses(new ANTLRInputStream(source));
+	}
+
+	@Benchmark
+	public Object separatePasses() {
+		compiler.defSymbols(tree);
+		compiler.resolveSymbols(tree);
+		return new CodeGenerator(compiler).visit(tree);
+	}
+
+	@Benchmark
+	public Object fused() {
+		FusedCodeGenerator.defineHeaders(compiler, tree);
+		return new FusedCodeGenerator(compiler).visit(tree);
+	}
+
+	@Benchmark
+	public STSymbolTable compileSeparate() {
+		Compiler c = new Compiler();
+		c.separatePasses = true;
+		return c.compile("corpus.st", source);
+	}
+
+	@Benchmark
+	public STSymbolTable compileFused() {
+		return new Compiler().compile("corpus.st", source);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(CompilePipelineBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
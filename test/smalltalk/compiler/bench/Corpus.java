@@ -0,0 +1,81 @@
+package smalltalk.compiler.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Generates synthetic Smalltalk source of arbitrary size for benchmarks.
+ *  Each class is a renamed copy of a linked list implementation similar to
+ *  the linkedlist.st sample, so the corpus exercises fields, keyword and
+ *  binary sends, nested blocks, and non-local returns.
+ */
+public class Corpus {
+	public static final String classTemplate =
+		"class LinkedList%1$d : Collection%2$s [\n" +
+		"   | head tail size |\n" +
+		"   first [^head]\n" +
+		"   last [^tail]\n" +
+		"   isEmpty [ ^head == nil ]\n" +
+		"   add: v [ self addLast: v ]\n" +
+		"   \"comments are skipped by the lexer\"\n" +
+		"   addFirst: v [\n" +
+		"       | x |\n" +
+		"       x := Link withValue: v.\n" +
+		"       x nextLink: head.\n" +
+		"       head := x.\n" +
+		"       size := size + 1\n" +
+		"   ]\n" +
+		"   addLast: v [\n" +
+		"       self isEmpty\n" +
+		"           ifTrue:  [ head := Link withValue: v. tail := head ]\n" +
+		"           ifFalse: [ tail nextLink: (Link withValue: v). tail := tail nextLink ].\n" +
+		"   ]\n" +
+		"   removeFirst [\n" +
+		"       head == nil ifFalse: [\n" +
+		"           head := head nextLink.\n" +
+		"           head==nil ifTrue: [tail:=nil].\n" +
+		"       ]\n" +
+		"   ]\n" +
+		"   detect: blk ifNone: other [\n" +
+		"       self do: [:v | (blk value: v) ifTrue: [^v]].\n" +
+		"       ^other value\n" +
+		"   ]\n" +
+		"   inject: acc into: blk [\n" +
+		"       | r |\n" +
+		"       r := acc.\n" +
+		"       self do: [:v | r := blk value: r value: v].\n" +
+		"       ^r\n" +
+		"   ]\n" +
+		"   sum [ ^self inject: 0 into: [:a :b | a + b * 1 - 0] ]\n" +
+		"   printString [ ^'a LinkedList' , ' with ' , size printString , ' elements' ]\n" +
+		"   do: blk [\n" +
+		"       |p|\n" +
+		"       p:=head.\n" +
+		"       [p~~nil] whileTrue: [ blk value: (p value). p := p nextLink ]\n" +
+		"   ]\n" +
+		"]\n";
+
+	/** Source with numClasses classes; every class after the first
+	 *  subclasses its predecessor.
+	 */
+	public static String generate(int numClasses) {
+		StringBuilder buf = new StringBuilder();
+		for (int i=0; i<numClasses; i++) {
+			buf.append(String.format(classTemplate, i, i>0 ? String.valueOf(i-1) : ""));
+		}
+		buf.append("|list| list := LinkedList0 new. list add: 1. list sum.\n");
+		return buf.toString();
+	}
+
+	/** Generate roughly the requested number of bytes of source */
+	public static String generateBytes(int numBytes) {
+		int perClass = String.format(classTemplate, 0, "").length();
+		return generate(Math.max(1, numBytes / perClass));
+	}
+
+	public static Path write(Path file, String source) throws IOException {
+		Files.write(file, source.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+}
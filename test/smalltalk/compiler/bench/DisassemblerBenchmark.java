@@ -0,0 +1,104 @@
+package smalltalk.compiler.bench;
+
+import org.antlr.symtab.Symbol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.Disassembler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Time to disassemble every class of the synthetic corpus, once
+ *  materializing each class's test string as -dis did and once streaming
+ *  it to a Writer that discards its output.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.DisassemblerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisassemblerBenchmark {
+	@Param({"500"})
+	public int numClasses;
+
+	List<STClass> classes;
+
+	/** Counts chars so the JIT can't drop the writes */
+	static class CountingWriter extends Writer {
+		long n;
+		@Override public void write(int c) { n++; }
+		@Override public void write(char[] buf, int off, int len) { n += len; }
+		@Override public void write(String s, int off, int len) { n += len; }
+		@Override public void flush() { }
+		@Override public void close() { }
+	}
+
+	@Setup
+	public void compile() {
+		STSymbolTable symtab = new Compiler().compile("<corpus>", Corpus.generate(numClasses));
+		classes = new ArrayList<>();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			classes.add((STClass)s);
+		}
+	}
+
+	@Benchmark
+	public long toTestString() {
+		long n = 0;
+		for (STClass cl : classes) {
+			n += cl.toTestString().length();
+		}
+		return n;
+	}
+
+	@Benchmark
+	public long streamToWriter() throws IOException {
+		CountingWriter out = new CountingWriter();
+		Disassembler dis = new Disassembler(out);
+		for (STClass cl : classes) {
+			dis.disassemble(cl);
+		}
+		return out.n;
+	}
+
+	@Benchmark
+	public long streamToBufferedWriter() throws IOException {
+		CountingWriter counter = new CountingWriter();
+		try (Writer out = new BufferedWriter(counter)) {
+			Disassembler dis = new Disassembler(out);
+			for (STClass cl : classes) {
+				dis.disassemble(cl);
+			}
+		}
+		return counter.n;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(DisassemblerBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
@@ -0,0 +1,84 @@
+package smalltalk.compiler.bench;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.SmalltalkTokenSource;
+
+import java.util.concurrent.TimeUnit;
+
+/** Tokens per second lexing the synthetic corpus with the generated
+ *  {@link SmalltalkLexer}, whose KEYWORD predicate defeats its DFA cache,
+ *  vs the hand-written {@link SmalltalkTokenSource}. See the "tokens"
+ *  secondary result; the primary result counts whole-corpus passes.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.LexerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+	@Param({"500"})
+	public int numClasses;
+
+	String source;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class TokenCounter {
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tokens = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void generate() {
+		source = Corpus.generate(numClasses);
+	}
+
+	@Benchmark
+	public void antlrLexer(TokenCounter counter) {
+		counter.tokens += lex(new SmalltalkLexer(new ANTLRInputStream(source)));
+	}
+
+	@Benchmark
+	public void tokenSource(TokenCounter counter) {
+		counter.tokens += lex(new SmalltalkTokenSource(new ANTLRInputStream(source)));
+	}
+
+	static int lex(TokenSource lexer) {
+		int n = 0;
+		while ( lexer.nextToken().getType()!=Token.EOF ) n++;
+		return n;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(LexerBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
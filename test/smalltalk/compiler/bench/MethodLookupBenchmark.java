@@ -0,0 +1,107 @@
+package smalltalk.compiler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+import smalltalk.vm.STMetaClassObject;
+import smalltalk.vm.STOLoader;
+import smalltalk.vm.VMCompiledBlock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Method lookup by selector three ways: the compiler's symtab scopes
+ *  (STClass.resolveMethod), a HashMap keyed by selector String, and the
+ *  VM's open-addressing {@link smalltalk.vm.MethodTable} keyed by
+ *  selector ID. Each operation looks up every selector once.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.MethodLookupBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodLookupBenchmark {
+	public static final int LOOKUPS = 64;
+
+	@Param({"4", "16", "64"})
+	public int numMethods;
+
+	STClass symtabClass;
+	Map<String,VMCompiledBlock> hashMap;
+	STMetaClassObject vmClass;
+	String[] selectorNames;
+	int[] selectorIDs;
+
+	@Setup
+	public void setup() {
+		StringBuilder buf = new StringBuilder("class T [\n");
+		for (int i=0; i<numMethods; i++) {
+			buf.append("    method").append(i).append(": x [ ^x ]\n");
+		}
+		buf.append("]\n");
+		STSymbolTable symtab = new Compiler().compile("T.st", buf.toString());
+		symtabClass = (STClass)symtab.GLOBALS.resolve("T");
+
+		STOLoader loader = new STOLoader();
+		vmClass = loader.load(symtabClass.serialize());
+		hashMap = new HashMap<>();
+		for (VMCompiledBlock m : vmClass.methods) {
+			hashMap.put(m.name, m);
+		}
+
+		// mostly hits, a few misses
+		selectorNames = new String[LOOKUPS];
+		selectorIDs = new int[LOOKUPS];
+		for (int i=0; i<LOOKUPS; i++) {
+			// build new Strings so HashMap can't short-circuit on identity
+			selectorNames[i] = i%8==7 ? new StringBuilder("missing:").toString() :
+				new StringBuilder("method").append(i%numMethods).append(':').toString();
+			selectorIDs[i] = loader.selectors.intern(selectorNames[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void symtab(Blackhole bh) {
+		for (String s : selectorNames) bh.consume(symtabClass.resolveMethod(s));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void stringHashMap(Blackhole bh) {
+		for (String s : selectorNames) bh.consume(hashMap.get(s));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public void methodTable(Blackhole bh) {
+		for (int id : selectorIDs) bh.consume(vmClass.resolveMethod(id));
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(MethodLookupBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
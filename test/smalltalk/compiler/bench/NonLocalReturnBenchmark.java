@@ -0,0 +1,71 @@
+package smalltalk.compiler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.Compiler;
+import smalltalk.vm.Interpreter;
+import smalltalk.vm.STObject;
+
+import java.util.concurrent.TimeUnit;
+
+/** Compare a ^expr that unwinds through depth frames to its home method
+ *  with the same call chain returning normally through each frame.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.NonLocalReturnBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonLocalReturnBenchmark {
+	public static final String program =
+		"class Bench [\n" +
+		"    nlr: n [ self down: n do: [^n]. ^nil ]\n" +
+		"    normal: n [ ^self down: n do: [n] ]\n" +
+		"    down: n do: blk [ ^n = 0 ifTrue: [blk value] ifFalse: [self down: n - 1 do: blk] ]\n" +
+		"]\n";
+
+	@Param({"10", "100", "1000"})
+	public int depth;
+
+	Interpreter interp;
+	STObject bench;
+
+	@Setup
+	public void setup() {
+		Compiler c = new Compiler();
+		interp = new Interpreter(c.compile("Bench.st", program));
+		bench = interp.newInstance("Bench");
+	}
+
+	@Benchmark
+	public Object nonLocalReturn() {
+		return interp.send(bench, "nlr:", depth);
+	}
+
+	@Benchmark
+	public Object normalReturn() {
+		return interp.send(bench, "normal:", depth);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(NonLocalReturnBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
@@ -0,0 +1,91 @@
+package smalltalk.compiler.bench;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.misc.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.misc.MappedCharStream;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Load and lex a multi-megabyte source file two ways: the way STC did,
+ *  readFile into a char[], then a String, then an ANTLRInputStream copy;
+ *  and via a {@link MappedCharStream} over the memory-mapped file.
+ *
+ *  Run with:
+ *
+ *  mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=smalltalk.compiler.bench.SourceLoadingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SourceLoadingBenchmark {
+	@Param({"1", "8"})
+	public int megabytes;
+
+	Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		file = Corpus.write(Files.createTempFile("corpus", ".st"),
+		                    Corpus.generateBytes(megabytes * 1024 * 1024));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public CharStream loadViaString() throws IOException {
+		return new ANTLRInputStream(new String(Utils.readFile(file.toString())));
+	}
+
+	@Benchmark
+	public CharStream loadMapped() throws IOException {
+		return MappedCharStream.fromPath(file);
+	}
+
+	@Benchmark
+	public int lexViaString() throws IOException {
+		return lex(loadViaString());
+	}
+
+	@Benchmark
+	public int lexMapped() throws IOException {
+		return lex(loadMapped());
+	}
+
+	static int lex(CharStream input) {
+		CommonTokenStream tokens = new CommonTokenStream(new SmalltalkLexer(input));
+		tokens.fill();
+		return tokens.size();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			           .include(SourceLoadingBenchmark.class.getSimpleName())
+			           .build()).run();
+	}
+}
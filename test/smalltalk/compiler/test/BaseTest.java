@@ -4,7 +4,6 @@ import org.antlr.symtab.GlobalScope;
 import org.antlr.symtab.Symbol;
 import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.misc.Utils;
 import smalltalk.compiler.Compiler;
 import smalltalk.compiler.STC;
 import smalltalk.compiler.symbols.STClass;
@@ -12,6 +11,7 @@ import smalltalk.compiler.symbols.STSymbolTable;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -41,6 +41,10 @@ public class BaseTest {
 	}
 
 	public String compile(String fileName, String input, boolean genDbg) {
+		return compileToTestString(fileName, input, genDbg);
+	}
+
+	public static String compileToTestString(String fileName, String input, boolean genDbg) {
 		StringBuilder code = new StringBuilder();
 		smalltalk.compiler.Compiler c = new Compiler();
 		c.genDbg = genDbg;
@@ -53,27 +57,21 @@ public class BaseTest {
 		return code.toString();
 	}
 
+	/** Samples in subdir of the classpath as {fileName, code, expected}
+	 *  for parameterized tests; files are read in parallel.
+	 */
 	public static Collection<Object[]> getAllTestDescriptors(String subdir) {
 		List<Object[]> tests = new ArrayList<>();
 		ClassLoader cl = Thread.currentThread().getContextClassLoader();
 		URL codegenURL = cl.getResource(subdir);
-		File dir = new File(codegenURL.getFile());
-		//File dir = new File("/Users/omerakin/git/CS 652/smalltalk-compiler-omerakinusf/target/classes/CodeGen");
-		for (String f : dir.list()) {
-			if ( f.endsWith(".st") ) {
-				Object[] args = new Object[3];
-				args[0] = f;
-				File codeF = new File(dir, f);
-				try {
-					args[1] = new String(Utils.readFile(codeF.toString()));
-					args[2] = new String(Utils.readFile(codeF+"-teststring.txt"));
-				}
-				catch (IOException ioe) {
-					ioe.printStackTrace(System.err);
-				}
-				tests.add(args);
+		try {
+			for (GoldenRunner.Sample s : new GoldenRunner().loadSamples(Paths.get(codegenURL.toURI()))) {
+				tests.add(new Object[] {s.fileName, s.code, s.expecting});
 			}
 		}
+		catch (IOException | URISyntaxException e) {
+			throw new RuntimeException("can't load samples in "+subdir, e);
+		}
 		return tests;
 	}
 
@@ -90,4 +88,4 @@ public class BaseTest {
 			new File(dir+"/"+files[i]).delete();
 		}
 	}
-}
\ No newline at end of file
+}
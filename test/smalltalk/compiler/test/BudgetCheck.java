@@ -0,0 +1,262 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.MethodSymbol;
+import smalltalk.compiler.CompileStats;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.bench.Corpus;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/** Compile a reference corpus and compare what it costs against the
+ *  budgets checked in as Budget/budgets.properties in the test samples:
+ *  total bytecode bytes, literal table entries, and .sto bytes over all
+ *  classes, and milliseconds per compiler phase. {@link TestBudgets} runs
+ *  this with the tests so any change that bloats code past a budget's
+ *  tolerance fails the build.
+ *
+ *  The corpus is every CodeGen sample plus {@link Corpus} classes, which
+ *  are big enough to time. Sizes are exact so their budgets are the
+ *  current sizes with a small tolerance. Times vary across machines so
+ *  their budgets are several times what they take on a development
+ *  machine with a loose tolerance; they catch gross slowdowns only, and
+ *  TestBudgets checks them only with -Dbudget.times=true.
+ *
+ *  A budget file has one metric=budget line per metric. The tolerance,
+ *  a fraction of the budget, is metric.tolerance or else tolerance.
+ *
+ *  $ java smalltalk.compiler.test.BudgetCheck [-update test/samples/Budget/budgets.properties]
+ *
+ *  prints the measurements against the budgets, or, with -update, writes
+ *  new budgets from them. Do that only when growth is intended.
+ */
+public class BudgetCheck {
+	public static final String BUDGETS = "Budget/budgets.properties";
+
+	/** Classes of generated code in the corpus */
+	public static final int CORPUS_CLASSES = 50;
+
+	/** Untimed then timed compiles of the corpus; the fastest of each phase counts */
+	public static final int WARMUP = 5;
+	public static final int REPEAT = 5;
+
+	/** -update sets time budgets to this multiple of measured time */
+	public static final double TIME_HEADROOM = 4.0;
+
+	public static final String[] SIZE_METRICS = {"bytecodeBytes", "literals", "stoBytes"};
+	public static final String[] TIME_METRICS = {"parseMillis", "defineMillis", "codegenMillis", "totalMillis"};
+
+	public static void main(String[] args) throws Exception {
+		Map<String,Double> measured = measure(true);
+		if ( args.length==2 && args[0].equals("-update") ) {
+			writeBudgets(Paths.get(args[1]), measured);
+			return;
+		}
+		Map<String,Double> budgets = readBudgets();
+		System.out.print(getReport(measured, budgets));
+		if ( !getOverBudget(measured, budgets).isEmpty() ) System.exit(1);
+	}
+
+	/** The corpus as file name to source, in a stable order */
+	public static Map<String,String> getCorpus() throws IOException {
+		Map<String,String> corpus = new LinkedHashMap<>();
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stFiles = Files.newDirectoryStream(getResource("CodeGen"), "*.st")) {
+			for (Path f : stFiles) files.add(f);
+		}
+		Collections.sort(files);
+		for (Path f : files) {
+			corpus.put(f.getFileName().toString(), new String(Files.readAllBytes(f), StandardCharsets.UTF_8));
+		}
+		corpus.put("corpus.st", Corpus.generate(CORPUS_CLASSES));
+		return corpus;
+	}
+
+	/** Compile the corpus, measuring the metrics named in
+	 *  {@link #SIZE_METRICS} and, if times, {@link #TIME_METRICS}.
+	 */
+	public static Map<String,Double> measure(boolean times) throws IOException {
+		Map<String,String> corpus = getCorpus();
+		Map<String,Double> metrics = new LinkedHashMap<>();
+		long bytecodeBytes = 0, literals = 0, stoBytes = 0;
+		for (Map.Entry<String,String> file : corpus.entrySet()) {
+			Compiler c = new Compiler();
+			STSymbolTable symtab = c.compile(file.getKey(), file.getValue());
+			if ( !c.errors.isEmpty() ) {
+				throw new IllegalStateException(file.getKey()+": "+c.errors);
+			}
+			for (STClass cl : STC.getCompiledClasses(symtab)) {
+				literals += cl.stringTable.size();
+				stoBytes += cl.serialize().toString().getBytes(StandardCharsets.UTF_8).length;
+				for (MethodSymbol m : cl.getDefinedMethods()) {
+					bytecodeBytes += getBytecodeBytes(((STMethod)m).compiledBlock);
+				}
+			}
+		}
+		metrics.put("bytecodeBytes", (double)bytecodeBytes);
+		metrics.put("literals", (double)literals);
+		metrics.put("stoBytes", (double)stoBytes);
+		if ( !times ) return metrics;
+
+		for (int i=0; i<WARMUP; i++) compileAll(corpus);
+		long parse = Long.MAX_VALUE, define = Long.MAX_VALUE, codegen = Long.MAX_VALUE, total = Long.MAX_VALUE;
+		for (int i=0; i<REPEAT; i++) { // fastest of each phase separately
+			CompileStats stats = compileAll(corpus);
+			parse = Math.min(parse, stats.parseNanos);
+			define = Math.min(define, stats.defineNanos);
+			codegen = Math.min(codegen, stats.resolveNanos+stats.codegenNanos);
+			total = Math.min(total, stats.totalNanos());
+		}
+		metrics.put("parseMillis", parse/1e6);
+		metrics.put("defineMillis", define/1e6);
+		metrics.put("codegenMillis", codegen/1e6);
+		metrics.put("totalMillis", total/1e6);
+		return metrics;
+	}
+
+	protected static long getBytecodeBytes(STCompiledBlock method) {
+		if ( method==null || method.bytecode==null ) return 0;
+		long n = method.bytecode.length;
+		if ( method.blocks!=null ) {
+			for (STCompiledBlock blk : method.blocks) n += blk.bytecode.length;
+		}
+		return n;
+	}
+
+	/** Compile every corpus file and return the phase times summed */
+	protected static CompileStats compileAll(Map<String,String> corpus) {
+		CompileStats sum = new CompileStats();
+		for (Map.Entry<String,String> file : corpus.entrySet()) {
+			Compiler c = new Compiler();
+			c.compile(file.getKey(), file.getValue());
+			sum.parseNanos += c.stats.parseNanos;
+			sum.defineNanos += c.stats.defineNanos;
+			sum.resolveNanos += c.stats.resolveNanos;
+			sum.codegenNanos += c.stats.codegenNanos;
+		}
+		return sum;
+	}
+
+	/** Return metric to budget; tolerances are under "metric.tolerance" and "tolerance" */
+	public static Map<String,Double> readBudgets() throws IOException {
+		Properties props = new Properties();
+		try (InputStream in = Files.newInputStream(getResource(BUDGETS));
+			 Reader r = new InputStreamReader(in, StandardCharsets.UTF_8))
+		{
+			props.load(r);
+		}
+		Map<String,Double> budgets = new LinkedHashMap<>();
+		for (String name : props.stringPropertyNames()) {
+			budgets.put(name, Double.parseDouble(props.getProperty(name)));
+		}
+		return budgets;
+	}
+
+	public static double getTolerance(Map<String,Double> budgets, String metric) {
+		Double t = budgets.get(metric+".tolerance");
+		if ( t==null ) t = budgets.get("tolerance");
+		return t!=null ? t : 0;
+	}
+
+	/** The most metric may be before it's over budget; infinite if there's no budget */
+	public static double getLimit(Map<String,Double> budgets, String metric) {
+		Double budget = budgets.get(metric);
+		if ( budget==null ) return Double.POSITIVE_INFINITY;
+		return budget * (1+getTolerance(budgets, metric));
+	}
+
+	/** Metrics in measured that are over their limit */
+	public static List<String> getOverBudget(Map<String,Double> measured, Map<String,Double> budgets) {
+		List<String> over = new ArrayList<>();
+		for (Map.Entry<String,Double> m : measured.entrySet()) {
+			if ( m.getValue()>getLimit(budgets, m.getKey()) ) over.add(m.getKey());
+		}
+		return over;
+	}
+
+	/** A table of metric, budget, limit, actual, and change from budget,
+	 *  with over-budget metrics marked, followed by a summary line.
+	 */
+	public static String getReport(Map<String,Double> measured, Map<String,Double> budgets) {
+		StringBuilder buf = new StringBuilder();
+		buf.append(String.format("%-15s %12s %12s %12s %8s\n", "metric", "budget", "limit", "actual", "change"));
+		for (Map.Entry<String,Double> m : measured.entrySet()) {
+			String metric = m.getKey();
+			double actual = m.getValue();
+			Double budget = budgets.get(metric);
+			if ( budget==null ) {
+				buf.append(String.format("%-15s %12s %12s %12s\n", metric, "-", "-", format(actual)));
+				continue;
+			}
+			double limit = getLimit(budgets, metric);
+			buf.append(String.format("%-15s %12s %12s %12s %+7.1f%%", metric, format(budget),
+			                         format(limit), format(actual), 100*(actual-budget)/budget));
+			if ( actual>limit ) buf.append("  OVER BUDGET");
+			buf.append('\n');
+		}
+		List<String> over = getOverBudget(measured, budgets);
+		if ( over.isEmpty() ) {
+			buf.append("within budget\n");
+		}
+		else {
+			buf.append("over budget: ").append(String.join(", ", over)).append('\n');
+		}
+		return buf.toString();
+	}
+
+	protected static String format(double v) {
+		return v==Math.rint(v) ? String.valueOf((long)v) : String.format("%.3f", v);
+	}
+
+	/** Write budgets for measured to f: sizes as measured and times with
+	 *  {@link #TIME_HEADROOM}, keeping the tolerances in the current budgets.
+	 */
+	public static void writeBudgets(Path f, Map<String,Double> measured) throws IOException {
+		Map<String,Double> current = readBudgets();
+		StringBuilder buf = new StringBuilder();
+		buf.append("# Compile cost budgets checked by TestBudgets; see BudgetCheck.\n");
+		buf.append("# Regenerate with BudgetCheck -update only when growth is intended.\n");
+		buf.append("tolerance=").append(getTolerance(current, "")).append('\n');
+		for (String metric : SIZE_METRICS) {
+			buf.append(metric).append('=').append(format(measured.get(metric))).append('\n');
+		}
+		for (String metric : TIME_METRICS) {
+			double budget = Math.ceil(measured.get(metric)*TIME_HEADROOM);
+			buf.append(metric).append('=').append(format(budget)).append('\n');
+			buf.append(metric).append(".tolerance=").append(getTolerance(current, metric)).append('\n');
+		}
+		Files.write(f, buf.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected static Path getResource(String name) {
+		URL url = BudgetCheck.class.getClassLoader().getResource(name);
+		if ( url==null ) throw new UncheckedIOException(new IOException("can't find "+name));
+		try {
+			return Paths.get(url.toURI());
+		}
+		catch (URISyntaxException e) {
+			throw new IllegalArgumentException(url.toString(), e);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package smalltalk.compiler.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Compile golden samples, foo.st with expected output in
+ *  foo.st-teststring.txt, and diff the result, as {@link TestCodeGen}
+ *  does, and time each sample's compile.
+ *
+ *  All samples are loaded, compiled once to check their output, and
+ *  compiled a few more times to warm up the JIT, all concurrently. Then
+ *  each is timed, one sample at a time so samples don't compete for the
+ *  CPU, over a few more compiles, keeping the fastest as its compile
+ *  time; that is much less noisy than a single cold compile. Given a
+ *  baseline of times from an earlier run, samples whose time grew by
+ *  more than threshold, as a fraction of the baseline, and by at least
+ *  {@link #minRegressionNanos} are flagged. Times depend on the machine
+ *  so baselines should be recorded where they're checked.
+ *
+ *  $ java smalltalk.compiler.test.GoldenRunner [-dbg] [-threads n] [-warmup n]
+ *        [-repeat n] [-baseline file [-threshold 0.5] [-update]] samplesdir
+ *
+ *  prints the time per sample, slowest first, then failures and
+ *  regressions. It exits with 1 if any sample failed and 2 if any
+ *  regressed. With -update, it writes the times to the baseline file.
+ */
+public class GoldenRunner {
+	public static final String EXPECTED_SUFFIX = "-teststring.txt";
+
+	public boolean genDbg;
+	public int nThreads = Runtime.getRuntime().availableProcessors();
+
+	/** Untimed compiles of every sample after the one that's checked */
+	public int warmup = 5;
+
+	/** Timed compiles per sample after warmup */
+	public int repeat = 5;
+
+	/** Fraction by which a sample's time can exceed its baseline */
+	public double threshold = 0.5;
+
+	/** Don't flag differences smaller than this; tiny samples are noisy */
+	public long minRegressionNanos = 200_000;
+
+	public static class Sample {
+		public final String fileName;
+		public final String code;
+		public final String expecting;
+
+		public Sample(String fileName, String code, String expecting) {
+			this.fileName = fileName;
+			this.code = code;
+			this.expecting = expecting;
+		}
+	}
+
+	public static class Result {
+		public final Sample sample;
+		public final String output;
+		/** Fastest compile in nanoseconds; -1 if it threw */
+		public final long nanos;
+		public final Throwable error;
+		/** Baseline time or -1 if none */
+		public long baselineNanos = -1;
+
+		public Result(Sample sample, String output, long nanos, Throwable error) {
+			this.sample = sample;
+			this.output = output;
+			this.nanos = nanos;
+			this.error = error;
+		}
+
+		public boolean passed() {
+			return error==null && sample.expecting.equals(output);
+		}
+
+		/** The first line where output differs from expected, with line number */
+		public String getDiff() {
+			if ( error!=null ) return error.toString();
+			String[] expected = sample.expecting.split("\n", -1);
+			String[] actual = output.split("\n", -1);
+			for (int i=0; i<Math.max(expected.length, actual.length); i++) {
+				String e = i<expected.length ? expected[i] : "<EOF>";
+				String a = i<actual.length ? actual[i] : "<EOF>";
+				if ( !e.equals(a) ) {
+					return "line "+(i+1)+":\n- "+e+"\n+ "+a;
+				}
+			}
+			return "";
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		GoldenRunner runner = new GoldenRunner();
+		Path baseline = null;
+		boolean update = false;
+		Path dir = null;
+		for (int i=0; i<args.length; i++) {
+			switch ( args[i] ) {
+				case "-dbg" :
+					runner.genDbg = true;
+					break;
+				case "-threads" :
+					runner.nThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-warmup" :
+					runner.warmup = Integer.parseInt(args[++i]);
+					break;
+				case "-repeat" :
+					runner.repeat = Integer.parseInt(args[++i]);
+					break;
+				case "-baseline" :
+					baseline = Paths.get(args[++i]);
+					break;
+				case "-threshold" :
+					runner.threshold = Double.parseDouble(args[++i]);
+					break;
+				case "-update" :
+					update = true;
+					break;
+				default :
+					dir = Paths.get(args[i]);
+					break;
+			}
+		}
+		if ( dir==null ) {
+			System.err.println("$ java smalltalk.compiler.test.GoldenRunner [-dbg] [-threads n] [-warmup n] [-repeat n] [-baseline file [-threshold 0.5] [-update]] samplesdir");
+			System.exit(1);
+		}
+		List<Result> results = runner.run(runner.loadSamples(dir));
+		if ( baseline!=null && Files.exists(baseline) ) {
+			setBaseline(results, readBaseline(baseline));
+		}
+		System.out.print(runner.getReport(results));
+		if ( baseline!=null && update ) {
+			writeBaseline(baseline, results);
+		}
+		if ( !getFailures(results).isEmpty() ) System.exit(1);
+		if ( !runner.getRegressions(results).isEmpty() ) System.exit(2);
+	}
+
+	/** Load the samples in dir, reading files in parallel, sorted by name */
+	public List<Sample> loadSamples(Path dir) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stFiles = Files.newDirectoryStream(dir, "*.st")) {
+			for (Path f : stFiles) files.add(f);
+		}
+		Collections.sort(files);
+		List<Callable<Sample>> tasks = new ArrayList<>();
+		for (Path f : files) {
+			tasks.add(() -> new Sample(f.getFileName().toString(), read(f),
+			                           read(f.resolveSibling(f.getFileName()+EXPECTED_SUFFIX))));
+		}
+		return invokeAll(tasks);
+	}
+
+	/** Compile and check all samples concurrently and warm up, then time
+	 *  them one at a time. Results are in sample order.
+	 */
+	public List<Result> run(List<Sample> samples) {
+		List<Callable<Result>> checks = new ArrayList<>();
+		for (Sample s : samples) {
+			checks.add(() -> check(s));
+		}
+		List<Result> checked = invokeAll(checks);
+		List<Callable<Void>> warmups = new ArrayList<>();
+		for (Result r : checked) {
+			if ( r.error==null ) warmups.add(() -> { compile(r.sample, warmup); return null; });
+		}
+		invokeAll(warmups);
+		List<Result> results = new ArrayList<>();
+		for (Result r : checked) {
+			results.add(time(r));
+		}
+		return results;
+	}
+
+	public Result run(Sample sample) {
+		return time(check(sample));
+	}
+
+	/** Compile sample once and record its output; nanos is 0 until timed */
+	protected Result check(Sample sample) {
+		try {
+			String output = BaseTest.compileToTestString(sample.fileName, sample.code, genDbg);
+			return new Result(sample, output, 0, null);
+		}
+		catch (Throwable t) {
+			return new Result(sample, null, -1, t);
+		}
+	}
+
+	/** Return checked with the fastest of {@link #repeat} compile times */
+	protected Result time(Result checked) {
+		if ( checked.error!=null || repeat==0 ) return checked;
+		Sample sample = checked.sample;
+		long best = Long.MAX_VALUE;
+		for (int i=0; i<repeat; i++) {
+			best = Math.min(best, compile(sample, 1));
+		}
+		return new Result(sample, checked.output, best, null);
+	}
+
+	/** Compile sample n times and return the total nanoseconds */
+	protected long compile(Sample sample, int n) {
+		long start = System.nanoTime();
+		for (int i=0; i<n; i++) {
+			BaseTest.compileToTestString(sample.fileName, sample.code, genDbg);
+		}
+		return System.nanoTime()-start;
+	}
+
+	public static List<Result> getFailures(List<Result> results) {
+		List<Result> failures = new ArrayList<>();
+		for (Result r : results) {
+			if ( !r.passed() ) failures.add(r);
+		}
+		return failures;
+	}
+
+	public boolean isRegression(Result r) {
+		if ( r.baselineNanos<0 || r.nanos<0 ) return false;
+		long delta = r.nanos - r.baselineNanos;
+		return delta>=minRegressionNanos && r.nanos>r.baselineNanos*(1+threshold);
+	}
+
+	public List<Result> getRegressions(List<Result> results) {
+		List<Result> regressions = new ArrayList<>();
+		for (Result r : results) {
+			if ( isRegression(r) ) regressions.add(r);
+		}
+		return regressions;
+	}
+
+	public String getReport(List<Result> results) {
+		StringBuilder buf = new StringBuilder();
+		List<Result> byTime = new ArrayList<>(results);
+		byTime.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+		long total = 0;
+		for (Result r : byTime) {
+			buf.append(String.format("%10.3fms", r.nanos/1e6));
+			if ( r.baselineNanos>=0 ) {
+				buf.append(String.format(" (baseline %.3fms)", r.baselineNanos/1e6));
+			}
+			buf.append(' ').append(r.sample.fileName);
+			if ( !r.passed() ) buf.append(" FAILED");
+			if ( isRegression(r) ) buf.append(" REGRESSED");
+			buf.append('\n');
+			total += Math.max(r.nanos, 0);
+		}
+		List<Result> failures = getFailures(results);
+		List<Result> regressions = getRegressions(results);
+		buf.append(String.format("%d samples, %d failed, %d regressed, %.3fms compiling\n",
+		                         results.size(), failures.size(), regressions.size(), total/1e6));
+		for (Result r : failures) {
+			buf.append("FAILED ").append(r.sample.fileName).append(' ').append(r.getDiff()).append('\n');
+		}
+		for (Result r : regressions) {
+			buf.append(String.format("REGRESSED %s: %.3fms vs baseline %.3fms (+%.0f%%)\n",
+			                         r.sample.fileName, r.nanos/1e6, r.baselineNanos/1e6,
+			                         100.0*(r.nanos-r.baselineNanos)/r.baselineNanos));
+		}
+		return buf.toString();
+	}
+
+	/** Baselines have a "fileName nanos" line per sample */
+	public static Map<String,Long> readBaseline(Path f) throws IOException {
+		Map<String,Long> baseline = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(f, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if ( line.isEmpty() || line.startsWith("#") ) continue;
+			int sp = line.lastIndexOf(' ');
+			baseline.put(line.substring(0, sp), Long.parseLong(line.substring(sp+1)));
+		}
+		return baseline;
+	}
+
+	public static void setBaseline(List<Result> results, Map<String,Long> baseline) {
+		for (Result r : results) {
+			Long nanos = baseline.get(r.sample.fileName);
+			if ( nanos!=null ) r.baselineNanos = nanos;
+		}
+	}
+
+	public static void writeBaseline(Path f, List<Result> results) throws IOException {
+		StringBuilder buf = new StringBuilder();
+		for (Result r : results) {
+			if ( r.passed() ) buf.append(r.sample.fileName).append(' ').append(r.nanos).append('\n');
+		}
+		Files.write(f, buf.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected static String read(Path f) throws IOException {
+		return new String(Files.readAllBytes(f), StandardCharsets.UTF_8);
+	}
+
+	protected <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, tasks.size())));
+		try {
+			List<T> results = new ArrayList<>();
+			for (Future<T> f : pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+			return results;
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted", ie);
+		}
+		catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if ( cause instanceof IOException ) throw new UncheckedIOException((IOException)cause);
+			if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
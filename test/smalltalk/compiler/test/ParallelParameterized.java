@@ -0,0 +1,40 @@
+package smalltalk.compiler.test;
+
+import org.junit.runners.Parameterized;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** A {@link Parameterized} runner that runs the tests for all parameter
+ *  sets concurrently, a thread per processor, so golden-sample tests
+ *  like {@link TestCodeGen} take about as long as the slowest samples,
+ *  not all of them. Results are still reported per sample. The tests
+ *  mustn't share mutable state.
+ */
+public class ParallelParameterized extends Parameterized {
+	public ParallelParameterized(Class<?> klass) throws Throwable {
+		super(klass);
+		setScheduler(new RunnerScheduler() {
+			private final ExecutorService pool =
+				Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+			@Override
+			public void schedule(Runnable childStatement) {
+				pool.submit(childStatement);
+			}
+
+			@Override
+			public void finished() {
+				pool.shutdown();
+				try {
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,151 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.SmalltalkParser;
+import smalltalk.compiler.ast.ASTCache;
+import smalltalk.compiler.ast.SourceChunks;
+import smalltalk.compiler.bench.Corpus;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Compiling from cached ASTs must produce exactly what parsing does */
+public class TestASTCache extends BaseTest {
+	Path dir;
+
+	@Before public void createCache() throws IOException {
+		dir = Files.createTempDirectory("astcache");
+	}
+
+	@After public void deleteCache() throws IOException {
+		Files.list(dir).forEach(f -> f.toFile().delete());
+		Files.delete(dir);
+	}
+
+	@Test public void testSamplesSameColdAndWarm() throws IOException {
+		for (Object[] sample : getAllTestDescriptors("CodeGen")) {
+			checkSame(sample[0].toString(), (String)sample[1]);
+		}
+	}
+
+	@Test public void testCorpusSameColdAndWarm() throws IOException {
+		checkSame("corpus", Corpus.generate(10));
+	}
+
+	@Test public void testSameErrors() throws IOException {
+		checkSame("redef", "class T [ f [ |x x| [:x | x := 1] ] ]");
+		checkSame("unknown", "class T [ f [ [x := 1. ^y] ] ] z := 3.");
+		checkSame("assign to class", "class T [ f [ T := 1 ] ]");
+		checkSame("syntax error", "class A [ f [ ^1 ] ] class T [ f [ ^ ] ]");
+	}
+
+	@Test public void testWarmCompileDoesNotParse() throws IOException {
+		String input = Corpus.generate(5);
+		Compiler cold = cachingCompiler();
+		cold.compile("corpus", input);
+		assertEquals(0, cold.stats.astCacheHits);
+		assertEquals(6, cold.stats.astCacheMisses); // 5 classes + main
+
+		Compiler warm = new Compiler() {
+			@Override
+			protected <T extends ParserRuleContext> T parse(TokenSource lexer, Function<SmalltalkParser,T> rule) {
+				throw new AssertionError("cache hit should not parse");
+			}
+		};
+		warm.astCache = new ASTCache(dir);
+		warm.compile("corpus", input);
+		assertEquals(6, warm.stats.astCacheHits);
+		assertEquals(0, warm.stats.astCacheMisses);
+	}
+
+	@Test public void testEditedClassMissesOthersHit() throws IOException {
+		String a = "class A [ |x| f [ ^x ] ]\n";
+		String b = "class B : A [ g [ ^x + 1 ] ]\n";
+		cachingCompiler().compile("t.st", a + b + "B new g.\n");
+		Compiler c = cachingCompiler();
+		c.compile("t.st", a + "\"moved\"\n" + b.replace("1", "2") + "B new g.\n");
+		assertEquals(2, c.stats.astCacheHits); // A and main
+		assertEquals(1, c.stats.astCacheMisses);
+	}
+
+	@Test public void testSyntaxErrorNotCached() throws IOException {
+		String input = "class A [ f [ ^ ] ] class B [ g [ ^1 ] ]";
+		Compiler c = cachingCompiler();
+		STSymbolTable symtab = c.compile("t.st", input);
+		assertEquals(1, c.errors.size());
+		assertNull(symtab.GLOBALS.resolve("A"));
+		assertNull(symtab.GLOBALS.resolve("B")); // no code for a broken file
+		assertEquals(2, Files.list(dir).count()); // B and (empty) main
+
+		c = cachingCompiler(); // still an error once B and main hit
+		c.compile("t.st", input);
+		assertEquals(1, c.errors.size());
+		assertEquals(2, c.stats.astCacheHits);
+	}
+
+	@Test public void testSplitSkipsBracketsInLiterals() {
+		String input =
+			"\"a comment ] with class [\" class A [ f [ ^'x]' , $] printString ] ]\n" +
+			"class B [ \"[\" g [ ^$' ] ]\n" +
+			"A new f.";
+		List<SourceChunks.Chunk> chunks = SourceChunks.split(input);
+		assertEquals(3, chunks.size());
+		assertEquals("class A [ f [ ^'x]' , $] printString ] ]", chunks.get(0).text);
+		assertEquals("class B [ \"[\" g [ ^$' ] ]", chunks.get(1).text);
+		assertEquals(2, chunks.get(1).line);
+		assertEquals("\nA new f.", chunks.get(2).text);
+		assertNull(SourceChunks.split("class A [ f [ ^1 ]"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testDebugInfoRejected() throws IOException {
+		Compiler c = cachingCompiler();
+		c.genDbg = true;
+		c.compile("t.st", "class A [ f [ ^1 ] ]");
+	}
+
+	/** Compare disassembly and also the .sto JSON, which has the escape
+	 *  flags and max stack depth of every method and block.
+	 */
+	public void checkSame(String name, String input) throws IOException {
+		Compiler plain = new Compiler();
+		STSymbolTable symtab = plain.compile("<string>", input);
+		String expected = TestFusedPipeline.toTestString(symtab);
+		String expectedObjectCode = serialize(symtab);
+		for (String pass : new String[] {"cold", "warm"}) {
+			Compiler cached = cachingCompiler();
+			STSymbolTable cachedSymtab = cached.compile("<string>", input);
+			assertEquals(name+" "+pass, expected, TestFusedPipeline.toTestString(cachedSymtab));
+			assertEquals(name+" "+pass, expectedObjectCode, serialize(cachedSymtab));
+			assertEquals(name+" "+pass, plain.errors, cached.errors);
+		}
+	}
+
+	public static String serialize(STSymbolTable symtab) {
+		StringBuilder buf = new StringBuilder();
+		for (STClass cl : STC.getCompiledClasses(symtab)) {
+			buf.append(cl.serialize()).append('\n');
+		}
+		return buf.toString();
+	}
+
+	Compiler cachingCompiler() throws IOException {
+		Compiler c = new Compiler();
+		c.astCache = new ASTCache(dir);
+		return c;
+	}
+}
@@ -0,0 +1,128 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestBlockEscape extends BaseTest {
+	@Test public void testBlockUsingOnlyItsArgIsClean() {
+		String input =
+		"class T [" +
+		"    foo [ ^[:v | v * 2] ]" +
+		"]";
+		STCompiledBlock blk = getBlock(input, "T", "foo", 0);
+		assertTrue(blk.isClean());
+	}
+
+	@Test public void testBlockLocalIsClean() {
+		String input =
+		"class T [" +
+		"    foo [ ^[:v | |w| w := v. w] ]" +
+		"]";
+		assertTrue(getBlock(input, "T", "foo", 0).isClean());
+	}
+
+	@Test public void testOuterLocal() {
+		String input =
+		"class T [" +
+		"    foo: x [ ^[:v | v + x] ]" +
+		"]";
+		STCompiledBlock blk = getBlock(input, "T", "foo:", 0);
+		assertEquals("true false false", flags(blk));
+	}
+
+	@Test public void testStoreToOuterLocal() {
+		String input =
+		"class T [" +
+		"    foo [ |x| [x := 1] value. ^x ]" +
+		"]";
+		assertEquals("true false false", flags(getBlock(input, "T", "foo", 0)));
+	}
+
+	@Test public void testSelfAndField() {
+		String input =
+		"class T [" +
+		"    |f|" +
+		"    foo [ [self bar]. [f]. [f := 1]. [super bar] ]" +
+		"]";
+		for (int i=0; i<4; i++) {
+			assertEquals("false true false", flags(getBlock(input, "T", "foo", i)));
+		}
+	}
+
+	@Test public void testNonLocalReturn() {
+		String input =
+		"class T [" +
+		"    foo [ [^99] value ]" +
+		"]";
+		assertEquals("false false true", flags(getBlock(input, "T", "foo", 0)));
+	}
+
+	@Test public void testNestedBlockPropagatesToEnclosing() {
+		String input =
+		"class T [" +
+		"    foo: x [ ^[:a | [:b | b + x]] ]" +
+		"]";
+		assertEquals("true false false", flags(getBlock(input, "T", "foo:", 0)));
+		assertEquals("true false false", flags(getBlock(input, "T", "foo:", 1)));
+	}
+
+	@Test public void testRefToEnclosingBlockLocalOnlyEscapesInner() {
+		String input =
+		"class T [" +
+		"    foo [ ^[:a | [:b | b + a]] ]" +
+		"]";
+		assertTrue(getBlock(input, "T", "foo", 0).isClean());
+		assertEquals("true false false", flags(getBlock(input, "T", "foo", 1)));
+	}
+
+	@Test public void testNestedReturnAndSelfPropagate() {
+		String input =
+		"class T [" +
+		"    foo [ [:a | [:b | ^self]] ]" +
+		"]";
+		assertEquals("false true true", flags(getBlock(input, "T", "foo", 0)));
+		assertEquals("false true true", flags(getBlock(input, "T", "foo", 1)));
+	}
+
+	@Test public void testFlagsSerialized() {
+		String input =
+		"class T [" +
+		"    foo [ ^[:v | v * 2] ]" +
+		"]";
+		STCompiledBlock blk = getBlock(input, "T", "foo", 0);
+		assertFalse(blk.serialize().getBoolean("refsOuterLocals"));
+		assertFalse(blk.serialize().getBoolean("refsSelf"));
+		assertFalse(blk.serialize().getBoolean("hasNonLocalReturn"));
+	}
+
+	@Test public void testHomeMethod() {
+		String input =
+		"class T [" +
+		"    foo [ ^[:a | [:b | ^b]] ]" +
+		"]";
+		STCompiledBlock blk = getBlock(input, "T", "foo", 1);
+		assertEquals("T>>foo", blk.homeMethod);
+		assertEquals(2, blk.homeDepth);
+		assertEquals("T>>foo", blk.serialize().getString("homeMethod"));
+		assertEquals(1, getBlock(input, "T", "foo", 0).homeDepth);
+	}
+
+	public static STCompiledBlock getBlock(String input, String className, String methodName, int blockIndex) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		assertEquals("[]", c.errors.toString());
+		STClass cl = (STClass)symtab.GLOBALS.resolve(className);
+		return cl.resolveMethod(methodName).compiledBlock.blocks[blockIndex];
+	}
+
+	public static String flags(STCompiledBlock blk) {
+		return blk.refsOuterLocals+" "+blk.refsSelf+" "+blk.hasNonLocalReturn;
+	}
+}
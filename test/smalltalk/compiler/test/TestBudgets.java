@@ -0,0 +1,46 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBudgets extends BaseTest {
+	/** Sizes are deterministic so they're always checked. Times depend on
+	 *  the machine so run with -Dbudget.times=true to check them too,
+	 *  e.g., on the machine the budgets were measured on.
+	 */
+	@Test public void testReferenceCorpusWithinBudgets() throws Exception {
+		boolean times = Boolean.parseBoolean(System.getProperty("budget.times", "false"));
+		Map<String,Double> measured = BudgetCheck.measure(times);
+		Map<String,Double> budgets = BudgetCheck.readBudgets();
+		String report = BudgetCheck.getReport(measured, budgets);
+		assertTrue("\n"+report, BudgetCheck.getOverBudget(measured, budgets).isEmpty());
+	}
+
+	@Test public void testOverBudgetReport() {
+		Map<String,Double> budgets = new LinkedHashMap<>();
+		budgets.put("tolerance", 0.02);
+		budgets.put("bytecodeBytes", 1000.0);
+		budgets.put("literals", 100.0);
+		budgets.put("totalMillis", 10.0);
+		budgets.put("totalMillis.tolerance", 0.5);
+		Map<String,Double> measured = new LinkedHashMap<>();
+		measured.put("bytecodeBytes", 1021.0); // limit 1020
+		measured.put("literals", 102.0);       // limit 102
+		measured.put("totalMillis", 14.5);     // limit 15
+		measured.put("stoBytes", 5000.0);      // no budget
+		assertEquals("[bytecodeBytes]", BudgetCheck.getOverBudget(measured, budgets).toString());
+		String expecting =
+			"metric                budget        limit       actual   change\n" +
+			"bytecodeBytes           1000         1020         1021    +2.1%  OVER BUDGET\n" +
+			"literals                 100          102          102    +2.0%\n" +
+			"totalMillis               10           15       14.500   +45.0%\n" +
+			"stoBytes                   -            -         5000\n" +
+			"over budget: bytecodeBytes\n";
+		assertEquals(expecting, BudgetCheck.getReport(measured, budgets));
+	}
+}
@@ -0,0 +1,157 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.BytecodeVerifier;
+import smalltalk.compiler.Code;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+import smalltalk.vm.BlockContext;
+import smalltalk.vm.STMetaClassObject;
+import smalltalk.vm.STOLoader;
+import smalltalk.vm.VMException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestBytecodeVerifier extends BaseTest {
+	public static final String input =
+		"class T [\n" +
+		"   sum: n [\n" +
+		"      |s|\n" +
+		"      s := 0.\n" +
+		"      1 to: n do: [:i | s := s + (i * (i + 1))].\n" +
+		"      ^s\n" +
+		"   ]\n" +
+		"]\n";
+
+	@Test public void testMaxStackOfCompiledCode() {
+		STClass t = compileT();
+		STCompiledBlock sum = t.resolveMethod("sum:").compiledBlock;
+		// 1 n [...] to:do:
+		assertEquals(3, sum.maxStack);
+		// s i i 1 + * +
+		assertEquals(4, sum.blocks[0].maxStack);
+		assertEquals(3, sum.serialize().getInt("maxStack"));
+	}
+
+	@Test public void testLoaderComputesMaxStack() {
+		STOLoader loader = new STOLoader();
+		STMetaClassObject t = loader.load(compileT().serialize());
+		assertEquals(3, t.methods[0].maxStack);
+		assertEquals(4, t.methods[0].blocks[0].maxStack);
+	}
+
+	@Test public void testUnverifiedLoadTrustsObjectFile() {
+		STClass t = compileT();
+		t.resolveMethod("sum:").compiledBlock.maxStack = 7;
+		STOLoader loader = new STOLoader();
+		loader.verify = false;
+		assertEquals(7, loader.load(t.serialize()).methods[0].maxStack);
+	}
+
+	@Test public void testContextStackIsMaxStack() {
+		STOLoader loader = new STOLoader();
+		STMetaClassObject t = loader.load(compileT().serialize());
+		BlockContext ctx = new BlockContext(t.methods[0], null, null);
+		assertEquals(3, ctx.stack.length);
+	}
+
+	@Test public void testWrongMaxStackReported() {
+		STClass t = compileT();
+		STCompiledBlock sum = t.resolveMethod("sum:").compiledBlock;
+		sum.blocks[0].maxStack = 3;
+		BytecodeVerifier verifier = new BytecodeVerifier(t.stringTable.size());
+		verifier.verify(sum);
+		assertEquals("[sum:>>sum:-block0: maxStack is 3 but code needs 4]", verifier.errors.toString());
+	}
+
+	@Test public void testLoaderRejectsBadCode() {
+		STClass t = compileT();
+		STCompiledBlock sum = t.resolveMethod("sum:").compiledBlock;
+		sum.blocks[0].bytecode = code(Compiler.push_local(2, 0), Compiler.block_return());
+		try {
+			new STOLoader().load(t.serialize());
+			fail("expected VMException");
+		}
+		catch (VMException e) {
+			assertEquals("bad bytecode in class T: sum:>>sum:-block0 at 0: scope 2 but only 1 enclosing scopes",
+			             e.getMessage());
+		}
+	}
+
+	@Test public void testLiteralOutOfRange() {
+		String expecting = "[m at 0: literal 3 out of range 0..2]";
+		assertEquals(expecting, verify(3, code(Compiler.push_literal(3), Compiler.method_return())));
+	}
+
+	@Test public void testLocalOutOfRange() {
+		String expecting = "[m-block0 at 0: local 2 out of range for m with 2 args and locals]";
+		assertEquals(expecting, verify(0,
+		                               code(Compiler.block((short)0), Compiler.method_return()),
+		                               code(Compiler.push_local(1, 2), Compiler.block_return())));
+	}
+
+	@Test public void testNoSuchBlock() {
+		String expecting = "[m at 0: block 1 but method has 1 blocks]";
+		assertEquals(expecting, verify(0,
+		                               code(Compiler.block((short)1), Compiler.method_return()),
+		                               code(Compiler.push_nil(), Compiler.block_return())));
+	}
+
+	@Test public void testUnbalancedReturn() {
+		String expecting = "[m at 2: return with stack depth 2]";
+		assertEquals(expecting, verify(0, code(Compiler.push_nil(), Compiler.push_self(), Compiler.method_return())));
+	}
+
+	@Test public void testUnderflow() {
+		String expecting = "[m at 1: send pops 2 but stack depth is 1]";
+		assertEquals(expecting, verify(1, code(Compiler.push_self(), Compiler.send(1, 0), Compiler.method_return())));
+	}
+
+	@Test public void testBlockReturnInMethodAndMissingReturn() {
+		String expecting = "[m at 3: block_return in a method, m-block0 at 1: code doesn't end with return or block_return]";
+		assertEquals(expecting, verify(0,
+		                               code(Compiler.block((short)0), Compiler.block_return()),
+		                               code(Compiler.push_nil())));
+	}
+
+	@Test public void testBlockCreatedByLaterBlockAndOrphan() {
+		// m creates block1, which creates block0; nothing creates block2
+		String expecting = "[m-block0 at 0: local 2 out of range for m with 2 args and locals, " +
+		                   "m-block2 at 1: code doesn't end with return or block_return]";
+		assertEquals(expecting, verify(0,
+		                               code(Compiler.block((short)1), Compiler.method_return()),
+		                               code(Compiler.push_local(2, 2), Compiler.block_return()),
+		                               code(Compiler.block((short)0), Compiler.block_return()),
+		                               code(Compiler.push_nil())));
+	}
+
+	/** Verify method m, with 2 args and locals, and its blocks code[1..], with none */
+	public static String verify(int numLiterals, byte[]... code) {
+		String[] names = new String[code.length];
+		int[] numLocals = new int[code.length];
+		names[0] = "m";
+		numLocals[0] = 2;
+		for (int i=1; i<code.length; i++) {
+			names[i] = "m-block"+(i-1);
+		}
+		BytecodeVerifier verifier = new BytecodeVerifier(numLiterals);
+		verifier.verify(names, code, numLocals);
+		return verifier.errors.toString();
+	}
+
+	public static byte[] code(Code... instrs) {
+		Code code = new Code();
+		for (Code c : instrs) code = code.join(c);
+		return code.bytes();
+	}
+
+	public static STClass compileT() {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		assertEquals("[]", c.errors.toString());
+		return (STClass)symtab.GLOBALS.resolve("T");
+	}
+}
@@ -0,0 +1,88 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestClassInterfaces extends BaseTest {
+	public static final String library =
+		"class Collection [\n" +
+		"   |size items|\n" +
+		"   class new [ ^super new init ]\n" +
+		"   init [ size := 0 ]\n" +
+		"   at: i put: v [ ^items ]\n" +
+		"   count [ ^size ]\n" +
+		"]\n";
+
+	public static final String program =
+		"class Stack : Collection [\n" +
+		"   |top|\n" +
+		"   push: x [ top := x. size := size + 1. ^self at: size put: x ]\n" +
+		"   pop [ ^items ]\n" +
+		"]\n";
+
+	@Test public void testInterfaceRoundTrip() {
+		STSymbolTable symtab = new Compiler().compile("<string>", library);
+		STClass orig = (STClass)symtab.GLOBALS.resolve("Collection");
+		assertEquals("{\"name\":\"Collection\",\"superClassName\":\"Object\",\"fields\":[\"size\",\"items\"]," +
+		             "\"methods\":[{\"name\":\"new\",\"nargs\":0,\"isClassMethod\":true}," +
+		             "{\"name\":\"init\",\"nargs\":0},{\"name\":\"at:put:\",\"nargs\":2},{\"name\":\"count\",\"nargs\":0}]}",
+		             orig.serializeInterface().toString());
+
+		STClass cl = STClass.fromInterface(orig.serializeInterface());
+		assertTrue(cl.fromInterface);
+		assertEquals("Object", cl.getSuperClassName());
+		assertEquals(1, cl.getFieldIndex("items"));
+		STMethod atPut = cl.resolveMethod("at:put:");
+		assertEquals(2, atPut.nargs());
+		assertTrue(cl.resolveMethod("new").isClassMethod);
+		assertEquals(orig.serializeInterface(), cl.serializeInterface());
+	}
+
+	@Test public void testSubclassSameCodeAsWithSource() {
+		STSymbolTable withSource = new Compiler().compile("<string>", library+program);
+
+		STSymbolTable lib = new Compiler().compile("<string>", library);
+		STSymbolTable preloaded = new STSymbolTable();
+		preloaded.preloadInterface(((STClass)lib.GLOBALS.resolve("Collection")).serializeInterface());
+		Compiler c = new Compiler(preloaded);
+		c.compile("<string>", program);
+		assertEquals("[]", c.errors.toString());
+
+		assertEquals(((STClass)withSource.GLOBALS.resolve("Stack")).toTestString(),
+		             ((STClass)preloaded.GLOBALS.resolve("Stack")).toTestString());
+	}
+
+	@Test public void testSTCWritesAndPreloadsInterfaceFiles() throws Exception {
+		Path dir = Files.createTempDirectory("sti");
+		STSymbolTable lib = new Compiler().compile("<string>", library);
+		STC.writeInterfaceFiles(dir.toString(), lib);
+		assertTrue(Files.exists(dir.resolve("Collection.sti")));
+
+		STSymbolTable preloaded = new STSymbolTable();
+		List<STClass> classes = preloaded.preloadInterfaces(dir);
+		assertEquals(1, classes.size());
+		Compiler c = new Compiler(preloaded);
+		c.compile("<string>", program);
+
+		// only compiled classes are written
+		Path out = Files.createTempDirectory("sto");
+		STC.writeObjectFiles(out.toString(), "<string>", preloaded);
+		assertTrue(Files.exists(out.resolve("Stack.sto")));
+		assertTrue(!Files.exists(out.resolve("Collection.sto")));
+		for (Path d : new Path[] {dir, out}) {
+			Files.list(d).forEach(f -> f.toFile().delete());
+			Files.delete(d);
+		}
+	}
+}
@@ -8,7 +8,7 @@ import java.util.Collection;
 
 import static org.junit.Assert.assertEquals;
 
-@RunWith(Parameterized.class)
+@RunWith(ParallelParameterized.class)
 public class TestCodeGen extends BaseTest {
 	private String fileName;
 	private String code;
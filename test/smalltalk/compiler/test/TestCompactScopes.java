@@ -0,0 +1,100 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.LocalScope;
+import org.junit.Test;
+import smalltalk.compiler.symbols.STArg;
+import smalltalk.compiler.symbols.STBlock;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STField;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STVariable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestCompactScopes extends BaseTest {
+	@Test public void testDefineAndResolve() {
+		STClass c = new STClass("T", "Object");
+		c.define(new STField("f"));
+		STMethod m = new STMethod("at:put:", null);
+		c.define(m);
+		m.define(new STArg("i"));
+		m.define(new STArg("v"));
+		m.define(new STVariable("x"));
+		STBlock b = new STBlock(m, null);
+		m.define(b);
+		b.define(new STArg("y"));
+
+		assertEquals(2, m.nargs());
+		assertEquals(1, m.nlocals());
+		assertEquals(4, m.getNumberOfSymbols());
+		assertEquals(2, m.getLocalIndex("x"));
+		assertEquals("[i, v, x, at:put:-block0:[y]]", m.getSymbols().toString());
+		assertEquals("[i, v, x, at:put:-block0]", m.getSymbolNames().toString());
+		assertSame(b, m.getNestedScopes().get(0));
+		assertSame(m, b.resolve("x").getScope());
+		assertSame(c, b.resolve("f").getScope());
+		assertEquals(0, b.resolve("y").getInsertionOrderNumber());
+		assertNull(b.resolve("z"));
+		assertEquals(5, m.getAllSymbols().size());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicate() {
+		STMethod m = new STMethod("f", null);
+		m.define(new STVariable("x"));
+		m.define(new STVariable("x"));
+	}
+
+	@Test public void testGrows() {
+		STMethod m = new STMethod("f", null);
+		for (int i=0; i<20; i++) {
+			m.define(new STVariable("x"+i));
+		}
+		for (int i=0; i<20; i++) {
+			assertEquals(i, m.getLocalIndex("x"+i));
+		}
+	}
+
+	@Test public void testNoMapsOrListsPerScope() throws Exception {
+		STMethod m = new STMethod("f", null);
+		m.define(new STArg("a"));
+		m.define(new STVariable("x"));
+		STBlock b = new STBlock(m, null);
+		m.define(b);
+		b.define(new STArg("y"));
+		for (Object scope : new Object[] {m, b}) {
+			for (Class<?> c = scope.getClass(); c!=Object.class; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if ( Modifier.isStatic(f.getModifiers()) ) continue;
+					f.setAccessible(true);
+					Object value = f.get(scope);
+					assertFalse(c.getSimpleName()+"."+f.getName(), value instanceof Map || value instanceof Collection);
+				}
+			}
+		}
+	}
+
+	@Test public void testNestBareScope() {
+		STMethod m = new STMethod("f", null);
+		STBlock b = new STBlock(m, null);
+		m.define(b);
+		LocalScope inner = new LocalScope(m);
+		m.nest(inner);
+		assertEquals(Arrays.asList(b, inner), m.getNestedScopes());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNestScopedSymbolMustBeDefined() {
+		STMethod m = new STMethod("f", null);
+		m.nest(new STBlock(m, null));
+	}
+}
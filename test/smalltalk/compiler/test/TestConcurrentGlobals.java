@@ -0,0 +1,135 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.Symbol;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STGlobalScope;
+import smalltalk.compiler.symbols.STGlobalScope.DefineResult;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestConcurrentGlobals extends BaseTest {
+	@Test public void testLowerUnitWinsEitherOrder() {
+		for (boolean lowFirst : new boolean[] {true, false}) {
+			STGlobalScope globals = new STGlobalScope();
+			STClass t1 = new STClass("T", "Object");
+			STClass t2 = new STClass("T", "Object");
+			if ( lowFirst ) {
+				assertSame(DefineResult.DEFINED, globals.define(t1, 1));
+				assertSame(DefineResult.REDEFINED_IN_OTHER_UNIT, globals.define(t2, 2));
+			}
+			else {
+				assertSame(DefineResult.DEFINED, globals.define(t2, 2));
+				assertSame(DefineResult.DEFINED, globals.define(t1, 1));
+			}
+			assertSame(t1, globals.resolve("T"));
+			assertEquals(1, globals.getRedefinitions().size());
+			assertSame(t2, globals.getRedefinitions().get(0).sym);
+			assertEquals(2, globals.getRedefinitions().get(0).unit);
+			assertSame(DefineResult.DUPLICATE_IN_UNIT, globals.define(new STClass("T", "Object"), 1));
+		}
+	}
+
+	@Test public void testOrderIndependentOfThreads() throws Exception {
+		STGlobalScope globals = new STGlobalScope();
+		List<Thread> threads = new ArrayList<>();
+		for (int u=8; u>=1; u--) {
+			int unit = u;
+			threads.add(new Thread(() -> {
+				for (int i=0; i<100; i++) {
+					globals.define(new STClass("C"+unit+"_"+i, "Object"), unit);
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread t : threads) t.join();
+		List<String> expected = new ArrayList<>();
+		for (int u=1; u<=8; u++) {
+			for (int i=0; i<100; i++) expected.add("C"+u+"_"+i);
+		}
+		List<String> names = new ArrayList<>();
+		for (Symbol s : globals.getSymbols()) names.add(s.getName());
+		assertEquals(expected, names);
+	}
+
+	@Test public void testCompileAllDeterministic() throws IOException {
+		List<Path> files = writeFiles(
+			"class B : A [ |y| g [ ^x + y ] ] class T [ f [ ^1 ] ]",
+			"class A [ |x| f [ ^x ] ] class T [ f [ ^2 ] ]",
+			"class C : B [ |z| h [ ^x + y + z ] ] A new f."
+		);
+		String expectedClasses = null;
+		for (int i=0; i<10; i++) {
+			STSymbolTable symtab = new STSymbolTable();
+			List<Compiler> compilers = Compiler.compileAll(symtab, files, 3);
+			assertEquals("[]", compilers.get(0).errors.toString());
+			assertEquals("[redefinition of T]", compilers.get(1).errors.toString());
+			assertEquals("[]", compilers.get(2).errors.toString());
+			String classes = toTestString(symtab);
+			if ( expectedClasses==null ) expectedClasses = classes;
+			assertEquals(expectedClasses, classes);
+		}
+		// same code as one file where A comes first
+		STSymbolTable one = new Compiler().compile("<string>",
+			"class B : A [ |y| g [ ^x + y ] ] class T [ f [ ^1 ] ] class A [ |x| f [ ^x ] ]" +
+			"class C : B [ |z| h [ ^x + y + z ] ] A new f.");
+		assertEquals(toTestString(one), expectedClasses);
+	}
+
+	@Test public void testMainClassFromLowestUnit() throws IOException {
+		List<Path> files = writeFiles("1 print.", "2 print.");
+		STSymbolTable symtab = new STSymbolTable();
+		List<Compiler> compilers = Compiler.compileAll(symtab, files, 2);
+		assertEquals("[]", compilers.get(0).errors.toString());
+		assertEquals("[redefinition of MainClass]", compilers.get(1).errors.toString());
+		assertEquals(Collections.singletonList("MainClass"), new ArrayList<>(symtab.GLOBALS.getSymbolNames()));
+	}
+
+	@Test public void testSTCMultipleFilesRunsPostCompileSteps() throws Exception {
+		List<Path> files = writeFiles("class A [ f [ ^1 ] ]", "class B : A [ g [ ^self f ] ]");
+		Path out = files.get(0).getParent();
+		STC.main(new String[] {"-dis", "-interfaces", "-o", out.toString(),
+		                       files.get(0).toString(), files.get(1).toString()});
+		for (String name : new String[] {"A.sto", "B.sto", "A.sti", "B.sti", "A-teststring.txt", "B-teststring.txt"}) {
+			Path f = out.resolve(name);
+			f.toFile().deleteOnExit();
+			assertTrue(name, Files.exists(f));
+		}
+		assertTrue(new String(Files.readAllBytes(out.resolve("B-teststring.txt")), StandardCharsets.UTF_8)
+		           .contains("name: g"));
+	}
+
+	static List<Path> writeFiles(String... sources) throws IOException {
+		Path dir = Files.createTempDirectory("units");
+		List<Path> files = new ArrayList<>();
+		for (int i=0; i<sources.length; i++) {
+			Path f = dir.resolve("unit"+i+".st");
+			Files.write(f, sources[i].getBytes(StandardCharsets.UTF_8));
+			f.toFile().deleteOnExit();
+			files.add(f);
+		}
+		dir.toFile().deleteOnExit();
+		return files;
+	}
+
+	static String toTestString(STSymbolTable symtab) {
+		StringBuilder buf = new StringBuilder();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			buf.append(((STClass)s).toTestString()).append('\n');
+		}
+		return buf.toString();
+	}
+}
@@ -1,6 +1,5 @@
 package smalltalk.compiler.test;
 
-import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -9,7 +8,7 @@ import java.util.Collection;
 
 import static org.junit.Assert.assertEquals;
 
-@RunWith(Parameterized.class)
+@RunWith(ParallelParameterized.class)
 public class TestDbgInstruction extends BaseTest {
 	private String fileName;
 	private String code;
@@ -21,7 +20,6 @@ public class TestDbgInstruction extends BaseTest {
 		this.expecting = expecting;
 	}
 
-	@Ignore
 	@Test
 	public void testCode() throws Exception {
 		boolean genDbg = true;
@@ -29,6 +27,14 @@ public class TestDbgInstruction extends BaseTest {
 		assertEquals(expecting, result);
 	}
 
+	/** Line tables are out of line so -dbg mustn't change the code */
+	@Test
+	public void testSameCodeWithoutDbg() throws Exception {
+		String withDbg = compile(fileName, code, true);
+		String withoutDbg = compile(fileName, code, false);
+		assertEquals(withDbg.replaceAll("(?m)^ *lines: .*\\n", ""), withoutDbg);
+	}
+
 	@Parameterized.Parameters(name="{0}")
 	public static Collection<Object[]> getAllTestDescriptors() {
 		return getAllTestDescriptors("DbgInstruction");
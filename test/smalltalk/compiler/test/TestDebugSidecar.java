@@ -0,0 +1,132 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.symbols.STSymbolTable;
+import smalltalk.vm.STMetaClassObject;
+import smalltalk.vm.STOLoader;
+import smalltalk.vm.VMCompiledBlock;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDebugSidecar extends BaseTest {
+	public static final String input =
+		"class T [\n" +
+		"   sum: n [\n" +
+		"      |s|\n" +
+		"      s := 0.\n" +
+		"      1 to: n do: [:i | s := s + i].\n" +
+		"      ^s\n" +
+		"   ]\n" +
+		"]\n";
+
+	@Test public void testStripLeavesDebugInfoOnlyInSidecar() throws Exception {
+		Path dir = compileTo(input, true, true);
+		JsonObject sto = read(dir.resolve("T.sto"));
+		assertFalse(sto.containsKey("sourceFile"));
+		JsonObject sum = sto.getJsonArray("methods").getJsonObject(0);
+		assertFalse(sum.containsKey("lineTable"));
+
+		JsonObject dbg = read(dir.resolve("T.stdbg"));
+		assertEquals("T.st", dbg.getString("sourceFile"));
+		JsonObject sumDbg = dbg.getJsonArray("methods").getJsonObject(0);
+		assertEquals("T>>sum:", sumDbg.getString("qualifiedName"));
+		assertEquals("[\"n\",\"s\"]", sumDbg.getJsonArray("locals").toString());
+		assertEquals("[2,3,7,3]", sumDbg.getJsonArray("span").toString());
+		assertTrue(sumDbg.containsKey("lineTable"));
+		JsonObject blockDbg = sumDbg.getJsonArray("blocks").getJsonObject(0);
+		assertEquals("[\"i\"]", blockDbg.getJsonArray("locals").toString());
+		assertEquals("[5,18,5,34]", blockDbg.getJsonArray("span").toString());
+	}
+
+	@Test public void testUnstrippedKeepsLineTablesInObject() throws Exception {
+		Path dir = compileTo(input, true, false);
+		JsonObject sto = read(dir.resolve("T.sto"));
+		assertEquals("T.st", sto.getString("sourceFile"));
+		assertTrue(sto.getJsonArray("methods").getJsonObject(0).containsKey("lineTable"));
+		assertTrue(Files.exists(dir.resolve("T.stdbg")));
+	}
+
+	@Test public void testNoSidecarWithoutDbg() throws Exception {
+		Path dir = compileTo(input, false, true);
+		assertTrue(Files.exists(dir.resolve("T.sto")));
+		assertFalse(Files.exists(dir.resolve("T.stdbg")));
+		STMetaClassObject t = new STOLoader().load(dir.resolve("T.sto"));
+		assertEquals("T>>sum:", t.methods[0].getSourceLocation(0));
+	}
+
+	@Test public void testSidecarLoadedOnlyWhenNeeded() throws Exception {
+		Path dir = compileTo(input, true, true);
+		STOLoader loader = new STOLoader();
+		loader.loadDirectory(dir);
+		STMetaClassObject t = loader.classes.get("T");
+		VMCompiledBlock sum = t.methods[0];
+		assertNull(sum.lineTable);
+		assertNull(sum.localNames);
+		assertNull(t.sourceFile);
+
+		// 0000: push_int 0; 0005: store_local 0, 1
+		assertEquals("T>>sum: (T.st:4:6)", sum.getSourceLocation(5));
+		assertEquals("T.st", t.sourceFile);
+		assertEquals("[n, s]", Arrays.toString(sum.localNames));
+		assertNotNull(sum.blocks[0].lineTable);
+		assertEquals("[i]", Arrays.toString(sum.blocks[0].localNames));
+	}
+
+	@Test public void testRecompileWithoutDbgDeletesSidecar() throws Exception {
+		Path dir = compileTo(input, true, true);
+		assertTrue(Files.exists(dir.resolve("T.stdbg")));
+		compileTo(dir, input.replace("s := 0.", "s := 1."), false, false);
+		assertFalse(Files.exists(dir.resolve("T.stdbg")));
+	}
+
+	@Test public void testStaleSidecarIgnored() throws Exception {
+		Path old = compileTo(input, true, true);
+		Path dir = compileTo(input.replace("s := 0.", "s := 0. s := s."), true, true);
+		JsonObject sto = read(dir.resolve("T.sto"));
+		assertNotEquals(sto.getString("codeHash"), read(old.resolve("T.stdbg")).getString("codeHash"));
+		Files.copy(old.resolve("T.stdbg"), dir.resolve("T.stdbg"), StandardCopyOption.REPLACE_EXISTING);
+		STMetaClassObject t = new STOLoader().load(dir.resolve("T.sto"));
+		assertEquals("T>>sum:", t.methods[0].getSourceLocation(5));
+		assertNull(t.methods[0].localNames);
+	}
+
+	@Test public void testCodeHashSameStrippedOrNot() throws Exception {
+		Path stripped = compileTo(input, true, true);
+		Path unstripped = compileTo(input, true, false);
+		String hash = read(stripped.resolve("T.sto")).getString("codeHash");
+		assertEquals(hash, read(unstripped.resolve("T.sto")).getString("codeHash"));
+		assertEquals(hash, read(stripped.resolve("T.stdbg")).getString("codeHash"));
+	}
+
+	/** Compile src as T.st and write object files to a new directory */	/** Compile src as T.st and write object files to a new directory */
+	public static Path compileTo(String src, boolean genDbg, boolean strip) throws Exception {
+		return compileTo(Files.createTempDirectory("sto"), src, genDbg, strip);
+	}
+
+	public static Path compileTo(Path dir, String src, boolean genDbg, boolean strip) throws Exception {
+		Compiler c = new Compiler();
+		c.genDbg = genDbg;
+		STSymbolTable symtab = c.compile("T.st", src);
+		assertEquals("[]", c.errors.toString());
+		STC.writeObjectFiles(dir.toString(), "T.st", symtab, strip);
+		return dir;
+	}
+
+	public static JsonObject read(Path f) throws Exception {
+		return Json.createReader(Files.newBufferedReader(f)).readObject();
+	}
+}
@@ -0,0 +1,41 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDisassemblyOutput extends BaseTest {
+	public static final String input =
+		"class T [ foo [ ^'hi' size ] ]\n" +
+		"class U : T [ |x| bar: y [ x := [:z | z + y] ] ]\n" +
+		"T new foo\n";
+
+	@Test public void testOneFilePerClass() throws Exception {
+		STSymbolTable symtab = new Compiler().compile("p.st", input);
+		Path dir = Files.createTempDirectory("dis");
+		STC.disassembleOutput(dir.toString(), symtab);
+		for (String name : new String[] {"T", "U", "MainClass"}) {
+			STClass cl = (STClass)symtab.GLOBALS.resolve(name);
+			assertEquals(cl.toTestString(), read(dir.resolve(name+"-teststring.txt")));
+		}
+	}
+
+	@Test public void testAllClassesInOneFile() throws Exception {
+		STSymbolTable symtab = new Compiler().compile("p.st", input);
+		Path dir = Files.createTempDirectory("dis");
+		STC.disassembleOutput(dir.toString(), "p.st", symtab);
+		// same as the samples' -teststring.txt files
+		assertEquals(compile("p.st", input), read(dir.resolve("p.st-teststring.txt")));
+	}
+
+	static String read(Path f) throws Exception {
+		return new String(Files.readAllBytes(f), "UTF-8");
+	}
+}
@@ -0,0 +1,74 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.Symbol;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.bench.Corpus;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** The fused pipeline must produce exactly what the separate passes do */
+public class TestFusedPipeline extends BaseTest {
+	@Test public void testSamplesSameAsSeparatePasses() {
+		for (Object[] sample : getAllTestDescriptors("CodeGen")) {
+			checkSame(sample[0].toString(), (String)sample[1]);
+		}
+	}
+
+	@Test public void testCorpusSameAsSeparatePasses() {
+		checkSame("corpus", Corpus.generate(10));
+	}
+
+	@Test public void testForwardSuperclassFields() {
+		String input =
+			"class B : A [ |y| g [ ^x + y ] ]\n" +
+			"class A [ |x| f [ ^x ] ]\n";
+		checkSame("forward", input);
+	}
+
+	@Test public void testSameErrors() {
+		checkSame("redef", "class T [ f [ |x x| [:x | x := 1] ] ]");
+		checkSame("unknown", "class T [ f [ [x := 1. ^y] ] ] z := 3.");
+		checkSame("assign to class", "class T [ f [ T := 1 ] ]");
+	}
+
+	@Test public void testSyntaxErrorReportedNotThrown() {
+		String input = "class T [ foo [ ^ ] ]";
+		checkSame("syntax error", input);
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		assertEquals(1, c.errors.size());
+		assertTrue(c.errors.get(0), c.errors.get(0).startsWith("line 1:18 "));
+		assertNull(symtab.GLOBALS.resolve("T"));
+	}
+
+	@Test public void testSeparatePassesReportResolveTime() {
+		Compiler c = new Compiler();
+		c.separatePasses = true;
+		c.compile("<string>", "class T [ f [ |x| x := 1 ] ]");
+		Compiler fused = new Compiler();
+		fused.compile("<string>", "class T [ f [ |x| x := 1 ] ]");
+		assertEquals(0, fused.stats.resolveNanos);
+	}
+
+	public void checkSame(String name, String input) {
+		Compiler separate = new Compiler();
+		separate.separatePasses = true;
+		Compiler fused = new Compiler();
+		assertEquals(name, toTestString(separate.compile("<string>", input)),
+		             toTestString(fused.compile("<string>", input)));
+		assertEquals(name, separate.errors, fused.errors);
+	}
+
+	static String toTestString(STSymbolTable symtab) {
+		StringBuilder buf = new StringBuilder();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			buf.append(((STClass)s).toTestString()).append('\n');
+		}
+		return buf.toString();
+	}
+}
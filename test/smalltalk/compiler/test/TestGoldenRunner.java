@@ -0,0 +1,64 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestGoldenRunner extends BaseTest {
+	@Test public void testRunChecksAndTimesEverySampleInOrder() {
+		GoldenRunner runner = new GoldenRunner();
+		runner.warmup = 1;
+		runner.repeat = 1;
+		List<GoldenRunner.Sample> samples = new ArrayList<>();
+		for (int i=0; i<8; i++) {
+			String code = "class T"+i+" [ foo [ ^"+i+" ] ]";
+			samples.add(new GoldenRunner.Sample("T"+i+".st", code, compile("T"+i+".st", code)));
+		}
+		List<GoldenRunner.Result> results = runner.run(samples);
+		assertEquals(runner.getReport(results), 0, GoldenRunner.getFailures(results).size());
+		for (int i=0; i<samples.size(); i++) {
+			assertSame(samples.get(i), results.get(i).sample);
+			assertTrue(results.get(i).nanos>0);
+		}
+	}
+
+	@Test public void testMismatchReportsFirstDifference() {
+		GoldenRunner runner = new GoldenRunner();
+		String code = "class T [ foo [ ^1 ] ]";
+		String expecting = compile("T.st", code).replace("push_int       1", "push_int       2");
+		GoldenRunner.Result r = runner.run(new GoldenRunner.Sample("T.st", code, expecting));
+		assertFalse(r.passed());
+		String diff = r.getDiff();
+		assertTrue(diff, diff.matches("line 11:\n- +0000:  push_int +2\n\\+ +0000:  push_int +1"));
+		assertTrue(runner.getReport(Collections.singletonList(r)).contains("FAILED T.st line 11:"));
+	}
+
+	@Test public void testRegressionAgainstBaseline() throws Exception {
+		GoldenRunner runner = new GoldenRunner();
+		runner.repeat = 1;
+		String code = "class T [ foo [ ^1 ] ]";
+		GoldenRunner.Result r = runner.run(new GoldenRunner.Sample("T.st", code, compile("T.st", code)));
+		assertTrue(r.passed());
+		Path f = Files.createTempFile("baseline", ".txt");
+		GoldenRunner.writeBaseline(f, Collections.singletonList(r));
+		Map<String,Long> baseline = GoldenRunner.readBaseline(f);
+		assertEquals(Long.valueOf(r.nanos), baseline.get("T.st"));
+
+		r.baselineNanos = r.nanos;
+		assertFalse(runner.isRegression(r));
+		r.baselineNanos = r.nanos/10;
+		runner.minRegressionNanos = 0;
+		assertTrue(runner.isRegression(r));
+		assertTrue(runner.getReport(Collections.singletonList(r)).contains("REGRESSED T.st"));
+	}
+}
@@ -0,0 +1,195 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STSymbolTable;
+import smalltalk.vm.Interpreter;
+import smalltalk.vm.Primitive;
+import smalltalk.vm.STMetaClassObject;
+import smalltalk.vm.STObject;
+import smalltalk.vm.VMException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestInterpreter extends BaseTest {
+	@Test public void testArithmetic() {
+		String input =
+		"class T [" +
+		"    foo: x [ ^x * 2 + 1 ]" +
+		"]";
+		assertEquals(7, send(input, "T", "foo:", 3));
+	}
+
+	@Test public void testFieldsAndLocals() {
+		String input =
+		"class T [" +
+		"    |f|" +
+		"    foo: x [ |y| f := x. y := f + 1. ^[:z | z + y + f] value: 10 ]" +
+		"]";
+		assertEquals(15, send(input, "T", "foo:", 2));
+	}
+
+	@Test public void testRecursion() {
+		String input =
+		"class T [" +
+		"    fact: n [ ^n <= 1 ifTrue: [1] ifFalse: [n * (self fact: n - 1)] ]" +
+		"]";
+		assertEquals(120, send(input, "T", "fact:", 5));
+	}
+
+	@Test public void testNonLocalReturnFromBlock() {
+		String input =
+		"class T [" +
+		"    foo [ true ifTrue: [^99]. ^0 ]" +
+		"]";
+		assertEquals(99, send(input, "T", "foo"));
+	}
+
+	@Test public void testNonLocalReturnFromNestedBlock() {
+		String input =
+		"class T [" +
+		"    foo [ [:a | [:b | ^a + b] value: 2] value: 1. ^0 ]" +
+		"]";
+		assertEquals(3, send(input, "T", "foo"));
+	}
+
+	@Test public void testDeepNonLocalReturnUnwindsToHome() {
+		String input =
+		"class T [" +
+		"    nlr: n [ self down: n do: [^n]. ^nil ]" +
+		"    down: n do: blk [ ^n = 0 ifTrue: [blk value] ifFalse: [self down: n - 1 do: blk] ]" +
+		"    twice [ ^(self nlr: 50) + (self nlr: 10) ]" +
+		"]";
+		assertEquals(50, send(input, "T", "nlr:", 50));
+		assertEquals(60, send(input, "T", "twice"));
+	}
+
+	@Test public void testSuperSend() {
+		String input =
+		"class T [" +
+		"    foo [ ^1 ]" +
+		"]" +
+		"class U : T [" +
+		"    foo [ ^super foo + 10 ]" +
+		"]";
+		assertEquals(11, send(input, "U", "foo"));
+	}
+
+	@Test(expected=VMException.class)
+	public void testReturnToDeadHome() {
+		String input =
+		"class T [" +
+		"    blk [ ^[^1] ]" +
+		"    foo [ ^self blk value ]" +
+		"]";
+		send(input, "T", "foo");
+	}
+
+	@Test public void testPrimitiveMethod() {
+		String input =
+		"class T [" +
+		"    same: x <primitive:#Object_EQ>" +
+		"    isNothing <primitive:#Object_ISNIL>" +
+		"    foo [ ^self same: self ]" +
+		"    bar [ ^self isNothing ]" +
+		"]";
+		Compiler c = new Compiler();
+		Interpreter interp = new Interpreter(c.compile("<string>", input));
+		STMetaClassObject t = interp.loader.classes.get("T");
+		assertSame(Primitive.Object_EQ, t.resolveMethod(interp.selectors.lookup("same:")).primitive);
+		STObject receiver = interp.newInstance("T");
+		assertEquals(true, interp.send(receiver, "foo"));
+		assertEquals(false, interp.send(receiver, "bar"));
+	}
+
+	@Test public void testPrimitivesForBuiltinReceivers() {
+		String input =
+		"class T [" +
+		"    foo [ ^('ab', 'cd') size + 1.5 ]" +
+		"]";
+		assertEquals(5.5f, send(input, "T", "foo"));
+	}
+
+	@Test public void testUnknownPrimitiveReportedAtLoad() {
+		String input =
+		"class T [" +
+		"    f <primitive:#T_NOSUCHTHING>" +
+		"]";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		try {
+			new Interpreter(symtab);
+			fail("expecting load error");
+		}
+		catch (VMException e) {
+			assertEquals("unknown primitive T_NOSUCHTHING in T>>f", e.getMessage());
+		}
+	}
+
+	@Test public void testPrimitiveArityMismatchReportedAtLoad() {
+		String input =
+		"class T [" +
+		"    foo <primitive:#Object_EQ>" +
+		"    bar [ ^self foo ]" +
+		"]";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		try {
+			new Interpreter(symtab);
+			fail("expecting load error");
+		}
+		catch (VMException e) {
+			assertEquals("primitive Object_EQ takes 1 args but T>>foo takes 0", e.getMessage());
+		}
+	}
+
+	@Test public void testIntegerDivisionByZero() {
+		String input =
+		"class T [" +
+		"    div: x [ ^7 / x ]" +
+		"    mod: x [ ^7 \\\\ x ]" +
+		"]";
+		assertEquals(3, send(input, "T", "div:", 2));
+		assertEquals(1, send(input, "T", "mod:", 2));
+		for (String selector : new String[] {"div:", "mod:"}) {
+			try {
+				send(input, "T", selector, 0);
+				fail("expecting division by zero");
+			}
+			catch (VMException e) {
+				assertEquals(selector.equals("div:") ? "division by zero: 7 / 0" : "division by zero: 7 \\\\ 0",
+				             e.getMessage());
+			}
+		}
+	}
+
+	@Test public void testNumberEqualsNonNumber() {
+		String input =
+		"class T [" +
+		"    eq [ ^3 = nil ]" +
+		"    ne [ ^3 ~= 'x' ]" +
+		"    feq [ ^1.5 = nil ]" +
+		"    same [ ^3 = 3.0 ]" +
+		"]";
+		assertEquals(false, send(input, "T", "eq"));
+		assertEquals(true, send(input, "T", "ne"));
+		assertEquals(false, send(input, "T", "feq"));
+		assertEquals(true, send(input, "T", "same"));
+	}
+
+	@Test(expected=VMException.class)
+	public void testNumberLessThanNonNumber() {
+		send("class T [ lt [ ^3 < nil ] ]", "T", "lt");
+	}
+
+	public static Object send(String input, String className, String selector, Object... args) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		assertEquals("[]", c.errors.toString());
+		Interpreter interp = new Interpreter(symtab);
+		STObject receiver = interp.newInstance(className);
+		return interp.send(receiver, selector, args);
+	}
+}
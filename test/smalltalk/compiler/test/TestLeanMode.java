@@ -0,0 +1,84 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.DataAggregateSymbol;
+import org.antlr.symtab.FunctionSymbol;
+import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
+import org.junit.Test;
+import smalltalk.compiler.bench.Corpus;
+import smalltalk.compiler.symbols.STBlock;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestLeanMode extends BaseTest {
+	@Test public void testLeanDetachesDefNodes() {
+		CompilerWithHooks c = new CompilerWithHooks();
+		c.lean = true;
+		STSymbolTable symtab = c.compile("<string>", "class T [ foo [ ^[:x | x] ] ]");
+		STMethod foo = ((STClass)symtab.GLOBALS.resolve("T")).resolveMethod("foo");
+		assertNull(foo.getDefNode());
+		assertNull(((STBlock)foo.getSymbol("foo-block0")).getDefNode());
+		assertNull(c.getFileTree());
+		assertNull(c.getParser());
+		assertNotNull(foo.compiledBlock.bytecode);
+	}
+
+	@Test public void testDefaultKeepsParseTree() {
+		CompilerWithHooks c = new CompilerWithHooks();
+		STSymbolTable symtab = c.compile("<string>", "class T [ foo [ ^1 ] ]");
+		STMethod foo = ((STClass)symtab.GLOBALS.resolve("T")).resolveMethod("foo");
+		assertNotNull(foo.getDefNode());
+		assertNotNull(c.getFileTree());
+	}
+
+	@Test public void testLeanCodeIsTheSame() {
+		String input = Corpus.generate(5);
+		CompilerWithHooks normal = new CompilerWithHooks();
+		CompilerWithHooks lean = new CompilerWithHooks();
+		lean.lean = true;
+		assertEquals(toTestString(normal.compile("<string>", input)),
+		             toTestString(lean.compile("<string>", input)));
+	}
+
+	@Test public void testNoSymbolHoldsParseTree() {
+		CompilerWithHooks c = new CompilerWithHooks();
+		c.lean = true;
+		STSymbolTable symtab = c.compile("<string>", Corpus.generate(20));
+		assertNotNull(symtab.GLOBALS.resolve("LinkedList19"));
+		assertEquals("[]", getSymbolsWithDefNodes(symtab.GLOBALS, new ArrayList<>()).toString());
+		assertNull(c.getFileTree());
+		assertNull(c.getParser());
+
+		CompilerWithHooks normal = new CompilerWithHooks();
+		symtab = normal.compile("<string>", Corpus.generate(20));
+		assertFalse(getSymbolsWithDefNodes(symtab.GLOBALS, new ArrayList<>()).isEmpty());
+	}
+
+	static String toTestString(STSymbolTable symtab) {
+		StringBuilder buf = new StringBuilder();
+		symtab.GLOBALS.getSymbols().forEach(s -> buf.append(((STClass)s).toTestString()));
+		return buf.toString();
+	}
+
+	/** Add the names of symbols in scope, recursively, that still point at parse tree nodes */
+	static List<String> getSymbolsWithDefNodes(Scope scope, List<String> names) {
+		for (Symbol s : scope.getSymbols()) {
+			if ( (s instanceof FunctionSymbol && ((FunctionSymbol)s).getDefNode()!=null) ||
+			     (s instanceof DataAggregateSymbol && ((DataAggregateSymbol)s).getDefNode()!=null) )
+			{
+				names.add(s.getName());
+			}
+			if ( s instanceof Scope ) getSymbolsWithDefNodes((Scope)s, names);
+		}
+		return names;
+	}
+}
@@ -0,0 +1,92 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.Symbol;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.misc.MappedCharStream;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMappedCharStream extends BaseTest {
+	@Test public void testSameTokensAsStringInput() throws IOException {
+		for (Path p : getSamplePaths("CodeGen")) {
+			String input = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+			assertEquals(p.toString(),
+			             getTokens(new ANTLRInputStream(input)),
+			             getTokens(MappedCharStream.fromPath(p)));
+		}
+	}
+
+	@Test public void testNonASCII() throws IOException {
+		String input = "x := 'café ☃'. y := $é.";
+		Path p = writeFile("nonascii.st", input);
+		assertEquals(getTokens(new ANTLRInputStream(input)), getTokens(MappedCharStream.fromPath(p)));
+	}
+
+	@Test public void testEmptyFile() throws IOException {
+		Path p = writeFile("empty.st", "");
+		assertEquals(getTokens(new ANTLRInputStream("")), getTokens(MappedCharStream.fromPath(p)));
+	}
+
+	@Test public void testCompilePathMatchesCompileString() throws IOException {
+		for (Path p : getSamplePaths("CodeGen")) {
+			String input = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+			String fileName = p.getFileName().toString();
+			assertEquals(fileName, compile(fileName, input), toTestString(new Compiler().compile(p)));
+		}
+	}
+
+	public static String getTokens(CharStream input) {
+		CommonTokenStream tokens = new CommonTokenStream(new SmalltalkLexer(input));
+		tokens.fill();
+		StringBuilder buf = new StringBuilder("[");
+		for (Token t : tokens.getTokens()) {
+			if ( buf.length()>1 ) buf.append(", ");
+			buf.append(t.getText()).append(':').append(t.getType()).append('@')
+			   .append(t.getLine()).append(':').append(t.getCharPositionInLine());
+		}
+		return buf.append(']').toString();
+	}
+
+	public static Path[] getSamplePaths(String subdir) {
+		File dir = new File(Thread.currentThread().getContextClassLoader().getResource(subdir).getFile());
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".st"));
+		Path[] paths = new Path[files.length];
+		for (int i=0; i<files.length; i++) {
+			paths[i] = files[i].toPath();
+		}
+		return paths;
+	}
+
+	static Path writeFile(String name, String content) throws IOException {
+		Path dir = Paths.get(tmpdir);
+		Files.createDirectories(dir);
+		Path p = dir.resolve(name);
+		Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+		return p;
+	}
+
+	static String toTestString(STSymbolTable symtab) {
+		StringBuilder code = new StringBuilder();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( s instanceof STClass ) {
+				code.append(((STClass) s).toTestString());
+			}
+		}
+		return code.toString();
+	}
+}
@@ -0,0 +1,39 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestParseModes extends BaseTest {
+	@Test public void testValidInputParsesWithSLL() {
+		String input =
+		"class T [" +
+		"    |x|" +
+		"    at: i put: v [ x := [:a | a + v]. ^self ]" +
+		"]" +
+		"T new at: 1 put: 2.";
+		Compiler c = new Compiler();
+		c.compile("<string>", input);
+		assertEquals("SLL", c.stats.parseMode);
+		assertTrue(c.stats.totalNanos()>0);
+	}
+
+	@Test public void testSyntaxErrorFallsBackToLL() {
+		Compiler c = new Compiler();
+		assertNull(c.parseClasses(new ANTLRInputStream("class T [ foo [ ^ ] ")));
+		assertEquals("LL", c.stats.parseMode);
+	}
+
+	@Test public void testAllSamplesParseWithSLL() {
+		for (Object[] sample : getAllTestDescriptors("CodeGen")) {
+			Compiler c = new Compiler();
+			assertNotNull(c.parseClasses(new ANTLRInputStream((String)sample[1])));
+			assertEquals(sample[0].toString(), "SLL", c.stats.parseMode);
+		}
+	}
+}
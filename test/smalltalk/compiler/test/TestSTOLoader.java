@@ -0,0 +1,161 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.Symbol;
+import org.junit.Test;
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+import smalltalk.vm.MethodTable;
+import smalltalk.vm.STMetaClassObject;
+import smalltalk.vm.STOLoader;
+import smalltalk.vm.VMCompiledBlock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestSTOLoader extends BaseTest {
+	public static final String input =
+		"class T [" +
+		"    foo [ ^self bar: 'hi' ]" +
+		"    bar: x [ ^[:y | y size] value: x ]" +
+		"]" +
+		"class U : T [" +
+		"    foo [ ^self bar: 'hi' ]" +
+		"    baz [ ^T new foo ]" +
+		"]";
+
+	@Test public void testSelectorsSharedAcrossClasses() {
+		STOLoader loader = load(input);
+		STMetaClassObject t = loader.classes.get("T");
+		STMetaClassObject u = loader.classes.get("U");
+		int barT = t.literalIDs[indexOf(loader, t, "bar:")];
+		int barU = u.literalIDs[indexOf(loader, u, "bar:")];
+		assertEquals(barT, barU);
+		assertEquals("bar:", loader.selectors.get(barT));
+	}
+
+	@Test public void testBytecodeRewrittenToGlobalIDs() {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		STOLoader loader = new STOLoader();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			loader.load(((STClass)s).serialize());
+		}
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			STClass cl = (STClass)s;
+			STMetaClassObject loaded = loader.classes.get(cl.getName());
+			for (VMCompiledBlock m : loaded.methods) {
+				STCompiledBlock orig = cl.resolveMethod(m.name).compiledBlock;
+				assertSameCode(orig, cl.stringTable.toArray(), m, loader.selectors.toArray());
+			}
+		}
+	}
+
+	@Test public void testInternReport() {
+		STOLoader loader = load(input);
+		STOLoader.InternReport report = loader.getInternReport();
+		assertEquals(2, report.numClasses);
+		// T: bar: hi value: size; U: bar: hi T new foo
+		assertEquals(9, report.numLiteralRefs);
+		// plus method name baz, which is interned but not a literal
+		assertEquals(8, report.numUniqueLiterals);
+		assertTrue(report.getSavedBytes()>0);
+	}
+
+	@Test public void testMethodTables() {
+		STOLoader loader = load(input);
+		STMetaClassObject t = loader.classes.get("T");
+		STMetaClassObject u = loader.classes.get("U");
+		assertSame(t, u.superClass);
+		int foo = loader.selectors.lookup("foo");
+		int bar = loader.selectors.lookup("bar:");
+		int baz = loader.selectors.lookup("baz");
+		assertEquals("U>>foo", u.resolveMethod(foo).qualifiedName);
+		assertEquals("T>>bar:", u.resolveMethod(bar).qualifiedName);
+		assertNull(t.resolveMethod(baz));
+		assertNull(u.resolveClassMethod(foo));
+	}
+
+	@Test public void testSubclassLoadedBeforeSuperclass() {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		STOLoader loader = new STOLoader();
+		loader.load(((STClass)symtab.GLOBALS.resolve("U")).serialize());
+		assertNull(loader.classes.get("U").superClass);
+		loader.load(((STClass)symtab.GLOBALS.resolve("T")).serialize());
+		assertSame(loader.classes.get("T"), loader.classes.get("U").superClass);
+	}
+
+	@Test public void testMethodTableProbing() {
+		MethodTable table = new MethodTable(100);
+		VMCompiledBlock[] methods = new VMCompiledBlock[100];
+		for (int i=0; i<100; i++) {
+			methods[i] = new VMCompiledBlock("m"+i, "T>>m"+i, false, 0, 0, null,
+			                                 new byte[0], new VMCompiledBlock[0],
+			                                 false, false, false, null);
+			table.put(i*7, methods[i]);
+		}
+		assertEquals(256, table.capacity());
+		for (int i=0; i<100; i++) {
+			assertSame(methods[i], table.get(i*7));
+			assertNull(table.get(i*7+1));
+		}
+	}
+
+	@Test public void testLineTableLoaded() {
+		Compiler c = new Compiler();
+		c.genDbg = true;
+		STSymbolTable symtab = c.compile("T.st", input);
+		STOLoader loader = new STOLoader();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			loader.load(((STClass)s).serialize());
+		}
+		STMetaClassObject t = loader.classes.get("T");
+		assertEquals("T.st", t.sourceFile);
+		VMCompiledBlock bar = t.methods[1];
+		// 0000: block 0; 0003: push_local 0,0; 0008: send 1, 'value:'
+		assertEquals("T>>bar: (T.st:1:64)", bar.getSourceLocation(8));
+		assertEquals("T>>bar: (T.st:1:64)", bar.getSourceLocation(10)); // within send
+		assertEquals("T>>bar:", bar.getSourceLocation(0)); // no entry before the send
+		assertEquals("bar:>>bar:-block0 (T.st:1:58)", bar.blocks[0].getSourceLocation(5));
+
+		loader = load(input); // no -dbg
+		assertNull(loader.classes.get("T").sourceFile);
+		assertNull(loader.classes.get("T").methods[1].lineTable);
+	}
+
+	public static STOLoader load(String input) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("<string>", input);
+		assertEquals("[]", c.errors.toString());
+		STOLoader loader = new STOLoader();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			loader.load(((STClass)s).serialize());
+		}
+		return loader;
+	}
+
+	static int indexOf(STOLoader loader, STMetaClassObject cl, String literal) {
+		for (int i=0; i<cl.literalIDs.length; i++) {
+			if ( loader.selectors.get(cl.literalIDs[i]).equals(literal) ) return i;
+		}
+		return -1;
+	}
+
+	static void assertSameCode(STCompiledBlock orig, String[] literals, VMCompiledBlock loaded, String[] globals) {
+		assertEquals(Bytecode.disassemble(orig.name, orig.bytecode, literals, 0),
+		             Bytecode.disassemble(loaded.name, loaded.bytecode, globals, 0));
+		if ( orig.blocks==null ) {
+			assertEquals(0, loaded.blocks.length);
+			return;
+		}
+		assertEquals(orig.blocks.length, loaded.blocks.length);
+		for (int i=0; i<orig.blocks.length; i++) {
+			assertSameCode(orig.blocks[i], literals, loaded.blocks[i], globals);
+		}
+	}
+}
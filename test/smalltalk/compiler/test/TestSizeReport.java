@@ -0,0 +1,79 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.SizeReport;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import javax.json.JsonObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestSizeReport extends BaseTest {
+	public static final String input =
+		"class T [\n" +
+		"   foo [ ^'abc' size ]\n" +
+		"   bar: x [ ^[:y | y , 'abc'] value: x ]\n" +
+		"]\n";
+
+	@Test public void testSizesMatchObjectFiles() throws Exception {
+		for (boolean strip : new boolean[] {false, true}) {
+			Compiler c = new Compiler();
+			c.genDbg = true;
+			STSymbolTable symtab = c.compile("T.st", input);
+			assertEquals("[]", c.errors.toString());
+			Path dir = Files.createTempDirectory("sto");
+			STC.writeObjectFiles(dir.toString(), "T.st", symtab, strip);
+			SizeReport report = report(symtab, strip);
+			SizeReport.Entry t = report.classes.get(0);
+			assertEquals(Files.size(dir.resolve("T.sto")), t.jsonBytes);
+			assertEquals(Files.size(dir.resolve("T.stdbg")), t.debugBytes);
+		}
+	}
+
+	@Test public void testClassAndMethodRows() throws Exception {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		SizeReport report = report(symtab, false);
+		StringBuilder csv = new StringBuilder();
+		report.writeCSV(csv);
+		String[] rows = csv.toString().split("\n");
+		assertEquals("kind,class,name,bytecodeBytes,literalBytes,blocks,debugBytes,jsonBytes,binaryBytes", rows[0]);
+		assertEquals(4, rows.length);
+		SizeReport.Entry t = report.classes.get(0);
+		SizeReport.Entry foo = find(report, "T>>foo");
+		SizeReport.Entry bar = find(report, "T>>bar:");
+		// push_literal send return pop self return
+		assertEquals(12, foo.bytecodeBytes);
+		// 'abc' and size
+		assertEquals(7, foo.literalBytes);
+		assertEquals(0, foo.blocks);
+		assertEquals(1, bar.blocks);
+		assertEquals(foo.bytecodeBytes+bar.bytecodeBytes, t.bytecodeBytes);
+		assertEquals(0, t.debugBytes);
+		// bar: is bigger so comes first
+		assertTrue(rows[2].startsWith("method,T,T>>bar:,"));
+		assertTrue(bar.binaryBytes<bar.jsonBytes);
+
+		JsonObject json = report.toJSON();
+		assertEquals(t.jsonBytes, json.getJsonArray("classes").getJsonObject(0).getInt("jsonBytes"));
+		assertEquals("T>>bar:", json.getJsonArray("methods").getJsonObject(0).getString("name"));
+	}
+
+	public static SizeReport report(STSymbolTable symtab, boolean strip) {
+		SizeReport report = new SizeReport(strip);
+		report.add(STC.getCompiledClasses(symtab).get(0));
+		return report;
+	}
+
+	public static SizeReport.Entry find(SizeReport report, String name) {
+		for (SizeReport.Entry e : report.methods) {
+			if ( e.name.equals(name) ) return e;
+		}
+		return null;
+	}
+}
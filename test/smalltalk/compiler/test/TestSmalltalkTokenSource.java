@@ -0,0 +1,94 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.SmalltalkTokenSource;
+import smalltalk.compiler.bench.Corpus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** The hand-written lexer must emit exactly the tokens SmalltalkLexer does */
+public class TestSmalltalkTokenSource extends BaseTest {
+	@Test public void testSamples() {
+		for (String dir : new String[] {"CodeGen", "DbgInstruction"}) {
+			for (Object[] sample : getAllTestDescriptors(dir)) {
+				checkSame(sample[0].toString(), (String)sample[1]);
+			}
+		}
+	}
+
+	@Test public void testCorpus() {
+		checkSame("corpus", Corpus.generate(20));
+	}
+
+	@Test public void testKeywordsAndAssignment() {
+		checkSame("assign", "x:=3. x := 3. x: 3. at:put: y:x");
+		checkSame("primitive", "f <primitive:#Object_EQ> primitive:=1 primitives: primitive");
+		checkSame("reserved", "class classy class: self selfish super nil true false falsey");
+		checkSame("eof", "x:");
+	}
+
+	@Test public void testNumbersAndOperators() {
+		checkSame("numbers", "3-4 3 - 4 -5 --5 - x 3.14 3. 3.x 1..2 x-1 <= ~= \\\\ ->");
+	}
+
+	@Test public void testLiterals() {
+		checkSame("literals", "'it''s' '' $a $' $$ #foo #foo:bar: \"a \"\"quoted\"\" comment\" [:x | ^x]");
+		checkSame("lines", "class T [\n\tf [ ^'a\nb' ]\n]\n\"x\ny\" f");
+	}
+
+	@Test public void testErrors() {
+		checkSame("bad char", "x ! y");
+		checkSame("bad chars", "x\r\n!!y");
+		checkSame("bad symbol", "#1 # x");
+		checkSame("bad char literal", "$ x $@");
+		checkSame("unterminated string", "x 'abc\ndef");
+		checkSame("unterminated comment", "x \"abc");
+		checkSame("unterminated string after escapes", "'a''b''<");
+		checkSame("unterminated comment after escapes", "\"c\"\"d\"\")");
+		checkSame("unterminated after escape and newline", "x 'a''\nb''\nc");
+	}
+
+	public void checkSame(String name, String input) {
+		List<String> expectedErrors = new ArrayList<>();
+		Lexer antlr = new SmalltalkLexer(new ANTLRInputStream(input));
+		antlr.removeErrorListeners();
+		antlr.addErrorListener(collector(expectedErrors));
+		List<String> errors = new ArrayList<>();
+		SmalltalkTokenSource fast = new SmalltalkTokenSource(new ANTLRInputStream(input));
+		fast.removeErrorListeners();
+		fast.addErrorListener(collector(errors));
+		assertEquals(name, tokens(new CommonTokenStream(antlr)), tokens(new CommonTokenStream(fast)));
+		assertEquals(name, expectedErrors, errors);
+	}
+
+	static List<String> tokens(CommonTokenStream stream) {
+		stream.fill();
+		List<String> tokens = new ArrayList<>();
+		for (Token t : stream.getTokens()) {
+			tokens.add(t.toString());
+		}
+		return tokens;
+	}
+
+	static BaseErrorListener collector(List<String> errors) {
+		return new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+			                        int charPositionInLine, String msg, RecognitionException e)
+			{
+				errors.add(line+":"+charPositionInLine+" "+msg);
+			}
+		};
+	}
+}
@@ -0,0 +1,80 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.StaticProfile;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import javax.json.JsonObject;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestStaticProfile extends BaseTest {
+	public static final String input =
+		"class T [\n" +
+		"   |x|\n" +
+		"   foo [ x := 1. ^x + 2 ]\n" +
+		"   bar: y [ ^[:z | z , y] value: 'hi' ]\n" +
+		"   size <primitive:#String_SIZE>\n" +
+		"]\n";
+
+	@Test public void testCounts() {
+		StaticProfile profile = profile(input);
+		assertEquals(1, profile.numClasses);
+		assertEquals(3, profile.numMethods);
+		assertEquals(1, profile.numBlocks);
+		// foo: push_int store_field pop push_field push_int send return pop self return
+		// bar: block push_literal send return pop self return
+		// block: push_local push_local send block_return
+		assertEquals(21, profile.numInstructions);
+		assertEquals(3, (int)profile.opcodes.get("send"));
+		assertEquals(2, (int)profile.pairs.get("pop self"));
+		assertEquals(2, (int)profile.triples.get("pop self return"));
+		assertEquals("{'+'=1, ','=1, 'value:'=1}", sortedString(profile.operands.get("send[1]")));
+		assertEquals("{1=1, 2=1}", sortedString(profile.operands.get("push_int[0]")));
+		assertEquals("{0=1, 1=1}", sortedString(profile.blocksPerMethod));
+	}
+
+	@Test public void testCSVAndJSONAgree() throws Exception {
+		StaticProfile profile = profile(input);
+		StringBuilder csv = new StringBuilder();
+		profile.writeCSV(csv);
+		assertTrue(csv.toString().startsWith("section,key,count\ntotal,classes,1\n"));
+		assertTrue(csv.toString().contains("\noperand,\"send[1]=','\",1\n"));
+		JsonObject json = profile.toJSON();
+		assertEquals(3, json.getJsonObject("opcode").getInt("send"));
+		assertEquals(1, json.getJsonObject("operand").getJsonObject("send[1]").getInt("','"));
+		int csvLines = csv.toString().split("\n").length;
+		int jsonCounts = 0;
+		for (String section : json.keySet()) {
+			JsonObject counts = json.getJsonObject(section);
+			if ( section.equals("operand") ) {
+				for (String opnd : counts.keySet()) jsonCounts += counts.getJsonObject(opnd).size();
+			}
+			else {
+				jsonCounts += counts.size();
+			}
+		}
+		assertEquals(csvLines-1, jsonCounts);
+	}
+
+	public static StaticProfile profile(String input) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		assertEquals("[]", c.errors.toString());
+		StaticProfile profile = new StaticProfile();
+		for (STClass cl : STC.getCompiledClasses(symtab)) {
+			profile.add(cl);
+		}
+		return profile;
+	}
+
+	public static String sortedString(Map<?,Integer> counts) {
+		return new TreeMap<>(counts).toString();
+	}
+}
@@ -0,0 +1,130 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.Symbol;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.bench.Corpus;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestStreamingCompile extends BaseTest {
+	@Test public void testSamplesSameAsBatch() {
+		for (Object[] sample : getAllTestDescriptors("CodeGen")) {
+			String input = (String)sample[1];
+			Compiler batch = new Compiler();
+			Compiler stream = new Compiler();
+			Map<String,String> expected = classStrings(batch.compile("<string>", input));
+			Map<String,String> result = classStrings(stream.compileStreaming("<string>", new ANTLRInputStream(input), cl -> { }));
+			assertEquals(sample[0].toString(), expected, result);
+			assertEquals(batch.errors, stream.errors);
+		}
+	}
+
+	@Test public void testCorpusSameAsBatch() {
+		String input = Corpus.generate(10);
+		Map<String,String> expected = classStrings(new Compiler().compile("<string>", input));
+		Map<String,String> result = classStrings(new Compiler().compileStreaming("<string>", new ANTLRInputStream(input), cl -> { }));
+		assertEquals(expected, result);
+	}
+
+	@Test public void testEachClassDoneBeforeNextParsed() {
+		String input =
+			"class A [ f [ ^1 ] ]\n" +
+			"class B [ g [ ^2 ] ]\n" +
+			"A new f.\n";
+		STSymbolTable symtab = new STSymbolTable();
+		Compiler c = new Compiler(symtab);
+		List<String> done = new ArrayList<>();
+		c.compileStreaming("<string>", new ANTLRInputStream(input), cl -> {
+			// record how many classes are defined when each is done
+			done.add(cl.getName()+" "+symtab.GLOBALS.getNumberOfSymbols());
+			for (MethodSymbol m : cl.getDefinedMethods()) {
+				assertNull(((STMethod)m).getDefNode());
+			}
+		});
+		assertEquals("[A 1, B 2, MainClass 3]", done.toString());
+	}
+
+	@Test public void testForwardSuperclassDeferred() {
+		String input =
+			"class C : B [ |z| h [ ^x + y + z ] ]\n" +
+			"class B : A [ |y| g [ ^x + y ] ]\n" +
+			"class A [ |x| f [ ^x ] ]\n";
+		List<String> done = new ArrayList<>();
+		Compiler c = new Compiler();
+		Map<String,String> result = classStrings(c.compileStreaming("<string>", new ANTLRInputStream(input), cl -> done.add(cl.getName())));
+		assertEquals("[A, B, C]", done.toString());
+		assertEquals(classStrings(new Compiler().compile("<string>", input)), result);
+	}
+
+	@Test public void testUndefinedSuperclassGeneratedAtEOF() {
+		String input =
+			"class B : Missing [ |y| g [ ^y ] ]\n" +
+			"class A [ f [ ^1 ] ]\n";
+		List<String> done = new ArrayList<>();
+		Compiler c = new Compiler();
+		Map<String,String> result = classStrings(c.compileStreaming("<string>", new ANTLRInputStream(input), cl -> done.add(cl.getName())));
+		assertEquals("[A, B]", done.toString());
+		assertEquals(classStrings(new Compiler().compile("<string>", input)), result);
+	}
+
+	@Test public void testSyntaxErrorSkipsOnlyThatClass() {
+		String input =
+			"class A [ f [ ^ ] ]\n" +
+			"class B [ g [ ^2 ] ]\n";
+		List<String> done = new ArrayList<>();
+		Compiler c = new Compiler();
+		c.compileStreaming("<string>", new ANTLRInputStream(input), cl -> done.add(cl.getName()));
+		assertEquals("LL", c.stats.parseMode);
+		assertEquals("[B]", done.toString());
+	}
+
+	@Test public void testNoObjectFilesAfterErrorInLaterClass() throws Exception {
+		String input =
+			"class A [ f [ ^1 ] ]\n" +
+			"class B [ |y y| g [ ^2 ] ]\n" +
+			"class C [ h [ ^4 ] ]\n";
+		Path dir = Files.createTempDirectory("stream");
+		Path st = dir.resolve("T.st");
+		Files.write(st, input.getBytes(StandardCharsets.UTF_8));
+		Compiler c = new Compiler();
+		try {
+			STC.compileStreaming(c, st.toString(), dir.toString(), false);
+			fail("expecting compile errors");
+		}
+		catch (RuntimeException e) {
+			assertEquals("compile errors: [redefinition of y in global>>B]", e.getMessage());
+		}
+		try (DirectoryStream<Path> objs = Files.newDirectoryStream(dir, "*.sto")) {
+			assertFalse(objs.iterator().hasNext());
+		}
+		Files.delete(st);
+		Files.delete(dir);
+	}
+
+	static Map<String,String> classStrings(STSymbolTable symtab) {
+		Map<String,String> classes = new LinkedHashMap<>();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			classes.put(s.getName(), ((STClass)s).toTestString());
+		}
+		return classes;
+	}
+}
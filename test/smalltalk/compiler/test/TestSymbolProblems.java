@@ -106,6 +106,47 @@ public class TestSymbolProblems extends BaseTest {
 		check(input, expecting, errors);
 	}
 
+	@Test public void testUnknownPrimitive() {
+		String input =
+		"class T [" +
+		"    f <primitive:#T_NOSUCHTHING>" +
+		"    g <primitive:#Object_print>" +
+		"]";
+		CompilerWithHooks compiler = new CompilerWithHooks();
+		compiler.checkPrimitives = true;
+		compiler.compile("<string>", input);
+		String[] errors = {"unknown primitive T_NOSUCHTHING in T>>f"};
+		assertEquals(Arrays.asList(errors), compiler.errors);
+	}
+
+	@Test public void testPrimitiveArityMismatch() {
+		String input =
+		"class T [" +
+		"    foo <primitive:#Object_EQ>" +
+		"    bar: x <primitive:#Object_print>" +
+		"    == x <primitive:#Object_EQ>" +
+		"    ifTrue: a ifFalse: b <primitive:#Boolean_IFTRUE_IFFALSE>" +
+		"]";
+		CompilerWithHooks compiler = new CompilerWithHooks();
+		compiler.checkPrimitives = true;
+		compiler.compile("<string>", input);
+		String[] errors = {
+			"primitive Object_EQ takes 1 args but T>>foo takes 0",
+			"primitive Object_print takes 0 args but T>>bar: takes 1"
+		};
+		assertEquals(Arrays.asList(errors), compiler.errors);
+	}
+
+	@Test public void testUnknownPrimitiveUncheckedByDefault() {
+		String input =
+		"class T [" +
+		"    f <primitive:#T_NOSUCHTHING>" +
+		"]";
+		String expecting = "global>>T, T>>f";
+		String[] errors = {};
+		check(input, expecting, errors);
+	}
+
 	public void check(String input, String expecting, String[] errors) {
 		CompilerWithHooks compiler = parseAndDefineSymbols(input);
 		String result = compiler.getSymbolTable().GLOBALS.toTestString(", ", ">>");